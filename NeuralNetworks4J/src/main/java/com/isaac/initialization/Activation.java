@@ -1,34 +1,150 @@
 package com.isaac.initialization;
 
-import java.util.function.DoubleFunction;
-
+/**
+ * Activation functions as in-place kernels over primitive arrays. Every constant has its own implementation of the
+ * loops, so the element-wise work is monomorphic and there is a single dispatch per row or block instead of one boxed
+ * call per unit. Derivatives are fused with the delta they scale and take the activated values f(x). Every kernel
+ * also exists for float arrays, used by the single precision mode.
+ */
 @SuppressWarnings("Duplicates")
 public enum Activation {
-    ReLU, Sigmoid, Tanh, LeakyReLU, ParametricReLU;
+    ReLU {
+        @Override
+        public void apply(double[] x, int xOff, double[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = relu(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(double[] y, int yOff, double[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= drelu(y[yOff + i]);
+        }
+
+        @Override
+        public void apply(float[] x, int xOff, float[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = (float) relu(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(float[] y, int yOff, float[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= (float) drelu(y[yOff + i]);
+        }
+    },
+    Sigmoid {
+        @Override
+        public void apply(double[] x, int xOff, double[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = sigmoid(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(double[] y, int yOff, double[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= dsigmoid(y[yOff + i]);
+        }
+
+        @Override
+        public void apply(float[] x, int xOff, float[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = (float) sigmoid(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(float[] y, int yOff, float[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= (float) dsigmoid(y[yOff + i]);
+        }
+    },
+    Tanh {
+        @Override
+        public void apply(double[] x, int xOff, double[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = tanh(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(double[] y, int yOff, double[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= dtanh(y[yOff + i]);
+        }
+
+        @Override
+        public void apply(float[] x, int xOff, float[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = (float) tanh(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(float[] y, int yOff, float[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= (float) dtanh(y[yOff + i]);
+        }
+    },
+    LeakyReLU {
+        @Override
+        public void apply(double[] x, int xOff, double[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = leakyrelu(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(double[] y, int yOff, double[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= dleakyrelu(y[yOff + i]);
+        }
 
-    public static DoubleFunction<Double> active (Activation activation) {
-        switch (activation) {
-            case Sigmoid: return Activation::sigmoid;
-            case Tanh: return Activation::tanh;
-            case ReLU:return Activation::relu;
-            case ParametricReLU:
-            case LeakyReLU: return Activation::leakyrelu;
-            default: throw new IllegalArgumentException("Given activation method not found or un-supported");
+        @Override
+        public void apply(float[] x, int xOff, float[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = (float) leakyrelu(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(float[] y, int yOff, float[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= (float) dleakyrelu(y[yOff + i]);
+        }
+    },
+    ParametricReLU { // no learned slope yet, behaves as LeakyReLU
+        @Override
+        public void apply(double[] x, int xOff, double[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = leakyrelu(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(double[] y, int yOff, double[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= dleakyrelu(y[yOff + i]);
+        }
+
+        @Override
+        public void apply(float[] x, int xOff, float[] y, int yOff, int length) {
+            for (int i = 0; i < length; i++) y[yOff + i] = (float) leakyrelu(x[xOff + i]);
+        }
+
+        @Override
+        public void backprop(float[] y, int yOff, float[] d, int dOff, int length) {
+            for (int i = 0; i < length; i++) d[dOff + i] *= (float) dleakyrelu(y[yOff + i]);
+        }
+    };
+
+    // y[yOff, yOff + length) = f(x[xOff, xOff + length)), x and y may be the same array
+    public abstract void apply(double[] x, int xOff, double[] y, int yOff, int length);
+
+    // d[dOff, dOff + length) *= f'(x), given the activated values y = f(x)
+    public abstract void backprop(double[] y, int yOff, double[] d, int dOff, int length);
+
+    public abstract void apply(float[] x, int xOff, float[] y, int yOff, int length);
+
+    public abstract void backprop(float[] y, int yOff, float[] d, int dOff, int length);
+
+    // in-place f(x) over x[offset, offset + length)
+    public void apply(double[] x, int offset, int length) { apply(x, offset, x, offset, length); }
+
+    // in-place f(x + b) over the rows of a flat [rows, cols] block, one bias per column
+    public void apply(double[] x, int offset, int rows, int cols, double[] b, int bOffset) {
+        for (int n = 0; n < rows; n++) {
+            int row = offset + n * cols;
+            for (int j = 0; j < cols; j++) x[row + j] += b[bOffset + j];
+            apply(x, row, x, row, cols);
         }
     }
 
-    public static DoubleFunction<Double> dactive(Activation activation) {
-        switch (activation) {
-            case Sigmoid: return Activation::dsigmoid;
-            case Tanh: return Activation::dtanh;
-            case ReLU: return Activation::drelu;
-            case ParametricReLU:
-            case LeakyReLU: return Activation::dleakyrelu;
-            default: throw new IllegalArgumentException("Given activation method not found or un-supported");
+    public void apply(float[] x, int offset, int rows, int cols, double[] b, int bOffset) {
+        for (int n = 0; n < rows; n++) {
+            int row = offset + n * cols;
+            for (int j = 0; j < cols; j++) x[row + j] += (float) b[bOffset + j];
+            apply(x, row, x, row, cols);
         }
     }
 
-    public static double sigmoid(double x) { return 1.0 / (1.0 + Math.pow(Math.E, -x)); }
+    public static double sigmoid(double x) { return 1.0 / (1.0 + Math.exp(-x)); }
 
     public static double dsigmoid(double y) { return y * (1.0 - y); }
 
@@ -45,19 +161,37 @@ public enum Activation {
     public static double dleakyrelu(double y) { return y > 0 ? 1.0 : 0.01; }
 
     public static double[] softmax(double[] x) {
-        int size = x.length;
-        double[] y = new double[size];
-        double max = 0.0;
+        double[] y = x.clone();
+        softmax(y, 0, y.length);
+        return y;
+    }
+
+    // in-place softmax over x[offset, offset + size), e.g. one row of a flat minibatch
+    public static void softmax(double[] x, int offset, int size) {
+        double max = x[offset];
         double sum = 0.0;
-        for (double val : x) {
-            if (max < val) max = val; // prevent overflow
+        for (int i = offset + 1; i < offset + size; i++) {
+            if (max < x[i]) max = x[i]; // prevent overflow
         }
-        for (int i = 0; i < size; i++) {
-            y[i] = Math.exp(x[i] - max);
-            sum += y[i];
+        for (int i = offset; i < offset + size; i++) {
+            x[i] = Math.exp(x[i] - max);
+            sum += x[i];
         }
-        for (int i = 0; i < size; i++) y[i] /= sum;
-        return y;
+        for (int i = offset; i < offset + size; i++) x[i] /= sum;
+    }
+
+    // the exponentials are summed in double
+    public static void softmax(float[] x, int offset, int size) {
+        float max = x[offset];
+        double sum = 0.0;
+        for (int i = offset + 1; i < offset + size; i++) {
+            if (max < x[i]) max = x[i]; // prevent overflow
+        }
+        for (int i = offset; i < offset + size; i++) {
+            x[i] = (float) Math.exp(x[i] - max);
+            sum += x[i];
+        }
+        for (int i = offset; i < offset + size; i++) x[i] /= sum;
     }
 
 }
@@ -1,9 +1,11 @@
 package com.isaac.initialization;
 
+import com.isaac.utils.Tensor;
+
 public enum BiasInit {
     CONSTANT, ZERO;
 
-    public static double[] apply (int nOut, Double val, BiasInit biasInit) {
+    public static Tensor apply (int nOut, Double val, BiasInit biasInit) {
         val = val == null ? 0.0 : val;
         switch (biasInit) {
             case CONSTANT: return constant(nOut, val);
@@ -12,13 +14,11 @@ public enum BiasInit {
         }
     }
 
-    private static double[] constant (int nOut, Double val) {
-        double[] bias = new double[nOut];
-        for (int i = 0; i < nOut; i++) bias[i] = val;
-        return bias;
+    private static Tensor constant (int nOut, Double val) {
+        return new Tensor(nOut).fill(val);
     }
 
-    private static double[] zero (int nOut) {
+    private static Tensor zero (int nOut) {
         return constant(nOut, 0.0);
     }
 }
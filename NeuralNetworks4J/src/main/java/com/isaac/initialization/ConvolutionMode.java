@@ -0,0 +1,33 @@
+package com.isaac.initialization;
+
+import com.isaac.utils.Winograd;
+
+public enum ConvolutionMode {
+    DIRECT, IM2COL, WINOGRAD, AUTO;
+
+    // below this many multiply-adds per sample the lowered matrix costs more than it saves
+    private static final long IM2COL_THRESHOLD = 4096;
+    // the tile transforms are shared by the kernels and the channels, with fewer of either they cost more than the
+    // multiplies they save
+    private static final int WINOGRAD_CHANNELS = 16;
+
+    public static ConvolutionMode resolve(ConvolutionMode mode, int nKernel, int channel, int[] kernelSize,
+                                          int[] convolvedSize) {
+        mode = mode == null ? AUTO : mode;
+        switch (mode) {
+            case DIRECT:
+            case IM2COL: return mode;
+            case WINOGRAD:
+                if (!Winograd.supports(kernelSize))
+                    throw new IllegalArgumentException("Given kernel size un-supported by the Winograd convolution");
+                return mode;
+            case AUTO:
+                long macs = (long) nKernel * channel * kernelSize[0] * kernelSize[1] * convolvedSize[0] * convolvedSize[1];
+                if (macs < IM2COL_THRESHOLD) return DIRECT;
+                boolean winograd = Winograd.supports(kernelSize) && nKernel >= WINOGRAD_CHANNELS
+                        && channel >= WINOGRAD_CHANNELS;
+                return winograd ? WINOGRAD : IM2COL;
+            default: throw new IllegalArgumentException("Given convolution mode not found or un-supported");
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.isaac.initialization;
+
+public enum Precision {
+    DOUBLE, // double storage and arithmetic
+    FLOAT, // float weights copies, activations and deltas, float accumulation in the matrix products
+    MIXED; // float storage as FLOAT, but the matrix products and reductions accumulate in double
+
+    public boolean isFloat() { return this != DOUBLE; }
+
+    public boolean accumulatesDouble() { return this != FLOAT; }
+}
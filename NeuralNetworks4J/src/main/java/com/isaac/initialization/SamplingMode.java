@@ -0,0 +1,8 @@
+package com.isaac.initialization;
+
+public enum SamplingMode {
+    CD, // contrastive divergence, the negative chains restart from the data of every minibatch
+    // persistent contrastive divergence, the negative chains continue from where the previous minibatch left them; the
+    // chains only track the model while the weights move slowly, so it wants a smaller learning rate than CD
+    PCD
+}
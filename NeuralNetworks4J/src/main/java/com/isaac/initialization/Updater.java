@@ -0,0 +1,220 @@
+package com.isaac.initialization;
+
+/**
+ * Parameter update rules of gradient descent. Each constant is one fused in-place pass over a parameter tensor: the
+ * gradient summed over the minibatch is averaged, the moment buffers are updated and the step is written to the
+ * weights, and to their float copy in single precision, without a separate loop per stage. The moment buffers of a
+ * tensor are allocated once, in its {@link State}. The learning rate is the step size of every rule, Adam and the
+ * adaptive rules expect smaller ones than SGD, e.g. 0.001 to 0.01.
+ */
+@SuppressWarnings("unused")
+public enum Updater {
+    SGD(0) {
+        @Override
+        void apply(int n, double lr, int minibatchSize, double[] g, float[] gf, int gOff, double[] w, int wOff,
+                   float[] wf, int wfOff, double[] m, double[] v, int sOff, long t) {
+            double a = -lr / minibatchSize;
+            for (int i = 0; i < n; i++) {
+                w[wOff + i] += a * (gf != null ? gf[gOff + i] : g[gOff + i]);
+                if (wf != null) wf[wfOff + i] = (float) w[wOff + i];
+            }
+        }
+    },
+    // v = mu v - lr g, w += v
+    MOMENTUM(1) {
+        @Override
+        void apply(int n, double lr, int minibatchSize, double[] g, float[] gf, int gOff, double[] w, int wOff,
+                   float[] wf, int wfOff, double[] m, double[] v, int sOff, long t) {
+            double scale = 1. / minibatchSize;
+            for (int i = 0; i < n; i++) {
+                double g_ = (gf != null ? gf[gOff + i] : g[gOff + i]) * scale;
+                double m_ = MU * m[sOff + i] - lr * g_;
+                m[sOff + i] = m_;
+                w[wOff + i] += m_;
+                if (wf != null) wf[wfOff + i] = (float) w[wOff + i];
+            }
+        }
+    },
+    // momentum with the gradient taken at the look-ahead point, in the form that keeps only the current weights:
+    // w += -mu v_prev + (1 + mu) v
+    NESTEROV(1) {
+        @Override
+        void apply(int n, double lr, int minibatchSize, double[] g, float[] gf, int gOff, double[] w, int wOff,
+                   float[] wf, int wfOff, double[] m, double[] v, int sOff, long t) {
+            double scale = 1. / minibatchSize;
+            for (int i = 0; i < n; i++) {
+                double g_ = (gf != null ? gf[gOff + i] : g[gOff + i]) * scale;
+                double prev = m[sOff + i], m_ = MU * prev - lr * g_;
+                m[sOff + i] = m_;
+                w[wOff + i] += -MU * prev + (1. + MU) * m_;
+                if (wf != null) wf[wfOff + i] = (float) w[wOff + i];
+            }
+        }
+    },
+    // per weight step sizes shrinking with the sum of its squared gradients
+    ADAGRAD(1) {
+        @Override
+        void apply(int n, double lr, int minibatchSize, double[] g, float[] gf, int gOff, double[] w, int wOff,
+                   float[] wf, int wfOff, double[] m, double[] v, int sOff, long t) {
+            double scale = 1. / minibatchSize;
+            for (int i = 0; i < n; i++) {
+                double g_ = (gf != null ? gf[gOff + i] : g[gOff + i]) * scale;
+                double m_ = m[sOff + i] + g_ * g_;
+                m[sOff + i] = m_;
+                w[wOff + i] -= lr * g_ / (Math.sqrt(m_) + EPSILON);
+                if (wf != null) wf[wfOff + i] = (float) w[wOff + i];
+            }
+        }
+    },
+    // AdaGrad with a decaying average of the squared gradients instead of their sum
+    RMSPROP(1) {
+        @Override
+        void apply(int n, double lr, int minibatchSize, double[] g, float[] gf, int gOff, double[] w, int wOff,
+                   float[] wf, int wfOff, double[] m, double[] v, int sOff, long t) {
+            double scale = 1. / minibatchSize;
+            for (int i = 0; i < n; i++) {
+                double g_ = (gf != null ? gf[gOff + i] : g[gOff + i]) * scale;
+                double m_ = RHO * m[sOff + i] + (1. - RHO) * g_ * g_;
+                m[sOff + i] = m_;
+                w[wOff + i] -= lr * g_ / (Math.sqrt(m_) + EPSILON);
+                if (wf != null) wf[wfOff + i] = (float) w[wOff + i];
+            }
+        }
+    },
+    // decaying averages of the gradients and of their squares, with the bias of their zero start folded into the step
+    ADAM(2) {
+        @Override
+        void apply(int n, double lr, int minibatchSize, double[] g, float[] gf, int gOff, double[] w, int wOff,
+                   float[] wf, int wfOff, double[] m, double[] v, int sOff, long t) {
+            double scale = 1. / minibatchSize;
+            double step = lr * Math.sqrt(1. - Math.pow(BETA2, t)) / (1. - Math.pow(BETA1, t));
+            for (int i = 0; i < n; i++) {
+                double g_ = (gf != null ? gf[gOff + i] : g[gOff + i]) * scale;
+                double m_ = BETA1 * m[sOff + i] + (1. - BETA1) * g_;
+                double v_ = BETA2 * v[sOff + i] + (1. - BETA2) * g_ * g_;
+                m[sOff + i] = m_;
+                v[sOff + i] = v_;
+                w[wOff + i] -= step * m_ / (Math.sqrt(v_) + EPSILON);
+                if (wf != null) wf[wfOff + i] = (float) w[wOff + i];
+            }
+        }
+    };
+
+    public static final double MU = .9; // momentum
+    public static final double RHO = .9; // decay of the squared gradients of RMSProp
+    public static final double BETA1 = .9, BETA2 = .999; // decays of the moments of Adam
+    public static final double EPSILON = 1e-8;
+
+    private final int moments; // state buffers per parameter
+
+    Updater(int moments) {
+        this.moments = moments;
+    }
+
+    // one step over w[wOff, wOff + n) for the gradient g summed over the minibatch, read from gf instead when it is not
+    // null, with the moments m and v at sOff; the float copy wf follows w when it is not null. t counts from 1
+    abstract void apply(int n, double lr, int minibatchSize, double[] g, float[] gf, int gOff, double[] w, int wOff,
+                        float[] wf, int wfOff, double[] m, double[] v, int sOff, long t);
+
+    public State state(int length) { return new State(this, length); }
+
+    /**
+     * The state of the updates of one parameter tensor of the given length: the moment buffers of its updater and the
+     * number of steps taken. A step either updates the whole tensor at once, or is begun by {@link #step} and applied
+     * to disjoint ranges, e.g. rows of W split across threads. While recording, the updates are timed and the squares
+     * of the averaged gradients they descend are summed, for the metrics of a training listener.
+     */
+    public static final class State {
+        private final Updater updater;
+        private final int length;
+        private final double[] m, v;
+        private long steps;
+        private boolean recording;
+        private int updates; // recorded updates, whole or ranges
+        private long nanos; // recorded time spent updating, summed over the threads of ranged updates
+        private double squares; // recorded sum of the squared averaged gradients
+
+        private State(Updater updater, int length) {
+            this.updater = updater;
+            this.length = length;
+            this.m = updater.moments > 0 ? new double[length] : null;
+            this.v = updater.moments > 1 ? new double[length] : null;
+        }
+
+        // a step over the whole tensor w, descending the summed gradient g
+        public void update(double lr, int minibatchSize, double[] g, int gOff, double[] w, int wOff) {
+            steps++;
+            if (!recording) {
+                updater.apply(length, lr, minibatchSize, g, null, gOff, w, wOff, null, 0, m, v, 0, steps);
+                return;
+            }
+            long start = System.nanoTime();
+            updater.apply(length, lr, minibatchSize, g, null, gOff, w, wOff, null, 0, m, v, 0, steps);
+            record(System.nanoTime() - start, squares(length, minibatchSize, g, null, gOff));
+        }
+
+        // a step for a float gradient, also rounding w into its float copy wf
+        public void update(double lr, int minibatchSize, float[] g, int gOff, double[] w, int wOff, float[] wf,
+                           int wfOff) {
+            steps++;
+            if (!recording) {
+                updater.apply(length, lr, minibatchSize, null, g, gOff, w, wOff, wf, wfOff, m, v, 0, steps);
+                return;
+            }
+            long start = System.nanoTime();
+            updater.apply(length, lr, minibatchSize, null, g, gOff, w, wOff, wf, wfOff, m, v, 0, steps);
+            record(System.nanoTime() - start, squares(length, minibatchSize, null, g, gOff));
+        }
+
+        // begins a step that is applied in ranges
+        public void step() { steps++; }
+
+        // elements [from, from + n) of the current step, g and w are read at gOff and wOff for element from
+        public void apply(int from, int n, double lr, int minibatchSize, double[] g, int gOff, double[] w, int wOff) {
+            if (!recording) {
+                updater.apply(n, lr, minibatchSize, g, null, gOff, w, wOff, null, 0, m, v, from, steps);
+                return;
+            }
+            long start = System.nanoTime();
+            updater.apply(n, lr, minibatchSize, g, null, gOff, w, wOff, null, 0, m, v, from, steps);
+            record(System.nanoTime() - start, squares(n, minibatchSize, g, null, gOff));
+        }
+
+        // starts recording from zero, or stops it keeping what was recorded
+        public void record(boolean recording) {
+            this.recording = recording;
+            if (!recording) return;
+            updates = 0;
+            nanos = 0;
+            squares = 0.;
+        }
+
+        // the ranges of a step may be applied by several threads at once
+        private synchronized void record(long nanos, double squares) {
+            this.updates++;
+            this.nanos += nanos;
+            this.squares += squares;
+        }
+
+        // sum of the squares of the gradient summed over the minibatch, averaged as the updaters descend it
+        private static double squares(int n, int minibatchSize, double[] g, float[] gf, int gOff) {
+            double sum = 0.;
+            for (int i = 0; i < n; i++) {
+                double g_ = gf != null ? gf[gOff + i] : g[gOff + i];
+                sum += g_ * g_;
+            }
+            return sum / ((double) minibatchSize * minibatchSize);
+        }
+
+        /** Getters */
+        public Updater getUpdater() { return updater; }
+        public int length() { return length; }
+        public long getSteps() { return steps; }
+        // whether the updates are timed for a listener, layers that fuse plain SGD into their kernels then apply it
+        // through this state instead, so that the gradient is recorded
+        public boolean isRecording() { return recording; }
+        public synchronized long getRecordedNanos() { return nanos; }
+        // NaN if nothing was recorded
+        public synchronized double getRecordedSquares() { return updates == 0 ? Double.NaN : squares; }
+    }
+}
@@ -2,13 +2,25 @@ package com.isaac.layers;
 
 
 import com.isaac.initialization.Activation;
-import com.isaac.utils.RandomGenerator;
+import com.isaac.initialization.ConvolutionMode;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
+import com.isaac.utils.Gemm;
+import com.isaac.utils.Im2col;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.RandomStream;
+import com.isaac.utils.Tensor;
+import com.isaac.utils.Winograd;
 
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.function.DoubleFunction;
 
 @SuppressWarnings("unused")
-public class ConvolutionPoolingLayer {
+public class ConvolutionPoolingLayer implements Layer {
 	private int[] imageSize;
     private int channel;
     private int nKernel;
@@ -16,32 +28,47 @@ public class ConvolutionPoolingLayer {
     private int[] poolSize;
     private int[] convolvedSize;
     private int[] pooledSize;
-    private double[][][][] W;
-    private double[] b;
+    private Tensor W; // [nKernel, channel, kernelSize[0], kernelSize[1]]
+    private Tensor b; // [nKernel]
     private Random rng;
-    private DoubleFunction<Double> activation;
-    private DoubleFunction<Double> dactivation;
+    private Activation activation;
+    private ConvolutionMode convolutionMode;
+    private Parallelism parallelism; // null for single threaded inference, training stays single threaded
+    private int patchSize; // channel * kernelSize[0] * kernelSize[1], rows of the lowered input
+    private int patches; // convolvedSize[0] * convolvedSize[1], columns of the lowered input
+    private double[] cols; // im2col workspace [patchSize, patches]
+    private double[] dcols;
+    private Winograd winograd; // kernel transforms and buffers of the Winograd engine in training
+    private Winograd inference; // forward kernel transforms read by every inference call, see inferenceKernels
+    private long version; // of W, bumped on every change of W made through this layer
+    private long inferenceVersion = -1; // version of W the inference transforms were computed from
+    private double[] convolved; // [nKernel, patches] convolutions of one sample, the delta D_n of one sample in backward
+    private int[] argmax; // [minibatchSize, nKernel, pooledSize[0], pooledSize[1]] position of each max in its map
+    private double[] delta; // [minibatchSize, nKernel, pooledSize[0], pooledSize[1]] delta of the pooled units
+    private double[] grad_W; // [nKernel, patchSize]
+    private double[] grad_b; // [nKernel]
+    private Updater.State updateW, updateB; // moments of the updates of W and b
 
     public ConvolutionPoolingLayer(int[] imageSize, int channel, int nKernel, int[] kernelSize, int[] poolSize,
                                    int[] convolvedSize, int[] pooledSize, Random rng, Activation activationMethod) {
+        this(imageSize, channel, nKernel, kernelSize, poolSize, convolvedSize, pooledSize, rng, activationMethod,
+                ConvolutionMode.AUTO);
+    }
+
+    public ConvolutionPoolingLayer(int[] imageSize, int channel, int nKernel, int[] kernelSize, int[] poolSize,
+                                   int[] convolvedSize, int[] pooledSize, Random rng, Activation activationMethod,
+                                   ConvolutionMode convolutionMode) {
         if (rng == null) 
         	rng = new Random(1234);
         if (W == null) {
-            W = new double[nKernel][channel][kernelSize[0]][kernelSize[1]];
+            W = new Tensor(nKernel, channel, kernelSize[0], kernelSize[1]);
             double in_ = channel * kernelSize[0] * kernelSize[1];
             double out_ = nKernel * kernelSize[0] * kernelSize[1] / (poolSize[0] * poolSize[1]);
             double w_ = Math.sqrt(6. / (in_ + out_));
-            for (int k = 0; k < nKernel; k++) {
-                for (int c = 0; c < channel; c++) {
-                    for (int s = 0; s < kernelSize[0]; s++) {
-                        for (int t = 0; t < kernelSize[1]; t++) {
-                            W[k][c][s][t] = RandomGenerator.uniform(-w_, w_, rng);
-                        }
-                    }
-                }
-            }
+            // kernels are laid out contiguously as [k][c][s][t]
+            RandomStream.of(rng).uniform(W.data(), 0, W.length(), -w_, w_);
         }
-        if (b == null) b = new double[nKernel];
+        if (b == null) b = new Tensor(nKernel);
         this.imageSize = imageSize;
         this.channel = channel;
         this.nKernel = nKernel;
@@ -50,153 +77,304 @@ public class ConvolutionPoolingLayer {
         this.convolvedSize = convolvedSize;
         this.pooledSize = pooledSize;
         this.rng = rng;
-        activationMethod = activationMethod == null ? Activation.ReLU : activationMethod;
-        this.activation = Activation.active(activationMethod);
-        this.dactivation = Activation.dactive(activationMethod);
+        this.activation = activationMethod == null ? Activation.ReLU : activationMethod;
+        this.convolutionMode = convolutionMode == null ? ConvolutionMode.AUTO : convolutionMode;
+        this.patchSize = channel * kernelSize[0] * kernelSize[1];
+        this.patches = convolvedSize[0] * convolvedSize[1];
+        setUpdater(Updater.SGD);
     }
 
 
-    public double[][][] forward(double[][][] x, double[][][] preActivated_X, double[][][] activated_X) {
-        double[][][] z = this.convolve(x, preActivated_X, activated_X);
-        return  this.downsample(z);
+    // x: [channel, imageSize[0], imageSize[1]], returns the pooled feature maps [nKernel, pooledSize[0], pooledSize[1]],
+    // or a batch [N, channel, imageSize[0], imageSize[1]] for inference, no position of the maxima is kept
+    public Tensor forward(Tensor x) {
+        int rows = x.length() / (channel * imageSize[0] * imageSize[1]);
+        return output(x, x.rank() == 3 ? new Tensor(nKernel, pooledSize[0], pooledSize[1])
+                : new Tensor(rows, nKernel, pooledSize[0], pooledSize[1]));
     }
 
+    // writes the pooled feature maps of the batch x into the given y. Every call, and every chunk of a parallel one,
+    // lowers its images into buffers of its own, so a trained layer can be used from several threads at once
+    @Override
+    public Tensor output(Tensor x, Tensor y) {
+        int in_ = channel * imageSize[0] * imageSize[1], out_ = nKernel * pooledSize[0] * pooledSize[1];
+        int rows = x.length() / in_;
+        ConvolutionMode engine_ = engine();
+        Winograd kernels_ = engine_ == ConvolutionMode.WINOGRAD ? inferenceKernels() : null;
+        Parallelism.forEach(parallelism, rows, (chunk, from, to) -> {
+            double[] cols_ = engine_ == ConvolutionMode.IM2COL ? new double[patchSize * patches] : null;
+            double[] convolved_ = engine_ != ConvolutionMode.DIRECT ? new double[nKernel * patches] : null;
+            Winograd winograd_ = kernels_ != null ? kernels_.share() : null;
+            for (int n = from; n < to; n++) {
+                this.forward(x.data(), x.offset() + n * in_, y.data(), y.offset() + n * out_, null, 0, cols_,
+                        convolved_, winograd_);
+            }
+        });
+        return y;
+    }
 
-    public double[][][][] backward(double[][][][] X, double[][][][] preActivated_X, double[][][][] activated_X, 
-    		double[][][][] downsampled_X, double[][][][] dY, int minibatchSize, double learningRate) {
-        double[][][][] dZ = this.upsample(activated_X, downsampled_X, dY, minibatchSize);
-        return this.deconvolve(X, preActivated_X, dZ, minibatchSize, learningRate);
+    // the forward kernel transforms of W for inference, computed again only after W changed
+    private synchronized Winograd inferenceKernels() {
+        if (inference == null) inference = new Winograd(tileSize());
+        if (inferenceVersion != version) {
+            // the transforms of mapped kernels are taken from a copy on the heap
+            if (W.isMapped()) inference.kernels(W.toArray(), 0, nKernel, channel, false);
+            else inference.kernels(W.data(), W.offset(), nKernel, channel, false);
+            inferenceVersion = version;
+        }
+        return inference;
     }
 
+    // X: [minibatchSize, channel, imageSize[0], imageSize[1]], the pooled outputs are written into Y: [minibatchSize,
+    // nKernel, pooledSize[0], pooledSize[1]] and the position of every max is kept for the next backward pass
+    @Override
+    public Tensor forward(Tensor X, Tensor Y, int minibatchSize) {
+        int in_ = channel * imageSize[0] * imageSize[1], out_ = nKernel * pooledSize[0] * pooledSize[1];
+        if (argmax == null || argmax.length != minibatchSize * out_) argmax = new int[minibatchSize * out_];
+        if (trainingEngine() == ConvolutionMode.WINOGRAD)
+            winograd.kernels(W.data(), W.offset(), nKernel, channel, false);
+        for (int n = 0; n < minibatchSize; n++) {
+            this.forward(X.data(), X.offset() + n * in_, Y.data(), Y.offset() + n * out_, argmax, n * out_, cols,
+                    convolved, winograd);
+        }
+        return Y;
+    }
 
 
-    private double[][][] convolve(double[][][] x, double[][][] preActivated_X, double[][][] activated_X) {
-        double[][][] y = new double[nKernel][convolvedSize[0]][convolvedSize[1]];
+    // X: the input of the last batched forward, Y: its pooled output, dY: [minibatchSize, nKernel, pooledSize[0],
+    // pooledSize[1]] the delta of Y
+    public Tensor backward(Tensor X, Tensor Y, Tensor dY, int minibatchSize, double learningRate) {
+        Tensor dX = new Tensor(minibatchSize, channel, imageSize[0], imageSize[1]);
+        return backward(X, Y, dY, dX, minibatchSize, learningRate);
+    }
+
+    // dX receives the delta of the input, it may be null when nothing is back-propagated below this layer
+    @Override
+    public Tensor backward(Tensor X, Tensor Y, Tensor dY, Tensor dX, int minibatchSize, double learningRate) {
+        int out_ = nKernel * pooledSize[0] * pooledSize[1];
+        if (argmax == null || argmax.length != minibatchSize * out_)
+            throw new IllegalArgumentException("Given minibatch size does not match the last forward pass");
+        if (delta == null || delta.length != argmax.length) delta = new double[argmax.length];
+        if (grad_W == null) {
+            grad_W = new double[nKernel * patchSize];
+            grad_b = new double[nKernel];
+        }
+        // delta through the activation: the activated value at the max of a window is the pooled output itself, so
+        // D = dY .* f'(Y) is evaluated on the pooled units only
+        System.arraycopy(dY.data(), dY.offset(), delta, 0, delta.length);
+        this.activation.backprop(Y.data(), Y.offset(), delta, 0, delta.length);
+        this.deconvolve(X, dX, minibatchSize, learningRate);
+        return dX;
+    }
+
+
+    // convolution, max pooling and activation of one sample at xOff into y: [nKernel, pooledSize[0], pooledSize[1]]
+    // at yOff. The bias is shared by a feature map and every activation is non-decreasing, so the max of the activated
+    // units is the activation of the max convolution: windows are pooled on the raw convolutions and only the pooled
+    // units are biased and activated. The position of each max in its convolved map goes to argmax unless it is null
+    private void forward(double[] x, int xOff, double[] y, int yOff, int[] argmax, int aOff, double[] cols,
+                         double[] convolved, Winograd winograd) {
+        ConvolutionMode engine_ = engine();
+        if (engine_ == ConvolutionMode.IM2COL) {
+            // convolved [nKernel, P] = W [nKernel, K] * cols [K, P]
+            Im2col.im2col(x, xOff, channel, imageSize[0], imageSize[1], kernelSize[0], kernelSize[1], cols);
+            Gemm.gemm(false, false, nKernel, patches, patchSize, 1., W, W.offset(), patchSize, Tensor.wrap(cols), 0,
+                    patches, 0., convolved, 0, patches);
+        } else if (engine_ == ConvolutionMode.WINOGRAD) {
+            // convolved [nKernel, P] by minimal filtering with the transformed kernels
+            winograd.convolve(x, xOff, imageSize[0], imageSize[1], 0, convolved, 0);
+        }
+        boolean lowered = engine_ != ConvolutionMode.DIRECT;
+        int pooled_ = pooledSize[0] * pooledSize[1];
         for (int k = 0; k < nKernel; k++) {
-            for (int i = 0; i < convolvedSize[0]; i++) {
-                for(int j = 0; j < convolvedSize[1]; j++) {
-                    double convolved_ = 0.;
-                    for (int c = 0; c < channel; c++) {
-                        for (int s = 0; s < kernelSize[0]; s++) {
-                            for (int t = 0; t < kernelSize[1]; t++) {
-                                convolved_ += W[k][c][s][t] * x[c][i+s][j+t];
+            double b_ = b.get(k);
+            for (int i = 0; i < pooledSize[0]; i++) {
+                for (int j = 0; j < pooledSize[1]; j++) {
+                    double max_ = 0.;
+                    int at_ = -1;
+                    for (int s = 0; s < poolSize[0]; s++) {
+                        int ci = poolSize[0] * i + s;
+                        for (int t = 0; t < poolSize[1]; t++) {
+                            int cj = poolSize[1] * j + t, p = ci * convolvedSize[1] + cj;
+                            double v = lowered ? convolved[k * patches + p] : convolve(x, xOff, k, ci, cj);
+                            if (at_ < 0 || max_ < v) { // the first max of a window wins
+                                max_ = v;
+                                at_ = p;
                             }
                         }
                     }
-                    // cache pre-activated inputs
-                    preActivated_X[k][i][j] = convolved_ + b[k];
-                    activated_X[k][i][j] = this.activation.apply(preActivated_X[k][i][j]);
-                    y[k][i][j] = activated_X[k][i][j];
+                    int o = k * pooled_ + i * pooledSize[1] + j;
+                    y[yOff + o] = max_ + b_;
+                    if (argmax != null) argmax[aOff + o] = at_;
                 }
             }
         }
-        return y;
+        this.activation.apply(y, yOff, nKernel * pooled_);
     }
 
-    private double[][][][] deconvolve(double[][][][] X, double[][][][] Y, double[][][][] dY, int minibatchSize,
-                                      double learningRate) {
-        double[][][][] grad_W = new double[nKernel][channel][kernelSize[0]][kernelSize[1]];
-        double[] grad_b = new double[nKernel];
-        double[][][][] dX = new double[minibatchSize][channel][imageSize[0]][imageSize[1]];
-        // calc gradients of W, b
-        for (int n = 0; n < minibatchSize; n++) {
-            for (int k = 0; k < nKernel; k++) {
-                for (int i = 0; i < convolvedSize[0]; i++) {
-                    for (int j = 0; j < convolvedSize[1]; j++) {
-                        double d_ = dY[n][k][i][j] * this.dactivation.apply(Y[n][k][i][j]);
-                        grad_b[k] += d_;
-                        for (int c = 0; c < channel; c++) {
-                            for (int s = 0; s < kernelSize[0]; s++) {
-                                for (int t = 0; t < kernelSize[1]; t++) {
-                                    grad_W[k][c][s][t] += d_ * X[n][c][i+s][j+t];
-                                }
-                            }
-                        }
-                    }
+    // convolution of kernel k with the patch of one sample at xOff whose top-left corner is (i, j)
+    private double convolve(double[] x, int xOff, int k, int i, int j) {
+        if (W.isMapped()) return convolve(W.buffer(), x, xOff, k, i, j);
+        double[] w = W.data();
+        double convolved_ = 0.;
+        for (int c = 0; c < channel; c++) {
+            for (int s = 0; s < kernelSize[0]; s++) {
+                int wRow = W.index(k, c, s, 0), xRow = xOff + (c * imageSize[0] + i + s) * imageSize[1] + j;
+                for (int t = 0; t < kernelSize[1]; t++) {
+                    convolved_ += w[wRow + t] * x[xRow + t];
                 }
             }
         }
-        // update gradients
-        for (int k = 0; k < nKernel; k++) {
-            b[k] -= learningRate * grad_b[k] / minibatchSize;
-            for (int c = 0; c < channel; c++) {
-                for (int s = 0; s < kernelSize[0]; s++) {
-                    for(int t = 0; t < kernelSize[1]; t++) {
-                        W[k][c][s][t] -= learningRate * grad_W[k][c][s][t] / minibatchSize;
-                    }
+        return convolved_;
+    }
+
+    // the same convolution with the kernels of a mapped model
+    private double convolve(DoubleBuffer w, double[] x, int xOff, int k, int i, int j) {
+        double convolved_ = 0.;
+        for (int c = 0; c < channel; c++) {
+            for (int s = 0; s < kernelSize[0]; s++) {
+                int wRow = W.index(k, c, s, 0), xRow = xOff + (c * imageSize[0] + i + s) * imageSize[1] + j;
+                for (int t = 0; t < kernelSize[1]; t++) {
+                    convolved_ += w.get(wRow + t) * x[xRow + t];
                 }
             }
         }
-        // calc delta
+        return convolved_;
+    }
+
+    // gradients and delta from the pooled deltas D: only the max of every pooling window contributes, the direct
+    // and Winograd engines scatter the gradient of W from the recorded positions, the im2col engine multiplies by the
+    // sparse convolved delta. The delta of the input is the convolution of the zero-padded delta with the rotated
+    // kernels, which the Winograd engine computes as a forward pass
+    private void deconvolve(Tensor X, Tensor dX, int minibatchSize, double learningRate) {
+        int in_ = channel * imageSize[0] * imageSize[1], pooled_ = pooledSize[0] * pooledSize[1];
+        int out_ = nKernel * pooled_;
+        double[] d = delta;
+        Arrays.fill(grad_W, 0.);
+        Arrays.fill(grad_b, 0.);
         for (int n = 0; n < minibatchSize; n++) {
-            for (int c = 0; c < channel; c++) {
-                for (int i = 0; i < imageSize[0]; i++) {
-                    for (int j = 0; j < imageSize[1]; j++) {
-                        for (int k = 0; k < nKernel; k++) {
-                            for (int s = 0; s < kernelSize[0]; s++) {
-                                for (int t = 0; t < kernelSize[1]; t++) {
-                                    double d_ = 0.;
-                                    if (i - (kernelSize[0] - 1) - s >= 0 && j - (kernelSize[1] - 1) - t >= 0) {
-                                        d_ = dY[n][k][i-(kernelSize[0]-1)-s][j-(kernelSize[1]-1)-t] * 
-                                        		this.dactivation
-                                        		.apply(Y[n][k][i-(kernelSize[0]-1)-s][j-(kernelSize[1]-1)-t]) 
-                                        		* W[k][c][s][t];
-                                    }
-                                    dX[n][c][i][j] += d_;
-                                }
-                            }
-                        }
-                    }
-                }
+            for (int k = 0; k < nKernel; k++) {
+                for (int o = 0; o < pooled_; o++) grad_b[k] += d[n * out_ + k * pooled_ + o];
             }
         }
-        return dX;
-    }
-
-    private double[][][] downsample(double[][][] x) {
-        double[][][] y = new double[nKernel][pooledSize[0]][pooledSize[1]];
-        for (int k = 0; k < nKernel; k++) {
-            for (int i = 0; i < pooledSize[0]; i++) {
-                for (int j = 0; j < pooledSize[1]; j++) {
-                    double max_ = 0.;
-                    for (int s = 0; s < poolSize[0]; s++) {
-                        for (int t = 0; t < poolSize[1]; t++) {
-                            if (s == 0 && t == 0) {
-                                max_ = x[k][poolSize[0]*i][poolSize[1]*j];
-                                continue;
-                            }
-                            if (max_ < x[k][poolSize[0]*i+s][poolSize[1]*j+t]) {
-                                max_ = x[k][poolSize[0]*i+s][poolSize[1]*j+t];
+        ConvolutionMode engine_ = trainingEngine();
+        boolean winograd_ = engine_ == ConvolutionMode.WINOGRAD, im2col = winograd_ || engine_ == ConvolutionMode.IM2COL;
+        double[] gw = grad_W, x_ = X.data();
+        // calc gradients of W
+        for (int n = 0; n < minibatchSize; n++) {
+            int xn_ = X.offset() + n * in_;
+            if (im2col) {
+                // grad_W [nKernel, K] += D_n [nKernel, P] * cols^T [P, K]
+                this.unpool(n);
+                Im2col.im2col(x_, xn_, channel, imageSize[0], imageSize[1], kernelSize[0], kernelSize[1], cols);
+                Gemm.gemm(false, true, nKernel, patchSize, patches, 1., convolved, 0, patches, cols, 0,
+                        patches, 1., gw, 0, patchSize);
+                continue;
+            }
+            for (int k = 0; k < nKernel; k++) {
+                for (int o = 0; o < pooled_; o++) {
+                    int a_ = n * out_ + k * pooled_ + o;
+                    double d_ = d[a_];
+                    if (d_ == 0.) continue;
+                    int i = argmax[a_] / convolvedSize[1], j = argmax[a_] % convolvedSize[1];
+                    for (int c = 0; c < channel; c++) {
+                        for (int s = 0; s < kernelSize[0]; s++) {
+                            int gRow = ((k * channel + c) * kernelSize[0] + s) * kernelSize[1];
+                            int xRow = xn_ + (c * imageSize[0] + i + s) * imageSize[1] + j;
+                            for (int t = 0; t < kernelSize[1]; t++) {
+                                gw[gRow + t] += d_ * x_[xRow + t];
                             }
                         }
                     }
-                    y[k][i][j] = max_;
                 }
             }
         }
-        return y;
-    }
-
-    private double[][][][] upsample(double[][][][] X, double[][][][] Y, double[][][][] dY, int minibatchSize) {
-        double[][][][] dX = new double[minibatchSize][nKernel][convolvedSize[0]][convolvedSize[1]];
+        // update params
+        double[] w = W.data();
+        updateB.update(learningRate, minibatchSize, grad_b, 0, b.data(), b.offset());
+        updateW.update(learningRate, minibatchSize, gw, 0, w, W.offset());
+        version++;
+        if (dX == null) return;
+        // calc delta: every max scatters its delta back onto the input patch it was computed from
+        double[] dx = dX.data();
+        dX.fill(0.);
+        if (winograd_) winograd.kernels(w, W.offset(), channel, nKernel, true);
         for (int n = 0; n < minibatchSize; n++) {
+            int dxn_ = dX.offset() + n * in_;
+            if (winograd_) {
+                this.unpool(n);
+                winograd.convolve(convolved, 0, convolvedSize[0], convolvedSize[1], 2, dx, dxn_);
+                continue;
+            }
+            if (im2col) {
+                // dcols [K, P] = W^T [K, nKernel] * D_n [nKernel, P], then fold the patches back onto the image
+                this.unpool(n);
+                Gemm.gemm(true, false, patchSize, patches, nKernel, 1., w, W.offset(), patchSize, convolved, 0,
+                        patches, 0., dcols, 0, patches);
+                Im2col.col2im(dcols, channel, imageSize[0], imageSize[1], kernelSize[0], kernelSize[1], dx, dxn_);
+                continue;
+            }
             for (int k = 0; k < nKernel; k++) {
-                for (int i = 0; i < pooledSize[0]; i++) {
-                    for (int j = 0; j < pooledSize[1]; j++) {
-                        for (int s = 0; s < poolSize[0]; s++) {
-                            for (int t = 0; t < poolSize[1]; t++) {
-                                double d_ = 0.;
-                                if (Y[n][k][i][j] == X[n][k][poolSize[0]*i+s][poolSize[1]*j+t]) {
-                                    d_ = dY[n][k][i][j];
-                                }
-                                dX[n][k][poolSize[0]*i+s][poolSize[1]*j+t] = d_;
+                for (int o = 0; o < pooled_; o++) {
+                    int a_ = n * out_ + k * pooled_ + o;
+                    double d_ = d[a_];
+                    if (d_ == 0.) continue;
+                    int i = argmax[a_] / convolvedSize[1], j = argmax[a_] % convolvedSize[1];
+                    for (int c = 0; c < channel; c++) {
+                        for (int s = 0; s < kernelSize[0]; s++) {
+                            int wRow = W.index(k, c, s, 0), xRow = dxn_ + (c * imageSize[0] + i + s) * imageSize[1] + j;
+                            for (int t = 0; t < kernelSize[1]; t++) {
+                                dx[xRow + t] += d_ * w[wRow + t];
                             }
                         }
                     }
                 }
             }
         }
-        return dX;
+    }
+
+    // D_n [nKernel, P] of sample n into the convolved buffer: the pooled deltas at their recorded maxima, zero elsewhere
+    private void unpool(int n) {
+        int pooled_ = pooledSize[0] * pooledSize[1], out_ = nKernel * pooled_;
+        Arrays.fill(convolved, 0.);
+        for (int k = 0; k < nKernel; k++) {
+            for (int o = 0; o < pooled_; o++) {
+                int a_ = n * out_ + k * pooled_ + o;
+                convolved[k * patches + argmax[a_]] = delta[a_];
+            }
+        }
+    }
+
+    private ConvolutionMode engine() {
+        return ConvolutionMode.resolve(convolutionMode, nKernel, channel, kernelSize, convolvedSize);
+    }
+
+    // the engine of a training step, with the buffers the step reuses allocated on first use
+    private ConvolutionMode trainingEngine() {
+        ConvolutionMode engine_ = engine();
+        if (engine_ != ConvolutionMode.DIRECT && cols == null) {
+            cols = new double[patchSize * patches];
+            dcols = new double[patchSize * patches];
+            convolved = new double[nKernel * patches];
+        }
+        if (engine_ == ConvolutionMode.WINOGRAD && winograd == null) winograd = new Winograd(tileSize());
+        return engine_;
+    }
+
+    // the larger Winograd tile once there are enough outputs to fill it
+    private int tileSize() { return Math.min(convolvedSize[0], convolvedSize[1]) >= 8 ? 4 : 2; }
+
+    // the kernels W and the biases b as blocks of a model file
+    public void write(ModelWriter out) throws IOException {
+        out.write(W);
+        out.write(b);
+    }
+
+    // a mapped reader replaces W by a read-only view of the file, b is read onto the heap
+    public void read(ModelReader in) throws IOException {
+        W = in.map(W);
+        in.read(b);
+        version++;
     }
 
     /** Getters and Setters */
@@ -214,10 +392,37 @@ public class ConvolutionPoolingLayer {
     public void setConvolvedSize(int[] convolvedSize) { this.convolvedSize = convolvedSize; }
     public int[] getPooledSize() { return pooledSize; }
     public void setPooledSize(int[] pooledSize) { this.pooledSize = pooledSize; }
-    public double[][][][] getW() { return W; }
-    public void setW(double[][][][] w) { W = w; }
-    public double[] getB() { return b; }
-    public void setB(double[] b) { this.b = b; }
+    @Override
+    public int[] getInputShape() { return new int[]{channel, imageSize[0], imageSize[1]}; }
+    @Override
+    public int[] getOutputShape() { return new int[]{nKernel, pooledSize[0], pooledSize[1]}; }
+    // the convolutions run in double precision only
+    @Override
+    public Precision getPrecision() { return Precision.DOUBLE; }
+    public Tensor getW() { return W; }
+    public void setW(Tensor w) {
+        W = w;
+        version++;
+    }
+    public Tensor getB() { return b; }
+    public void setB(Tensor b) { this.b = b; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public Activation getActivation() { return activation; }
+    public void setActivation(Activation activation) { this.activation = activation; }
+    public ConvolutionMode getConvolutionMode() { return convolutionMode; }
+    public Updater getUpdater() { return updateW.getUpdater(); }
+    // the rule of the parameter updates, SGD by default; a new rule starts from zero moments
+    @Override
+    public void setUpdater(Updater updater) {
+        updater = updater == null ? Updater.SGD : updater;
+        updateW = updater.state(nKernel * patchSize);
+        updateB = updater.state(nKernel);
+    }
+    @Override
+    public Updater.State[] getUpdateStates() { return new Updater.State[]{updateW, updateB}; }
+    public void setConvolutionMode(ConvolutionMode convolutionMode) { this.convolutionMode = convolutionMode; }
+    public Parallelism getParallelism() { return parallelism; }
+    @Override
+    public void setParallelism(Parallelism parallelism) { this.parallelism = parallelism; }
 }
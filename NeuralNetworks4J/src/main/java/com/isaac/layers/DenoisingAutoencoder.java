@@ -2,118 +2,239 @@ package com.isaac.layers;
 
 import com.isaac.initialization.Activation;
 import com.isaac.initialization.BiasInit;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
 import com.isaac.initialization.WeightInit;
+import com.isaac.utils.Blas;
+import com.isaac.utils.Gemm;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.RandomStream;
+import com.isaac.utils.Tensor;
 
+import java.util.Arrays;
 import java.util.Random;
-import java.util.function.DoubleFunction;
 
 @SuppressWarnings({"Duplicates", "unused"})
-public class DenoisingAutoencoder {
+public class DenoisingAutoencoder implements Layer {
     private int nVisible;
     private int nHidden;
-    private double[][] W;
-    private double[] vbias;
-    private double[] hbias;
+    private Tensor W; // [nHidden, nVisible]
+    private Tensor vbias; // [nVisible]
+    private Tensor hbias; // [nHidden]
     private Random rng;
-    private DoubleFunction<Double> activation;
+    private RandomStream random; // drawn from rng at construction, draws the masking noise of single threaded training
+    private RandomStream[] workers; // split from random, one per chunk of parallel training
+    private Activation activation;
+    private Parallelism parallelism; // null for single threaded training
+    private DenseLayer encoder; // visible to hidden on W and hbias, the layer seen by a network, built on demand
+    private double[] corrupted, reconstructed, dv; // [minibatchSize, nVisible] buffers of a step, reused by every step
+    private double[] hidden, dh; // [minibatchSize, nHidden]
+    private Updater.State updateW, updateVbias, updateHbias; // moments of the updates of the parameters
+    private double[] grad_W, grad_vbias, grad_hbias; // gradients of the updaters other than SGD
 
-    public DenoisingAutoencoder(int nVisible, int nHidden, double[][] W, double[] hbias, double[] vbias, Random rng,
+    public DenoisingAutoencoder(int nVisible, int nHidden, Tensor W, Tensor hbias, Tensor vbias, Random rng,
                                 Activation activationMethod) {
         this.nVisible = nVisible;
         this.nHidden = nHidden;
-        this.W = W == null ? WeightInit.apply(nVisible, nHidden, WeightInit.UNIFORM) : W;
+        this.rng = rng == null ? new Random(1234) : rng;
+        this.random = RandomStream.of(this.rng);
+        this.W = W == null ? WeightInit.apply(nVisible, nHidden, WeightInit.UNIFORM, random) : W;
         this.vbias = vbias == null ? BiasInit.apply(nVisible, null, BiasInit.ZERO) : vbias;
         this.hbias = hbias == null ? BiasInit.apply(nHidden, null, BiasInit.ZERO) : hbias;
-        this.rng = rng == null ? new Random(1234) : rng;
-        activationMethod = activationMethod == null ? Activation.Sigmoid : activationMethod;
-        this.activation = Activation.active(activationMethod);
+        this.activation = activationMethod == null ? Activation.Sigmoid : activationMethod;
+        setUpdater(Updater.SGD);
     }
 
-    public void train(double[][] X, int minibatchSize, double learningRate, double corruptionLevel) {
-        double[][] grad_W = new double[nHidden][nVisible];
-        double[] grad_hbias = new double[nHidden];
-        double[] grad_vbias = new double[nVisible];
-        // train with minibatches
-        for (int n = 0; n < minibatchSize; n++) {
-            // add noise to original inputs
-            double[] corruptedInput = getCorruptedInput(X[n], corruptionLevel);
-            double[] z = getHiddenValues(corruptedInput); // encode
-            double[] y = getReconstructedInput(z); // decode
-            // calculate gradients: vbias
-            double[] v_ = new double[nVisible];
-            for (int i = 0; i < nVisible; i++) {
-                v_[i] = X[n][i] - y[i];
-                grad_vbias[i] += v_[i];
-            }
-            // calculate gradients: hbias
-            double[] h_ = new double[nHidden];
-            for (int j = 0; j < nHidden; j++) {
-                for (int i = 0; i < nVisible; i++) h_[j] = W[j][i] * (X[n][i] - y[i]);
-                h_[j] *= z[j] * (1 - z[j]);
-                grad_hbias[j] += h_[j];
-            }
-            // calculate gradients: W
-            for (int j = 0; j < nHidden; j++) {
-                for (int i = 0; i < nVisible; i++) grad_W[j][i] += h_[j] * corruptedInput[i] + v_[i] * z[j];
-            }
+    // X: [minibatchSize, nVisible]. Corruption, encoding, decoding and the deltas of the whole minibatch run as matrix
+    // products on buffers kept across calls, split by rows across the threads of the parallelism if one is set
+    public void train(Tensor X, int minibatchSize, double learningRate, double corruptionLevel) {
+        ensureBuffers(minibatchSize);
+        int chunks = Parallelism.chunks(parallelism, minibatchSize);
+        if (chunks == 1) deltas(X, corruptionLevel, 0, minibatchSize, random);
+        else {
+            // one stream per chunk, split in chunk order so that a given thread count reproduces its noise
+            RandomStream[] workers = this.workers = RandomStream.split(random, this.workers, chunks);
+            Parallelism.forEach(parallelism, minibatchSize,
+                    (chunk, from, to) -> deltas(X, corruptionLevel, from, to, workers[chunk]));
         }
-        // update params
-        for (int j = 0; j < nHidden; j++) {
-            for (int i = 0; i < nVisible; i++) W[j][i] += learningRate * grad_W[j][i] / minibatchSize;
-            hbias[j] += learningRate * grad_hbias[j] / minibatchSize;
+        // update params: W += lr / N * (dh^T * corrupted + hidden^T * dv), rows of W split across threads. SGD adds the
+        // products straight into W, the other updaters take their negation as the gradient to descend, and so does SGD
+        // while a listener records the gradient norm
+        boolean fused = updateW.getUpdater() == Updater.SGD && !updateW.isRecording();
+        if (!fused) ensureGradients();
+        updateW.step();
+        if (Parallelism.chunks(parallelism, nHidden) == 1) update(0, nHidden, minibatchSize, learningRate, fused);
+        else Parallelism.forEach(parallelism, nHidden,
+                (chunk, from, to) -> update(from, to, minibatchSize, learningRate, fused));
+        double[] hb = fused ? hbias.data() : grad_hbias, vb = fused ? vbias.data() : grad_vbias;
+        int hbOff = fused ? hbias.offset() : 0, vbOff = fused ? vbias.offset() : 0;
+        double a = fused ? learningRate / minibatchSize : -1.;
+        if (!fused) {
+            Arrays.fill(grad_hbias, 0.);
+            Arrays.fill(grad_vbias, 0.);
         }
-        for (int i = 0; i < nVisible; i++) {
-            vbias[i] += learningRate * grad_vbias[i] / minibatchSize;
+        for (int n = 0; n < minibatchSize; n++) {
+            Blas.axpy(nHidden, a, dh, n * nHidden, hb, hbOff);
+            Blas.axpy(nVisible, a, dv, n * nVisible, vb, vbOff);
         }
+        if (fused) return;
+        updateHbias.update(learningRate, minibatchSize, grad_hbias, 0, hbias.data(), hbias.offset());
+        updateVbias.update(learningRate, minibatchSize, grad_vbias, 0, vbias.data(), vbias.offset());
     }
 
-    private double[] getCorruptedInput(double[] x, double corruptionLevel) {
-        double[] corruptedInput = new double[x.length];
-        // add masking noise
-        for (int i = 0; i < x.length; i++) {
-            double rand_ = rng.nextDouble();
-            if (rand_ < corruptionLevel) corruptedInput[i] = 0.0;
-            else corruptedInput[i] = x[i];
-        }
-        return corruptedInput;
+    // rows [from, to) of the minibatch: corrupt, encode, decode, then the deltas dv = x - y of the tied decoder and
+    // dh = dv * W .* f'(hidden) of the encoder
+    private void deltas(Tensor X, double corruptionLevel, int from, int to, RandomStream random) {
+        int rows = to - from, vOff = from * nVisible, hOff = from * nHidden;
+        double[] x = X.data(), w = W.data();
+        // add masking noise: a unit is kept with probability 1 - corruptionLevel
+        random.bernoulli(1 - corruptionLevel, corrupted, vOff, rows * nVisible);
+        for (int i = 0; i < rows * nVisible; i++) corrupted[vOff + i] *= x[X.offset() + vOff + i];
+        // encode
+        Gemm.gemm(false, true, rows, nHidden, nVisible, 1., corrupted, vOff, nVisible, w, W.offset(), nVisible, 0.,
+                hidden, hOff, nHidden);
+        activation.apply(hidden, hOff, rows, nHidden, hbias.data(), hbias.offset());
+        // decode with the transposed weights
+        Gemm.gemm(false, false, rows, nVisible, nHidden, 1., hidden, hOff, nHidden, w, W.offset(), nVisible, 0.,
+                reconstructed, vOff, nVisible);
+        activation.apply(reconstructed, vOff, rows, nVisible, vbias.data(), vbias.offset());
+        for (int i = 0; i < rows * nVisible; i++) dv[vOff + i] = x[X.offset() + vOff + i] - reconstructed[vOff + i];
+        Gemm.gemm(false, true, rows, nHidden, nVisible, 1., dv, vOff, nVisible, w, W.offset(), nVisible, 0.,
+                dh, hOff, nHidden);
+        activation.backprop(hidden, hOff, dh, hOff, rows * nHidden);
+    }
+
+    // rows [from, to) of W, or of its gradient which the updater then applies to them
+    private void update(int from, int to, int minibatchSize, double lr, boolean fused) {
+        double[] w = W.data(), g = fused ? w : grad_W;
+        int wOff = W.offset() + from * nVisible, gOff = fused ? wOff : from * nVisible;
+        double a = fused ? lr / minibatchSize : -1.;
+        Gemm.gemm(true, false, to - from, nVisible, minibatchSize, a, dh, from, nHidden, corrupted, 0, nVisible,
+                fused ? 1. : 0., g, gOff, nVisible);
+        Gemm.gemm(true, false, to - from, nVisible, minibatchSize, a, hidden, from, nHidden, dv, 0, nVisible, 1.,
+                g, gOff, nVisible);
+        if (!fused) updateW.apply(from * nVisible, (to - from) * nVisible, lr, minibatchSize, grad_W, gOff, w, wOff);
     }
 
-    private double[] getHiddenValues(double[] x) {
+    private void ensureGradients() {
+        if (grad_W != null) return;
+        grad_W = new double[nHidden * nVisible];
+        grad_vbias = new double[nVisible];
+        grad_hbias = new double[nHidden];
+    }
+
+    // buffers of a minibatch, allocated once and only re-allocated when the minibatch size changes
+    private void ensureBuffers(int minibatchSize) {
+        if (hidden != null && hidden.length == minibatchSize * nHidden) return;
+        corrupted = new double[minibatchSize * nVisible];
+        reconstructed = new double[minibatchSize * nVisible];
+        dv = new double[minibatchSize * nVisible];
+        hidden = new double[minibatchSize * nHidden];
+        dh = new double[minibatchSize * nHidden];
+    }
+
+    private double[] getHiddenValues(double[] x, int xOffset) {
         double[] z = new double[nHidden];
-        for (int j = 0; j < nHidden; j++) {
-            for (int i = 0; i < nVisible; i++) z[j] += W[j][i] * x[i];
-            z[j] += hbias[j];
-            z[j] = activation.apply(z[j]);
-        }
+        double[] w = W.data();
+        for (int j = 0; j < nHidden; j++) z[j] = Blas.dot(nVisible, w, W.offset() + j * nVisible, x, xOffset) + hbias.get(j);
+        activation.apply(z, 0, nHidden);
         return z;
     }
 
     private double[] getReconstructedInput(double[] z) {
         double[] y = new double[nVisible];
-        for (int i = 0; i < nVisible; i++) {
-            for (int j = 0; j < nHidden; j++) y[i] += W[j][i] * z[j];
-            y[i] += vbias[i];
-            y[i] = activation.apply(y[i]);
-        }
+        double[] w = W.data();
+        // W^T * z + vbias, accumulated row by row of W
+        System.arraycopy(vbias.data(), vbias.offset(), y, 0, nVisible);
+        for (int j = 0; j < nHidden; j++) Blas.axpy(nVisible, z[j], w, W.offset() + j * nVisible, y, 0);
+        activation.apply(y, 0, nVisible);
         return y;
     }
 
-    public double[] reconstruct(double[] x) {
-        double[] z = getHiddenValues(x);
-        return getReconstructedInput(z);
+    // x is a single sample [nVisible]
+    public Tensor reconstruct(Tensor x) {
+        double[] z = getHiddenValues(x.data(), x.offset());
+        return Tensor.wrap(getReconstructedInput(z));
+    }
+
+    // the encoder as a layer of a network: X [N, nVisible] to the hidden code [N, nHidden]
+    @Override
+    public Tensor output(Tensor X, Tensor Y) { return encoder().output(X, Y); }
+
+    @Override
+    public Tensor forward(Tensor X, Tensor Y, int minibatchSize) { return encoder().output(X, Y); }
+
+    // fine-tuning of W and hbias through the encoder, vbias is left to pre-training
+    @Override
+    public Tensor backward(Tensor X, Tensor Y, Tensor dY, Tensor dX, int minibatchSize, double learningRate) {
+        return encoder().backward(X, Y, dY, dX, minibatchSize, learningRate);
+    }
+
+    private DenseLayer encoder() {
+        if (encoder == null) {
+            encoder = new DenseLayer(nVisible, nHidden, W, hbias, null, activation);
+            encoder.setUpdater(getUpdater());
+            encoder.setParallelism(parallelism);
+        }
+        return encoder;
     }
 
     /** Getters and Setters */
     public int getnVisible() { return nVisible; }
     public void setnVisible(int nVisible) { this.nVisible = nVisible; }
+    @Override
+    public int[] getInputShape() { return new int[]{nVisible}; }
     public int getnHidden() { return nHidden; }
     public void setnHidden(int nHidden) { this.nHidden = nHidden; }
-    public double[][] getW() { return W; }
-    public void setW(double[][] w) { W = w; }
-    public double[] getVbias() { return vbias; }
-    public void setVbias(double[] vbias) { this.vbias = vbias; }
-    public double[] getHbias() { return hbias; }
-    public void setHbias(double[] hbias) { this.hbias = hbias; }
+    @Override
+    public int[] getOutputShape() { return new int[]{nHidden}; }
+    @Override
+    public Precision getPrecision() { return Precision.DOUBLE; }
+    public Tensor getW() { return W; }
+    public void setW(Tensor w) {
+        W = w;
+        encoder = null;
+    }
+    public Tensor getVbias() { return vbias; }
+    public void setVbias(Tensor vbias) { this.vbias = vbias; }
+    public Tensor getHbias() { return hbias; }
+    public void setHbias(Tensor hbias) {
+        this.hbias = hbias;
+        encoder = null;
+    }
     public Random getRng() { return rng; }
-    public void setRng(Random rng) { this.rng = rng; }
+    public void setRng(Random rng) {
+        this.rng = rng;
+        this.random = RandomStream.of(rng);
+        this.workers = null;
+    }
+    public Activation getActivation() { return activation; }
+    public Updater getUpdater() { return updateW.getUpdater(); }
+    // the rule of the parameter updates, SGD by default; a new rule starts from zero moments
+    @Override
+    public void setUpdater(Updater updater) {
+        updater = updater == null ? Updater.SGD : updater;
+        updateW = updater.state(nHidden * nVisible);
+        updateVbias = updater.state(nVisible);
+        updateHbias = updater.state(nHidden);
+        if (encoder != null) encoder.setUpdater(updater);
+    }
+    // the states of pre-training, and those of the encoder once it ran as a layer of a network
+    @Override
+    public Updater.State[] getUpdateStates() {
+        Updater.State[] states = {updateW, updateVbias, updateHbias};
+        if (encoder == null) return states;
+        Updater.State[] encoding = encoder.getUpdateStates();
+        return new Updater.State[]{updateW, updateVbias, updateHbias, encoding[0], encoding[1]};
+    }
+    public void setActivation(Activation activation) {
+        this.activation = activation;
+        encoder = null;
+    }
+    public Parallelism getParallelism() { return parallelism; }
+    @Override
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        if (encoder != null) encoder.setParallelism(parallelism);
+    }
 }
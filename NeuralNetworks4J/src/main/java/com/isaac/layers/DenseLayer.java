@@ -2,75 +2,320 @@ package com.isaac.layers;
 
 import com.isaac.initialization.Activation;
 import com.isaac.initialization.BiasInit;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
 import com.isaac.initialization.WeightInit;
-import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.BitMatrix;
+import com.isaac.utils.Blas;
+import com.isaac.utils.Gemm;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.RandomStream;
+import com.isaac.utils.Tensor;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.function.DoubleFunction;
 
 @SuppressWarnings("unused")
-public class DenseLayer {
+public class DenseLayer implements Layer {
     private int nIn;
     private int nOut;
-    private double[][] W;
-    private double[] b;
+    private Tensor W; // [nOut, nIn]
+    private Tensor b; // [nOut]
     private Random rng;
-    private DoubleFunction<Double> activation;
-    private DoubleFunction<Double> dactivation;
+    private RandomStream random; // drawn from rng at construction
+    private RandomStream[] workers; // split from random, one per chunk of a parallel dropout forward
+    private Activation activation;
+    private Parallelism parallelism; // null for single threaded training
+    private double[][] grad_W; // gradient accumulators, one per minibatch chunk
+    private double[][] grad_b;
+    private Precision precision;
+    private Tensor Wf; // float copy of W read by the single precision kernels, null in double precision
+    private float[][] grad_Wf;
+    private Updater.State updateW, updateB; // moments of the updates of W and b
+    private double[][] unscaled; // activations of a row before dropout scaling, one buffer per minibatch chunk
+    private float[][] unscaledf;
 
-    public DenseLayer(int nIn, int nOut, double[][] W, double[] b, Random rng, Activation activationMethod) {
+    public DenseLayer(int nIn, int nOut, Tensor W, Tensor b, Random rng, Activation activationMethod) {
+        this(nIn, nOut, W, b, rng, activationMethod, Precision.DOUBLE);
+    }
+
+    // W and b stay double in every precision, they are the master copy updated by SGD and may be shared with
+    // pre-training layers; the float precisions run float inputs against a float copy of W
+    public DenseLayer(int nIn, int nOut, Tensor W, Tensor b, Random rng, Activation activationMethod,
+                      Precision precision) {
         this.rng = rng == null ? new Random(1234) : rng;
+        this.random = RandomStream.of(this.rng);
         this.nIn = nIn;
         this.nOut = nOut;
-        this.W = W == null ? WeightInit.apply(nIn, nOut, WeightInit.UNIFORM) : W;
+        this.W = W == null ? WeightInit.apply(nIn, nOut, WeightInit.UNIFORM, random) : W;
         this.b = b == null ? BiasInit.apply(nOut, null, BiasInit.ZERO) : b;
-        this.activation = Activation.active(activationMethod);
-        this.dactivation = Activation.dactive(activationMethod);
+        this.activation = activationMethod;
+        this.precision = precision == null ? Precision.DOUBLE : precision;
+        setUpdater(Updater.SGD);
+        refreshWeights();
+    }
+
+    // re-derives the float copy of W after W was changed outside this layer, e.g. by pre-training on shared weights
+    public void refreshWeights() {
+        if (!precision.isFloat()) return;
+        if (Wf == null) Wf = new Tensor(Precision.FLOAT, nOut, nIn);
+        Wf.copyFrom(W);
+    }
+
+    // X is a single sample [nIn] or a minibatch [minibatchSize, nIn], float inputs give float outputs
+    public Tensor output(Tensor X) {
+        Precision precision_ = X.precision();
+        return output(X, X.rank() == 1 ? new Tensor(precision_, nOut) : new Tensor(precision_, X.length() / nIn, nOut));
+    }
+
+    // writes the outputs into the given Y, so that a training step can reuse its buffers
+    @Override
+    public Tensor output(Tensor X, Tensor Y) {
+        checkPrecision(X);
+        int rows = X.length() / nIn;
+        if (Parallelism.chunks(parallelism, rows) == 1) output(X, Y, 0, rows);
+        else Parallelism.forEach(parallelism, rows, (chunk, from, to) -> output(X, Y, from, to));
+        return Y;
     }
 
-    public double[] output(double[] x) {
-        double[] y = new double[nOut];
-        for (int j = 0; j < nOut; j++) {
-            double preActivation_ = 0.;
-            for (int i = 0; i < nIn; i++) preActivation_ += W[j][i] * x[i];
-            preActivation_ += b[j];
-            y[j] = activation.apply(preActivation_);
+    // activated outputs of rows [from, to) of X into the same rows of Y
+    private void output(Tensor X, Tensor Y, int from, int to) {
+        if (X.isFloat()) {
+            float[] y = Y.floats();
+            Gemm.gemm(false, true, to - from, nOut, nIn, 1f, X.floats(), X.offset() + from * nIn, nIn,
+                    Wf.floats(), Wf.offset(), nIn, 0f, y, Y.offset() + from * nOut, nOut, precision.accumulatesDouble());
+            activation.apply(y, Y.offset() + from * nOut, to - from, nOut, b.data(), b.offset());
+            return;
         }
-        return y;
+        double[] y = Y.data();
+        // Y = f(X * W^T + b) for the rows of this chunk
+        Gemm.gemm(false, true, to - from, nOut, nIn, 1., X, X.offset() + from * nIn, nIn,
+                W, W.offset(), nIn, 0., y, Y.offset() + from * nOut, nOut);
+        activation.apply(y, Y.offset() + from * nOut, to - from, nOut, b.data(), b.offset());
+    }
+
+    // binary units {0, 1} stored as doubles, so that they feed the next layer without any conversion
+    public Tensor outputBinomial(Tensor X) {
+        Tensor Y = output(X);
+        if (Y.isFloat()) random.bernoulli(Y.floats(), Y.offset(), Y.floats(), Y.offset(), Y.length());
+        else random.bernoulli(Y.data(), Y.offset(), Y.data(), Y.offset(), Y.length());
+        return Y;
     }
 
-    public int[] outputBinomial(int[] x, Random rng) {
-        int[] y = new int[nOut];
-        double[] xCast = new double[x.length];
-        for (int i = 0; i < xCast.length; i++) xCast[i] = (double) x[i];
-        double[] out = output(xCast);
-        for (int j = 0; j < nOut; j++) y[j] = RandomGenerator.binomial(1, out[j], rng);
-        return y;
+    // X holds binary units [rows, nIn] as bits, Y [rows, nOut] gets f(X * W^T + b) in double precision, summing only
+    // the columns of W of the set units
+    public Tensor output(BitMatrix X, Tensor Y) {
+        int rows = X.rows();
+        if (Parallelism.chunks(parallelism, rows) == 1) output(X, Y, 0, rows);
+        else Parallelism.forEach(parallelism, rows, (chunk, from, to) -> output(X, Y, from, to));
+        return Y;
     }
 
-    public double[] forward(double[] x) { return output(x); }
+    private void output(BitMatrix X, Tensor Y, int from, int to) {
+        int[] idx = new int[nIn];
+        double[] w = W.data(), y = Y.data(), b_ = b.data();
+        for (int n = from; n < to; n++) {
+            int nnz = X.indices(n, idx), row = Y.offset() + n * nOut;
+            for (int j = 0; j < nOut; j++) y[row + j] = Blas.sum(nnz, idx, w, W.offset() + j * nIn) + b_[b.offset() + j];
+            activation.apply(y, row, nOut);
+        }
+    }
+
+    // binary units sampled from the outputs of the binary X, Y [rows, nOut] holds the means and S the samples
+    public BitMatrix outputBinomial(BitMatrix X, Tensor Y, BitMatrix S) {
+        return sampleBinomial(output(X, Y), S);
+    }
+
+    // binary units S [rows, nOut] sampled from the means Y this layer computed, e.g. means cached across epochs
+    public BitMatrix sampleBinomial(Tensor Y, BitMatrix S) {
+        for (int n = 0; n < S.rows(); n++) {
+            random.bernoulli(Y.data(), Y.offset() + n * nOut, S.bits(), n * S.words(), nOut);
+        }
+        return S;
+    }
+
+    public Tensor forward(Tensor X) { return output(X); }
+
+    public Tensor forward(Tensor X, Tensor Y) { return output(X, Y); }
+
+    @Override
+    public Tensor forward(Tensor X, Tensor Y, int minibatchSize) { return output(X, Y); }
+
+    // training forward with inverted dropout: every unit is kept with probability 1 - pDropout and scaled by
+    // 1 / (1 - pDropout), so that inference runs on the raw weights. The kept units are recorded in mask
+    // [minibatchSize, nOut] for the backward pass
+    public Tensor forward(Tensor X, Tensor Y, double pDropout, BitMatrix mask) {
+        checkPrecision(X);
+        if (pDropout < 0 || pDropout >= 1)
+            throw new IllegalArgumentException("Given dropout probability un-supported, it must be in [0, 1)");
+        int rows = X.length() / nIn;
+        int chunks = Parallelism.chunks(parallelism, rows);
+        if (chunks == 1) {
+            output(X, Y, 0, rows);
+            dropout(Y, pDropout, mask, 0, rows, random);
+            return Y;
+        }
+        // one stream per chunk, so that a given thread count reproduces its masks
+        RandomStream[] workers = this.workers = RandomStream.split(random, this.workers, chunks);
+        Parallelism.forEach(parallelism, rows, (chunk, from, to) -> {
+            output(X, Y, from, to);
+            dropout(Y, pDropout, mask, from, to, workers[chunk]);
+        });
+        return Y;
+    }
+
+    // samples the mask of rows [from, to) while their outputs are still in cache, dropped units become 0
+    private void dropout(Tensor Y, double p, BitMatrix mask, int from, int to, RandomStream random) {
+        double scale = 1. / (1. - p);
+        for (int n = from; n < to; n++) {
+            random.bernoulli(1. - p, mask.bits(), n * mask.words(), nOut);
+            int row = Y.offset() + n * nOut;
+            if (Y.isFloat()) {
+                float[] y = Y.floats();
+                for (int j = 0; j < nOut; j++) y[row + j] = mask.get(n, j) ? (float) (y[row + j] * scale) : 0f;
+            } else {
+                double[] y = Y.data();
+                for (int j = 0; j < nOut; j++) y[row + j] = mask.get(n, j) ? y[row + j] * scale : 0.;
+            }
+        }
+    }
 
-    public double[][] backward(double[][] X, double[][] Z, double[][] dY, double[][] Wprev, int minibatchSize, double learningRate) {
-        double[][] dZ = new double[minibatchSize][nOut]; // backpropagation error
-        double[][] grad_W = new double[nOut][nIn];
-        double[] grad_b = new double[nOut];
+    // dY: gradient of the loss w.r.t. Y [minibatchSize, nOut], overwritten with the delta of the pre-activations;
+    // dX [minibatchSize, nIn] may be null. In float precision every tensor is float
+    @Override
+    public Tensor backward(Tensor X, Tensor Y, Tensor dY, Tensor dX, int minibatchSize, double learningRate) {
+        return backward(X, Y, dY, dX, minibatchSize, learningRate, 0., null);
+    }
+
+    // backward of a dropout forward: Y holds the scaled outputs and mask the kept units, dropped units pass no gradient
+    public Tensor backward(Tensor X, Tensor Y, Tensor dY, Tensor dX, int minibatchSize, double learningRate,
+                           double pDropout, BitMatrix mask) {
+        checkPrecision(X);
+        int chunks = Parallelism.chunks(parallelism, minibatchSize);
+        ensureAccumulators(chunks, X.isFloat());
         // train with SGD
-        // calculate backpropagation error to get gradient of W, b
-        for (int n = 0; n < minibatchSize; n++) {
-            for (int j = 0; j < nOut; j++) {
-                // k < ( nOut of previous layer )
-                for (int k = 0; k < dY[0].length; k++) dZ[n][j] += Wprev[k][j] * dY[n][k];
-                dZ[n][j] *= dactivation.apply(Z[n][j]);
-                for (int i = 0; i < nIn; i++) grad_W[j][i] += dZ[n][j] * X[n][i];
-                grad_b[j] += dZ[n][j];
+        // calculate backpropagation error to get gradient of W, b; every chunk of the minibatch accumulates into
+        // its own buffers
+        if (chunks == 1) gradient(X, Y, dY, pDropout, mask, 0, 0, minibatchSize);
+        else Parallelism.forEach(parallelism, minibatchSize,
+                (chunk, from, to) -> gradient(X, Y, dY, pDropout, mask, chunk, from, to));
+        Parallelism.reduce(parallelism, grad_b, chunks, nOut);
+        // update params, the float copy of W follows the update
+        if (X.isFloat()) {
+            Parallelism.reduce(parallelism, grad_Wf, chunks, nOut * nIn);
+            updateW.update(learningRate, minibatchSize, grad_Wf[0], 0, W.data(), W.offset(), Wf.floats(), Wf.offset());
+        } else {
+            Parallelism.reduce(parallelism, grad_W, chunks, nOut * nIn);
+            updateW.update(learningRate, minibatchSize, grad_W[0], 0, W.data(), W.offset());
+            if (Wf != null) Wf.copyFrom(W);
+        }
+        updateB.update(learningRate, minibatchSize, grad_b[0], 0, b.data(), b.offset());
+        // the delta of the inputs goes down through the updated weights, as every network of this library trains
+        if (dX != null) {
+            if (chunks == 1) propagate(dY, dX, 0, minibatchSize);
+            else Parallelism.forEach(parallelism, minibatchSize, (chunk, from, to) -> propagate(dY, dX, from, to));
+        }
+        return dX;
+    }
+
+    // gradients of rows [from, to) of the minibatch into the accumulators of the given chunk
+    private void gradient(Tensor X, Tensor Y, Tensor dY, double p, BitMatrix mask, int chunk, int from, int to) {
+        if (X.isFloat()) {
+            gradientFloat(X, Y, dY, p, mask, chunk, from, to);
+            return;
+        }
+        double[] y = Y.data(), dy = dY.data(), gb = grad_b[chunk];
+        int dyOff = dY.offset();
+        // dY .* f'(Y)
+        if (mask == null) activation.backprop(y, Y.offset() + from * nOut, dy, dyOff + from * nOut, (to - from) * nOut);
+        else {
+            // dY .* mask / (1 - p), with f' taken at the activations before they were scaled
+            double[] a = unscaled[chunk];
+            double keep = 1. - p, scale = 1. / keep;
+            for (int n = from; n < to; n++) {
+                int yRow = Y.offset() + n * nOut, dyRow = dyOff + n * nOut;
+                for (int j = 0; j < nOut; j++) {
+                    boolean kept = mask.get(n, j);
+                    a[j] = kept ? y[yRow + j] * keep : 0.;
+                    dy[dyRow + j] = kept ? dy[dyRow + j] * scale : 0.;
+                }
+                activation.backprop(a, 0, dy, dyRow, nOut);
             }
         }
-        // update params
-        for (int j = 0; j < nOut; j++) {
-            for (int i = 0; i < nIn; i++) W[j][i] -= learningRate * grad_W[j][i] / minibatchSize;
-            b[j] -= learningRate * grad_b[j] / minibatchSize;
+        Arrays.fill(gb, 0.);
+        for (int n = from; n < to; n++) {
+            for (int j = 0; j < nOut; j++) gb[j] += dy[dyOff + n * nOut + j];
+        }
+        // grad_W = dY^T * X
+        Gemm.gemm(true, false, nOut, nIn, to - from, 1., dy, dyOff + from * nOut, nOut, X.data(),
+                X.offset() + from * nIn, nIn, 0., grad_W[chunk], 0, nIn);
+    }
+
+    private void gradientFloat(Tensor X, Tensor Y, Tensor dY, double p, BitMatrix mask, int chunk, int from, int to) {
+        float[] y = Y.floats(), dy = dY.floats();
+        double[] gb = grad_b[chunk];
+        int dyOff = dY.offset();
+        boolean accumulateDouble = precision.accumulatesDouble();
+        if (mask == null) activation.backprop(y, Y.offset() + from * nOut, dy, dyOff + from * nOut, (to - from) * nOut);
+        else {
+            float[] a = unscaledf[chunk];
+            float keep = (float) (1. - p), scale = (float) (1. / (1. - p));
+            for (int n = from; n < to; n++) {
+                int yRow = Y.offset() + n * nOut, dyRow = dyOff + n * nOut;
+                for (int j = 0; j < nOut; j++) {
+                    boolean kept = mask.get(n, j);
+                    a[j] = kept ? y[yRow + j] * keep : 0f;
+                    dy[dyRow + j] = kept ? dy[dyRow + j] * scale : 0f;
+                }
+                activation.backprop(a, 0, dy, dyRow, nOut);
+            }
+        }
+        Arrays.fill(gb, 0.);
+        for (int n = from; n < to; n++) {
+            for (int j = 0; j < nOut; j++) gb[j] += dy[dyOff + n * nOut + j];
+        }
+        Gemm.gemm(true, false, nOut, nIn, to - from, 1f, dy, dyOff + from * nOut, nOut, X.floats(),
+                X.offset() + from * nIn, nIn, 0f, grad_Wf[chunk], 0, nIn, accumulateDouble);
+    }
+
+    // rows [from, to) of dX = dY * W, through the weights of the last update
+    private void propagate(Tensor dY, Tensor dX, int from, int to) {
+        if (dY.isFloat()) {
+            Gemm.gemm(false, false, to - from, nIn, nOut, 1f, dY.floats(), dY.offset() + from * nOut, nOut, Wf.floats(),
+                    Wf.offset(), nIn, 0f, dX.floats(), dX.offset() + from * nIn, nIn, precision.accumulatesDouble());
+        } else {
+            Gemm.gemm(false, false, to - from, nIn, nOut, 1., dY.data(), dY.offset() + from * nOut, nOut, W.data(),
+                    W.offset(), nIn, 0., dX.data(), dX.offset() + from * nIn, nIn);
         }
-        return dZ;
+    }
+
+    private void ensureAccumulators(int chunks, boolean floats) {
+        if (grad_b == null || grad_b.length < chunks) grad_b = new double[chunks][nOut];
+        if (floats && (grad_Wf == null || grad_Wf.length < chunks)) grad_Wf = new float[chunks][nOut * nIn];
+        if (!floats && (grad_W == null || grad_W.length < chunks)) grad_W = new double[chunks][nOut * nIn];
+        if (floats && (unscaledf == null || unscaledf.length < chunks)) unscaledf = new float[chunks][nOut];
+        if (!floats && (unscaled == null || unscaled.length < chunks)) unscaled = new double[chunks][nOut];
+    }
+
+    private void checkPrecision(Tensor X) {
+        if (X.isFloat() && Wf == null)
+            throw new IllegalArgumentException("Float inputs need a layer constructed in float precision");
+    }
+
+    // W and b as blocks of a model file, the float copy of W is re-derived on reading
+    public void write(ModelWriter out) throws IOException {
+        out.write(W);
+        out.write(b);
+    }
+
+    // a mapped reader replaces W by a read-only view of the file, b is read onto the heap
+    public void read(ModelReader in) throws IOException {
+        W = in.map(W);
+        in.read(b);
+        refreshWeights();
     }
 
     /** Getters and Setters */
@@ -78,14 +323,39 @@ public class DenseLayer {
     public void setnIn(int nIn) { this.nIn = nIn; }
     public int getnOut() { return nOut; }
     public void setnOut(int nOut) { this.nOut = nOut; }
-    public double[][] getW() { return W; }
-    public void setW(double[][] w) { W = w; }
-    public double[] getB() { return b; }
-    public void setB(double[] b) { this.b = b; }
+    @Override
+    public int[] getInputShape() { return new int[]{nIn}; }
+    @Override
+    public int[] getOutputShape() { return new int[]{nOut}; }
+    public Tensor getW() { return W; }
+    public void setW(Tensor w) {
+        W = w;
+        refreshWeights();
+    }
+    // the weights read by the kernels of the given precision: W itself, or its float copy
+    public Tensor getW(Precision precision) { return precision.isFloat() ? Wf : W; }
+    public Tensor getB() { return b; }
+    public void setB(Tensor b) { this.b = b; }
     public Random getRng() { return rng; }
-    public void setRng(Random rng) { this.rng = rng; }
-    public DoubleFunction<Double> getActivation() { return activation; }
-    public void setActivation(DoubleFunction<Double> activation) { this.activation = activation; }
-    public DoubleFunction<Double> getDactivation() { return dactivation; }
-    public void setDactivation(DoubleFunction<Double> dactivation) { this.dactivation = dactivation; }
+    public void setRng(Random rng) {
+        this.rng = rng;
+        this.random = RandomStream.of(rng);
+    }
+    public Activation getActivation() { return activation; }
+    public void setActivation(Activation activation) { this.activation = activation; }
+    @Override
+    public Precision getPrecision() { return precision; }
+    public Updater getUpdater() { return updateW.getUpdater(); }
+    // the rule of the parameter updates, SGD by default; a new rule starts from zero moments
+    @Override
+    public void setUpdater(Updater updater) {
+        updater = updater == null ? Updater.SGD : updater;
+        updateW = updater.state(nOut * nIn);
+        updateB = updater.state(nOut);
+    }
+    @Override
+    public Updater.State[] getUpdateStates() { return new Updater.State[]{updateW, updateB}; }
+    public Parallelism getParallelism() { return parallelism; }
+    @Override
+    public void setParallelism(Parallelism parallelism) { this.parallelism = parallelism; }
 }
@@ -0,0 +1,40 @@
+package com.isaac.layers;
+
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+
+/**
+ * A layer of a feed-forward network, as run by {@link com.isaac.neuralnetworks.Sequential}: batched inference, and
+ * a training step split into a forward pass that keeps what the layer needs and a backward pass that takes the
+ * gradient of the loss w.r.t. the outputs, updates the parameters and hands the gradient w.r.t. the inputs down. Every
+ * tensor comes from the caller, so the network owns all the buffers of a step and the layers only keep their
+ * parameters, gradients and the state of their last forward pass.
+ */
+public interface Layer {
+    // shape of one sample at the input and at the output, e.g. [channel, height, width] of an image
+    int[] getInputShape();
+
+    int[] getOutputShape();
+
+    // precision of the inputs and outputs, float tensors in the single precisions
+    Precision getPrecision();
+
+    // X: [N, input shape], the outputs [N, output shape] into Y, no state is kept for a backward pass
+    Tensor output(Tensor X, Tensor Y);
+
+    // X: [minibatchSize, input shape], the outputs into Y, keeping what the next backward pass needs
+    Tensor forward(Tensor X, Tensor Y, int minibatchSize);
+
+    // X and Y of the last forward pass, dY the delta of Y, which may be overwritten. dX receives the delta of X, taken
+    // through the updated parameters like every network of this library back-propagates, or is null for the first layer
+    Tensor backward(Tensor X, Tensor Y, Tensor dY, Tensor dX, int minibatchSize, double learningRate);
+
+    void setParallelism(Parallelism parallelism);
+
+    void setUpdater(Updater updater);
+
+    // the update states of the parameters a backward pass updates, which record it for the metrics of a training step
+    Updater.State[] getUpdateStates();
+}
@@ -2,70 +2,290 @@ package com.isaac.layers;
 
 import com.isaac.initialization.Activation;
 import com.isaac.initialization.BiasInit;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
 import com.isaac.initialization.WeightInit;
+import com.isaac.utils.Gemm;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
 
+import java.io.IOException;
 import java.util.Arrays;
 
 @SuppressWarnings("unused")
-public class LogisticLayer {
+public class LogisticLayer implements Layer {
     private int nIn;
     private int nOut;
-    private double[][] W;
-    private double[] b;
+    private Tensor W; // [nOut, nIn]
+    private Tensor b; // [nOut]
+    private Parallelism parallelism; // null for single threaded training
+    private double[][] grad_W; // gradient accumulators, one per minibatch chunk
+    private double[][] grad_b;
+    private Precision precision;
+    private Tensor Wf; // float copy of W read by the single precision kernels, null in double precision
+    private float[][] grad_Wf;
+    private Updater.State updateW, updateB; // moments of the updates of W and b
 
     public LogisticLayer (int nIn, int nOut) {
+        this(nIn, nOut, Precision.DOUBLE);
+    }
+
+    public LogisticLayer (int nIn, int nOut, Precision precision) {
         this.nIn = nIn;
         this.nOut = nOut;
         this.W = WeightInit.apply(nIn, nOut, WeightInit.UNIFORM);
         this.b = BiasInit.apply(nOut, null, BiasInit.ZERO);
+        this.precision = precision == null ? Precision.DOUBLE : precision;
+        if (this.precision.isFloat()) Wf = new Tensor(Precision.FLOAT, nOut, nIn).copyFrom(W);
+        setUpdater(Updater.SGD);
+    }
+
+    public Tensor train(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        return train(X, T, new Tensor(X.precision(), minibatchSize, nOut), minibatchSize, learningRate);
+    }
+
+    // dY receives the delta of the output layer [minibatchSize, nOut], float for float inputs; T stays double
+    public Tensor train(Tensor X, Tensor T, Tensor dY, int minibatchSize, double learningRate) {
+        return train(X, T, dY, null, minibatchSize, learningRate);
+    }
+
+    // the forward pass, the cross-entropy delta and the backward pass in one sweep over the minibatch; dX receives the
+    // delta of X [minibatchSize, nIn], or is null
+    public Tensor train(Tensor X, Tensor T, Tensor dY, Tensor dX, int minibatchSize, double learningRate) {
+        step(X, T, dY, dX, minibatchSize, learningRate);
+        return dY;
+    }
+
+    @Override
+    public Tensor forward(Tensor X, Tensor Y, int minibatchSize) { return output(X, Y); }
+
+    // dY is the gradient w.r.t. the softmax outputs Y, overwritten with the one w.r.t. its inputs; a cross-entropy loss
+    // is cheaper through train, which takes the delta Y - T directly
+    @Override
+    public Tensor backward(Tensor X, Tensor Y, Tensor dY, Tensor dX, int minibatchSize, double learningRate) {
+        for (int n = 0; n < minibatchSize; n++) {
+            int yRow = Y.offset() + n * nOut, dyRow = dY.offset() + n * nOut;
+            if (Y.isFloat()) {
+                float[] y = Y.floats(), dy = dY.floats();
+                float dot = 0f;
+                for (int j = 0; j < nOut; j++) dot += dy[dyRow + j] * y[yRow + j];
+                for (int j = 0; j < nOut; j++) dy[dyRow + j] = y[yRow + j] * (dy[dyRow + j] - dot);
+            } else {
+                double[] y = Y.data(), dy = dY.data();
+                double dot = 0.;
+                for (int j = 0; j < nOut; j++) dot += dy[dyRow + j] * y[yRow + j];
+                for (int j = 0; j < nOut; j++) dy[dyRow + j] = y[yRow + j] * (dy[dyRow + j] - dot);
+            }
+        }
+        step(X, null, dY, dX, minibatchSize, learningRate);
+        return dX;
+    }
+
+    // T null: dY already holds the delta of the linear outputs
+    private void step(Tensor X, Tensor T, Tensor dY, Tensor dX, int minibatchSize, double learningRate) {
+        checkPrecision(X);
+        int chunks = Parallelism.chunks(parallelism, minibatchSize);
+        ensureAccumulators(chunks, X.isFloat());
+        // 1. calculate gradient of W, b
+        if (chunks == 1) gradient(X, T, dY, 0, 0, minibatchSize);
+        else Parallelism.forEach(parallelism, minibatchSize, (chunk, from, to) -> gradient(X, T, dY, chunk, from, to));
+        Parallelism.reduce(parallelism, grad_b, chunks, nOut);
+        // 2. update params, the float copy of W follows the update
+        if (X.isFloat()) {
+            Parallelism.reduce(parallelism, grad_Wf, chunks, nOut * nIn);
+            updateW.update(learningRate, minibatchSize, grad_Wf[0], 0, W.data(), W.offset(), Wf.floats(), Wf.offset());
+        } else {
+            Parallelism.reduce(parallelism, grad_W, chunks, nOut * nIn);
+            updateW.update(learningRate, minibatchSize, grad_W[0], 0, W.data(), W.offset());
+            if (Wf != null) Wf.copyFrom(W);
+        }
+        updateB.update(learningRate, minibatchSize, grad_b[0], 0, b.data(), b.offset());
+        // 3. the delta of the inputs, through the updated weights
+        if (dX != null) {
+            if (chunks == 1) propagate(dY, dX, 0, minibatchSize);
+            else Parallelism.forEach(parallelism, minibatchSize, (chunk, from, to) -> propagate(dY, dX, from, to));
+        }
     }
 
-    public double[][] train(double[][] X, int T[][], int minibatchSize, double learningRate) {
-        double[][] grad_W = new double[nOut][nIn];
-        double[] grad_b = new double[nOut];
-        double[][] dY = new double[minibatchSize][nOut];
-        for (int n = 0; n < minibatchSize; n++) { // 1. calculate gradient of W, b
-            double[] predicted_Y_ = output(X[n]);
+    // gradients of rows [from, to) of the minibatch into the accumulators of the given chunk
+    private void gradient(Tensor X, Tensor T, Tensor dY, int chunk, int from, int to) {
+        if (X.isFloat()) {
+            gradientFloat(X, T, dY, chunk, from, to);
+            return;
+        }
+        double[] dy = dY.data(), gb = grad_b[chunk];
+        int dyOff = dY.offset();
+        if (T != null) output(X, dY, from, to);
+        Arrays.fill(gb, 0.);
+        for (int n = from; n < to; n++) {
             for (int j = 0; j < nOut; j++) {
-                dY[n][j] = predicted_Y_[j] - T[n][j];
-                for (int i = 0; i < nIn; i++) grad_W[j][i] += dY[n][j] * X[n][i];
-                grad_b[j] += dY[n][j];
+                if (T != null) dy[dyOff + n * nOut + j] -= T.data()[T.offset() + n * nOut + j];
+                gb[j] += dy[dyOff + n * nOut + j];
             }
         }
-        for (int j = 0; j < nOut; j++) { // 2. update params
-            for (int i = 0; i < nIn; i++) W[j][i] -= learningRate * grad_W[j][i] / minibatchSize;
-            b[j] -= learningRate * grad_b[j] / minibatchSize;
+        // grad_W = dY^T * X
+        Gemm.gemm(true, false, nOut, nIn, to - from, 1., dy, dyOff + from * nOut, nOut, X.data(),
+                X.offset() + from * nIn, nIn, 0., grad_W[chunk], 0, nIn);
+    }
+
+    private void gradientFloat(Tensor X, Tensor T, Tensor dY, int chunk, int from, int to) {
+        double[] gb = grad_b[chunk];
+        float[] dy = dY.floats();
+        int dyOff = dY.offset();
+        if (T != null) output(X, dY, from, to);
+        Arrays.fill(gb, 0.);
+        for (int n = from; n < to; n++) {
+            for (int j = 0; j < nOut; j++) {
+                if (T != null) dy[dyOff + n * nOut + j] -= (float) T.data()[T.offset() + n * nOut + j];
+                gb[j] += dy[dyOff + n * nOut + j];
+            }
         }
-        return dY;
+        Gemm.gemm(true, false, nOut, nIn, to - from, 1f, dy, dyOff + from * nOut, nOut, X.floats(),
+                X.offset() + from * nIn, nIn, 0f, grad_Wf[chunk], 0, nIn, precision.accumulatesDouble());
     }
 
-    private double[] output(double[] x) {
-        double[] preActivation = new double[nOut];
-        for (int j = 0; j < nOut; j++) {
-            for (int i = 0; i < nIn; i++) preActivation[j] += W[j][i] * x[i];
-            preActivation[j] += b[j]; // linear output
+    // rows [from, to) of dX = dY * W, through the weights of the last update
+    private void propagate(Tensor dY, Tensor dX, int from, int to) {
+        if (dY.isFloat()) {
+            Gemm.gemm(false, false, to - from, nIn, nOut, 1f, dY.floats(), dY.offset() + from * nOut, nOut, Wf.floats(),
+                    Wf.offset(), nIn, 0f, dX.floats(), dX.offset() + from * nIn, nIn, precision.accumulatesDouble());
+        } else {
+            Gemm.gemm(false, false, to - from, nIn, nOut, 1., dY.data(), dY.offset() + from * nOut, nOut, W.data(),
+                    W.offset(), nIn, 0., dX.data(), dX.offset() + from * nIn, nIn);
         }
-        return Activation.softmax(preActivation);
     }
 
-    public Integer[] predict(double[] x) {
-        double[] y = output(x); // activate input data through learned networks
-        double max = Arrays.stream(y).max().orElse(Double.MAX_VALUE);
+    private void ensureAccumulators(int chunks, boolean floats) {
+        if (grad_b == null || grad_b.length < chunks) grad_b = new double[chunks][nOut];
+        if (floats && (grad_Wf == null || grad_Wf.length < chunks)) grad_Wf = new float[chunks][nOut * nIn];
+        if (!floats && (grad_W == null || grad_W.length < chunks)) grad_W = new double[chunks][nOut * nIn];
+    }
+
+    private void checkPrecision(Tensor X) {
+        if (X.isFloat() && Wf == null)
+            throw new IllegalArgumentException("Float inputs need a layer constructed in float precision");
+    }
+
+    // X is a single sample [nIn] or a minibatch [minibatchSize, nIn], float inputs give float outputs
+    public Tensor output(Tensor X) {
+        int rows = X.length() / nIn;
+        return output(X, X.rank() == 1 ? new Tensor(X.precision(), nOut) : new Tensor(X.precision(), rows, nOut));
+    }
+
+    // writes the outputs into the given Y
+    @Override
+    public Tensor output(Tensor X, Tensor Y) {
+        checkPrecision(X);
+        int rows = X.length() / nIn;
+        if (Parallelism.chunks(parallelism, rows) == 1) output(X, Y, 0, rows);
+        else Parallelism.forEach(parallelism, rows, (chunk, from, to) -> output(X, Y, from, to));
+        return Y;
+    }
+
+    // softmax outputs of rows [from, to) of X into the same rows of Y
+    private void output(Tensor X, Tensor Y, int from, int to) {
+        if (X.isFloat()) {
+            float[] y = Y.floats();
+            double[] b_ = b.data();
+            Gemm.gemm(false, true, to - from, nOut, nIn, 1f, X.floats(), X.offset() + from * nIn, nIn, Wf.floats(),
+                    Wf.offset(), nIn, 0f, y, Y.offset() + from * nOut, nOut, precision.accumulatesDouble());
+            for (int n = from; n < to; n++) {
+                int yRow = Y.offset() + n * nOut;
+                for (int j = 0; j < nOut; j++) y[yRow + j] += (float) b_[b.offset() + j]; // linear output
+                Activation.softmax(y, yRow, nOut);
+            }
+            return;
+        }
+        double[] y = Y.data(), b_ = b.data();
+        Gemm.gemm(false, true, to - from, nOut, nIn, 1., X, X.offset() + from * nIn, nIn, W, W.offset(), nIn, 0., y,
+                Y.offset() + from * nOut, nOut);
+        for (int n = from; n < to; n++) {
+            int yRow = Y.offset() + n * nOut;
+            for (int j = 0; j < nOut; j++) y[yRow + j] += b_[b.offset() + j]; // linear output
+            Activation.softmax(y, yRow, nOut);
+        }
+    }
+
+    public Integer[] predict(Tensor x) {
+        Tensor y = output(x); // activate input data through learned networks
+        double max = y.get(argmax(y, 0));
         Integer[] t = new Integer[nOut]; // output is the probability, so cast it to label
         for (int i = 0; i < nOut; i++) {
-            if (y[i] == max) t[i] = 1;
+            if (y.get(i) == max) t[i] = 1;
             else t[i] = 0;
         }
         return t;
     }
 
+    // X: [N, nIn], the index of the most probable class of every row
+    public int[] classify(Tensor X) {
+        Tensor Y = output(X);
+        int[] labels = new int[Y.length() / nOut];
+        for (int n = 0; n < labels.length; n++) labels[n] = argmax(Y, n * nOut);
+        return labels;
+    }
+
+    // position of the first max of the row of Y starting at row, relative to the row
+    private int argmax(Tensor Y, int row) {
+        int at = 0;
+        if (Y.isFloat()) {
+            float[] y = Y.floats();
+            int yRow = Y.offset() + row;
+            for (int j = 1; j < nOut; j++) if (y[yRow + at] < y[yRow + j]) at = j;
+            return at;
+        }
+        double[] y = Y.data();
+        int yRow = Y.offset() + row;
+        for (int j = 1; j < nOut; j++) if (y[yRow + at] < y[yRow + j]) at = j;
+        return at;
+    }
+
+    // W and b as blocks of a model file, the float copy of W is re-derived on reading
+    public void write(ModelWriter out) throws IOException {
+        out.write(W);
+        out.write(b);
+    }
+
+    // a mapped reader replaces W by a read-only view of the file, b is read onto the heap
+    public void read(ModelReader in) throws IOException {
+        W = in.map(W);
+        in.read(b);
+        if (Wf != null) Wf.copyFrom(W);
+    }
+
     /** Getters and Setters */
     public int getnIn() { return nIn; }
     public void setnIn(int nIn) { this.nIn = nIn; }
     public int getnOut() { return nOut; }
     public void setnOut(int nOut) { this.nOut = nOut; }
-    public double[][] getW() { return W; }
-    public void setW(double[][] w) { this.W = w; }
-    public double[] getB() { return b; }
-    public void setB(double[] b) { this.b = b; }
+    @Override
+    public int[] getInputShape() { return new int[]{nIn}; }
+    @Override
+    public int[] getOutputShape() { return new int[]{nOut}; }
+    public Tensor getW() { return W; }
+    public void setW(Tensor w) {
+        this.W = w;
+        if (Wf != null) Wf.copyFrom(w);
+    }
+    // the weights read by the kernels of the given precision: W itself, or its float copy
+    public Tensor getW(Precision precision) { return precision.isFloat() ? Wf : W; }
+    public Tensor getB() { return b; }
+    public void setB(Tensor b) { this.b = b; }
+    @Override
+    public Precision getPrecision() { return precision; }
+    public Updater getUpdater() { return updateW.getUpdater(); }
+    // the rule of the parameter updates, SGD by default; a new rule starts from zero moments
+    @Override
+    public void setUpdater(Updater updater) {
+        updater = updater == null ? Updater.SGD : updater;
+        updateW = updater.state(nOut * nIn);
+        updateB = updater.state(nOut);
+    }
+    @Override
+    public Updater.State[] getUpdateStates() { return new Updater.State[]{updateW, updateB}; }
+    public Parallelism getParallelism() { return parallelism; }
+    @Override
+    public void setParallelism(Parallelism parallelism) { this.parallelism = parallelism; }
 }
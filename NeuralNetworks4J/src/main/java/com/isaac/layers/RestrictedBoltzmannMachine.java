@@ -2,131 +2,307 @@ package com.isaac.layers;
 
 import com.isaac.initialization.Activation;
 import com.isaac.initialization.BiasInit;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.SamplingMode;
+import com.isaac.initialization.Updater;
 import com.isaac.initialization.WeightInit;
-import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.BitMatrix;
+import com.isaac.utils.Blas;
+import com.isaac.utils.FlightEvents;
+import com.isaac.utils.Gemm;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.RandomStream;
+import com.isaac.utils.Tensor;
 
+import java.util.Arrays;
 import java.util.Random;
-import java.util.function.DoubleFunction;
 
 @SuppressWarnings("unused")
-public class RestrictedBoltzmannMachine {
+public class RestrictedBoltzmannMachine implements Layer {
     private int nVisible;
     private int nHidden;
-    private double[][] W;
-    private double[] hbias;
-    private double[] vbias;
+    private Tensor W; // [nHidden, nVisible]
+    private Tensor hbias; // [nHidden]
+    private Tensor vbias; // [nVisible]
     private Random rng;
-    private DoubleFunction<Double> activation;
+    private RandomStream random; // drawn from rng at construction, samples the chains of single threaded training
+    private RandomStream[] workers; // split from random, one per chunk of parallel training
+    private Activation activation;
+    private Parallelism parallelism; // null for single threaded training
+    private DenseLayer encoder; // visible to hidden on W and hbias, the layer seen by a network, built on demand
+    private double[] phMean, nhMeans; // [minibatchSize, nHidden] Gibbs chains of the minibatch, reused by every step
+    private double[] nvMeans; // [minibatchSize, nVisible]
+    private BitMatrix phSample, nhSamples; // sampled hidden units, nhSamples holds the fantasy particles of PCD
+    private BitMatrix nvSamples; // sampled visible units
+    private BitMatrix data; // the packed minibatch of a dense input
+    private int[][] indices; // set columns of a row of binary units, one buffer per chunk
+    private boolean fantasies; // whether nhSamples holds the end of the chains of a previous call
+    private Updater.State updateW, updateHbias, updateVbias; // moments of the updates of the parameters
+    private double[] grad_W, grad_hbias, grad_vbias; // gradients of the updaters other than SGD
 
-    public RestrictedBoltzmannMachine (int nVisible, int nHidden, double[][] W, double[] hbias, double[] vbias, Random rng,
+    public RestrictedBoltzmannMachine (int nVisible, int nHidden, Tensor W, Tensor hbias, Tensor vbias, Random rng,
                                        Activation activationMethod) {
         this.nVisible = nVisible;
         this.nHidden = nHidden;
-        this.W = W == null ? WeightInit.apply(nVisible, nHidden, WeightInit.UNIFORM) : W;
+        this.rng = rng == null ? new Random(1234) : rng;
+        this.random = RandomStream.of(this.rng);
+        this.W = W == null ? WeightInit.apply(nVisible, nHidden, WeightInit.UNIFORM, random) : W;
         this.hbias = hbias == null ? BiasInit.apply(nHidden, null, BiasInit.ZERO) : hbias;
         this.vbias = vbias == null ? BiasInit.apply(nVisible, null, BiasInit.ZERO) : vbias;
-        this.rng = rng == null ? new Random(1234) : rng;
-        this.activation = activationMethod == null ? Activation.active(Activation.Sigmoid) : Activation.active(activationMethod);
+        this.activation = activationMethod == null ? Activation.Sigmoid : activationMethod;
+        setUpdater(Updater.SGD);
+    }
+
+    // X holds binary units {0, 1} as doubles, [minibatchSize, nVisible]. The Gibbs chains of the whole minibatch are
+    // split by rows across the threads of the parallelism if one is set
+    public void contrastiveDivergence(Tensor X, int minibatchSize, double learningRate, int k) {
+        contrastiveDivergence(X, minibatchSize, learningRate, k, SamplingMode.CD);
+    }
+
+    // the units are packed into bits first, see the BitMatrix overload
+    public void contrastiveDivergence(Tensor X, int minibatchSize, double learningRate, int k, SamplingMode mode) {
+        if (data == null || data.rows() != minibatchSize) data = new BitMatrix(minibatchSize, nVisible);
+        contrastiveDivergence(data.pack(X.data(), X.offset()), learningRate, k, mode);
     }
 
-    public void contrastiveDivergence(int[][] X, int minibatchSize, double learningRate, int k) {
-        double[][] grad_W = new double[nHidden][nVisible];
-        double[] grad_hbias = new double[nHidden];
-        double[] grad_vbias = new double[nVisible];
-        // train with minibatches
+    // X: [minibatchSize, nVisible] binary units. All sampled units are kept as bits as well, so the products with W only
+    // sum the rows or columns of W of the set units, and a sparse minibatch costs the fraction of a dense product that
+    // its units are set. PCD keeps one fantasy particle per row of the minibatch: the negative chains start from the
+    // hidden samples the previous call ended with, the first call and a change of minibatch size start them from the data
+    public void contrastiveDivergence(BitMatrix X, double learningRate, int k, SamplingMode mode) {
+        int minibatchSize = X.rows();
+        boolean live = ensureChains(minibatchSize), persistent = mode == SamplingMode.PCD && live;
+        // train with contrastive divergence
+        // CD-k: CD-1 is enough for sampling (i.e. k == 1)
+        int chunks = Parallelism.chunks(parallelism, minibatchSize);
+        int wChunks = Parallelism.chunks(parallelism, nHidden);
+        int[][] indices = ensureIndices(Math.max(chunks, wChunks));
+        FlightEvents.Sampling sampling = FlightEvents.sampling(); // null unless recorded
+        if (chunks == 1) gibbs(X, 0, minibatchSize, k, persistent, random, indices[0]);
+        else {
+            // one stream per chunk, split in chunk order so that a given thread count reproduces its samples
+            RandomStream[] workers = this.workers = RandomStream.split(random, this.workers, chunks);
+            Parallelism.forEach(parallelism, minibatchSize,
+                    (chunk, from, to) -> gibbs(X, from, to, k, persistent, workers[chunk], indices[chunk]));
+        }
+        if (sampling != null) {
+            sampling.end(getClass().getSimpleName(), minibatchSize, FlightEvents.shape(nVisible, nHidden), k,
+                    persistent);
+        }
+        fantasies = true;
+        // update parameters: W += lr / N * (phMean^T * X - nhMeans^T * nvSamples), rows of W split across threads. SGD
+        // scatters the products straight into W, the other updaters take their negation as the gradient to descend, and
+        // so does SGD while a listener records the gradient norm
+        boolean fused = updateW.getUpdater() == Updater.SGD && !updateW.isRecording();
+        if (!fused) ensureGradients();
+        updateW.step();
+        if (wChunks == 1) update(X, 0, nHidden, learningRate, fused, indices[0]);
+        else Parallelism.forEach(parallelism, nHidden,
+                (chunk, from, to) -> update(X, from, to, learningRate, fused, indices[chunk]));
+        double[] hb = fused ? hbias.data() : grad_hbias, vb = fused ? vbias.data() : grad_vbias;
+        int hbOff = fused ? hbias.offset() : 0, vbOff = fused ? vbias.offset() : 0;
+        double a = fused ? learningRate / minibatchSize : -1.;
+        if (!fused) {
+            Arrays.fill(grad_hbias, 0.);
+            Arrays.fill(grad_vbias, 0.);
+        }
         for (int n = 0; n < minibatchSize; n++) {
-            double[] phMean_ = new double[nHidden];
-            int[] phSample_ = new int[nHidden];
-            double[] nvMeans_ = new double[nVisible];
-            int[] nvSamples_ = new int[nVisible];
-            double[] nhMeans_ = new double[nHidden];
-            int[] nhSamples_ = new int[nHidden];
-            // train with contrastive divergence
-            // CD-k: CD-1 is enough for sampling (i.e. k == 1)
-            sampleHgivenV(X[n], phMean_, phSample_);
-            for (int step = 0; step < k; step++) {
-                // Gibbs sampling
-                if (step == 0) { gibbsHVH(phSample_, nvMeans_, nvSamples_, nhMeans_, nhSamples_); }
-                else { gibbsHVH(nhSamples_, nvMeans_, nvSamples_, nhMeans_, nhSamples_); }
-            }
-            // calculate gradients
             for (int j = 0; j < nHidden; j++) {
-                for (int i = 0; i < nVisible; i++) grad_W[j][i] += phMean_[j] * X[n][i] - nhMeans_[j] * nvSamples_[i];
-                grad_hbias[j] += phMean_[j] - nhMeans_[j];
+                hb[hbOff + j] += a * (phMean[n * nHidden + j] - nhMeans[n * nHidden + j]);
             }
-            for (int i = 0; i < nVisible; i++) { grad_vbias[i] += X[n][i] - nvSamples_[i]; }
+            X.axpy(n, a, vb, vbOff);
+            nvSamples.axpy(n, -a, vb, vbOff);
         }
-        // update parameters
-        for (int j = 0; j < nHidden; j++) {
-            for (int i = 0; i < nVisible; i++) W[j][i] += learningRate * grad_W[j][i] / minibatchSize;
-            hbias[j] += learningRate * grad_hbias[j] / minibatchSize;
+        if (fused) return;
+        updateHbias.update(learningRate, minibatchSize, grad_hbias, 0, hbias.data(), hbias.offset());
+        updateVbias.update(learningRate, minibatchSize, grad_vbias, 0, vbias.data(), vbias.offset());
+    }
+
+    // CD-k chains of rows [from, to) of the minibatch, persistent ones continue from the last hidden samples
+    private void gibbs(BitMatrix X, int from, int to, int k, boolean persistent, RandomStream random, int[] idx) {
+        sampleHgivenV(X, from, to, phMean, persistent ? null : phSample, random, idx);
+        for (int step = 0; step < k; step++) {
+            // Gibbs sampling
+            sampleVgivenH(step == 0 && !persistent ? phSample : nhSamples, from, to, nvMeans, nvSamples, random, idx);
+            sampleHgivenV(nvSamples, from, to, nhMeans, nhSamples, random, idx);
         }
-        for (int i = 0; i < nVisible; i++) { vbias[i] += learningRate * grad_vbias[i] / minibatchSize; }
     }
 
+    // rows [from, to) of W, every sample adds its hidden means to the columns of its set visible units; without SGD
+    // they are added to the gradient, which the updater then applies to the rows
+    private void update(BitMatrix X, int from, int to, double lr, boolean fused, int[] idx) {
+        int minibatchSize = X.rows();
+        double[] w = W.data(), g = fused ? w : grad_W;
+        int gOff = fused ? W.offset() : 0;
+        double a = fused ? lr / minibatchSize : -1.;
+        if (!fused) Arrays.fill(grad_W, from * nVisible, to * nVisible, 0.);
+        for (int n = 0; n < minibatchSize; n++) {
+            int nnz = X.indices(n, idx);
+            for (int j = from; j < to; j++) {
+                Blas.axpy(nnz, a * phMean[n * nHidden + j], idx, g, gOff + j * nVisible);
+            }
+            nnz = nvSamples.indices(n, idx);
+            for (int j = from; j < to; j++) {
+                Blas.axpy(nnz, -a * nhMeans[n * nHidden + j], idx, g, gOff + j * nVisible);
+            }
+        }
+        if (!fused) {
+            updateW.apply(from * nVisible, (to - from) * nVisible, lr, minibatchSize, grad_W, from * nVisible, w,
+                    W.offset() + from * nVisible);
+        }
+    }
 
-    private void gibbsHVH(int[] h0Sample, double[] nvMeans, int[] nvSamples, double[] nhMeans, int[] nhSamples) {
-        sampleVgivenH(h0Sample, nvMeans, nvSamples);
-        sampleHgivenV(nvSamples, nhMeans, nhSamples);
+    private void ensureGradients() {
+        if (grad_W != null) return;
+        grad_W = new double[nHidden * nVisible];
+        grad_hbias = new double[nHidden];
+        grad_vbias = new double[nVisible];
     }
 
-    private void sampleHgivenV(int[] v0Sample, double[] mean, int[] sample) {
-        for (int j = 0; j < nHidden; j++) {
-            mean[j] = propup(v0Sample, W[j], hbias[j]);
-            sample[j] = RandomGenerator.binomial(1, mean[j], rng);
+    // mean [n, nHidden] = f(V * W^T + hbias) for rows [from, to) of v, summing the columns of W of the set visible
+    // units, and sample ~ Bernoulli(mean) unless it is null
+    private void sampleHgivenV(BitMatrix v, int from, int to, double[] mean, BitMatrix sample, RandomStream random,
+                               int[] idx) {
+        double[] w = W.data(), hb = hbias.data();
+        for (int n = from; n < to; n++) {
+            int nnz = v.indices(n, idx), row = n * nHidden;
+            for (int j = 0; j < nHidden; j++) {
+                mean[row + j] = Blas.sum(nnz, idx, w, W.offset() + j * nVisible) + hb[hbias.offset() + j];
+            }
+            activation.apply(mean, row, nHidden);
+            if (sample != null) random.bernoulli(mean, row, sample.bits(), n * sample.words(), nHidden);
         }
     }
 
-    private void sampleVgivenH(int[] h0Sample, double[] mean, int[] sample) {
-        for (int i = 0; i < nVisible; i++) {
-            mean[i] = propdown(h0Sample, i, vbias[i]);
-            sample[i] = RandomGenerator.binomial(1, mean[i], rng);
+    // mean [n, nVisible] = f(H * W + vbias) for rows [from, to) of h, summing the rows of W of the set hidden units,
+    // and sample ~ Bernoulli(mean)
+    private void sampleVgivenH(BitMatrix h, int from, int to, double[] mean, BitMatrix sample, RandomStream random,
+                               int[] idx) {
+        double[] w = W.data();
+        for (int n = from; n < to; n++) {
+            int nnz = h.indices(n, idx), row = n * nVisible;
+            System.arraycopy(vbias.data(), vbias.offset(), mean, row, nVisible);
+            for (int t = 0; t < nnz; t++) Blas.axpy(nVisible, 1., w, W.offset() + idx[t] * nVisible, mean, row);
+            activation.apply(mean, row, nVisible);
+            random.bernoulli(mean, row, sample.bits(), n * sample.words(), nVisible);
         }
     }
 
-    private double propup(int[] v, double[] w, double bias) {
-        double preActivation = 0.0;
-        for (int i = 0; i < nVisible; i++) {
-            preActivation += w[i] * v[i];
-        }
-        preActivation += bias;
-        return activation.apply(preActivation);
+    // chains of a minibatch, allocated once and only re-allocated when the minibatch size changes. Returns whether
+    // the chains hold the fantasy particles of a previous call
+    private boolean ensureChains(int minibatchSize) {
+        if (phMean != null && phMean.length == minibatchSize * nHidden) return fantasies;
+        fantasies = false;
+        phMean = new double[minibatchSize * nHidden];
+        nhMeans = new double[minibatchSize * nHidden];
+        nvMeans = new double[minibatchSize * nVisible];
+        phSample = new BitMatrix(minibatchSize, nHidden);
+        nhSamples = new BitMatrix(minibatchSize, nHidden);
+        nvSamples = new BitMatrix(minibatchSize, nVisible);
+        return false;
     }
 
-    private double propdown(int[] h, int i, double bias) {
-        double preActivation = 0.0;
-        for (int j = 0; j < nHidden; j++) {
-            preActivation += W[j][i] * h[j];
-        }
-        preActivation += bias;
-        return activation.apply(preActivation);
+    private int[][] ensureIndices(int chunks) {
+        if (indices != null && indices.length >= chunks) return indices;
+        indices = new int[chunks][Math.max(nVisible, nHidden)];
+        return indices;
     }
 
-    public double[] reconstruct(int[] v) {
-        double[] x = new double[nVisible];
+    // the next persistent call restarts its chains from the data
+    public void resetChains() { fantasies = false; }
+
+    // v is a single binary sample [nVisible]
+    public Tensor reconstruct(Tensor v) {
+        Tensor x = new Tensor(nVisible);
         double[] h = new double[nHidden];
-        for (int j = 0; j < nHidden; j++) h[j] = propup(v, W[j], hbias[j]);
-        for (int i = 0; i < nVisible; i++) {
-            double preActivation = 0.0;
-            for (int j = 0; j < nHidden; j++) preActivation += W[j][i] * h[j];
-            preActivation += vbias[i];
-            x[i] = activation.apply(preActivation);
-        }
+        Gemm.gemm(false, true, 1, nHidden, nVisible, 1., v.data(), v.offset(), nVisible, W.data(), W.offset(),
+                nVisible, 0., h, 0, nHidden);
+        activation.apply(h, 0, 1, nHidden, hbias.data(), hbias.offset());
+        Gemm.gemm(false, false, 1, nVisible, nHidden, 1., h, 0, nHidden, W.data(), W.offset(), nVisible, 0.,
+                x.data(), 0, nVisible);
+        activation.apply(x.data(), 0, 1, nVisible, vbias.data(), vbias.offset());
         return x;
     }
 
+    // the encoder as a layer of a network: X [N, nVisible] to the probabilities of the hidden units [N, nHidden]
+    @Override
+    public Tensor output(Tensor X, Tensor Y) { return encoder().output(X, Y); }
+
+    @Override
+    public Tensor forward(Tensor X, Tensor Y, int minibatchSize) { return encoder().output(X, Y); }
+
+    // fine-tuning of W and hbias through the encoder, vbias is left to pre-training
+    @Override
+    public Tensor backward(Tensor X, Tensor Y, Tensor dY, Tensor dX, int minibatchSize, double learningRate) {
+        return encoder().backward(X, Y, dY, dX, minibatchSize, learningRate);
+    }
+
+    private DenseLayer encoder() {
+        if (encoder == null) {
+            encoder = new DenseLayer(nVisible, nHidden, W, hbias, null, activation);
+            encoder.setUpdater(getUpdater());
+            encoder.setParallelism(parallelism);
+        }
+        return encoder;
+    }
+
     /** Getters and Setters */
     public int getnVisible() { return nVisible; }
     public void setnVisible(int nVisible) { this.nVisible = nVisible; }
+    @Override
+    public int[] getInputShape() { return new int[]{nVisible}; }
     public int getnHidden() { return nHidden; }
     public void setnHidden(int nHidden) { this.nHidden = nHidden; }
-    public double[][] getW() { return W; }
-    public void setW(double[][] w) { W = w; }
-    public double[] getHbias() { return hbias; }
-    public void setHbias(double[] hbias) { this.hbias = hbias; }
-    public double[] getVbias() { return vbias; }
-    public void setVbias(double[] vbias) { this.vbias = vbias; }
+    @Override
+    public int[] getOutputShape() { return new int[]{nHidden}; }
+    @Override
+    public Precision getPrecision() { return Precision.DOUBLE; }
+    public Tensor getW() { return W; }
+    public void setW(Tensor w) {
+        W = w;
+        encoder = null;
+    }
+    public Tensor getHbias() { return hbias; }
+    public void setHbias(Tensor hbias) {
+        this.hbias = hbias;
+        encoder = null;
+    }
+    public Tensor getVbias() { return vbias; }
+    public void setVbias(Tensor vbias) { this.vbias = vbias; }
     public Random getRng() { return rng; }
-    public void setRng(Random rng) { this.rng = rng; }
+    public void setRng(Random rng) {
+        this.rng = rng;
+        this.random = RandomStream.of(rng);
+        this.workers = null;
+    }
+    public Activation getActivation() { return activation; }
+    public Updater getUpdater() { return updateW.getUpdater(); }
+    // the rule of the parameter updates, SGD by default; a new rule starts from zero moments
+    @Override
+    public void setUpdater(Updater updater) {
+        updater = updater == null ? Updater.SGD : updater;
+        updateW = updater.state(nHidden * nVisible);
+        updateHbias = updater.state(nHidden);
+        updateVbias = updater.state(nVisible);
+        if (encoder != null) encoder.setUpdater(updater);
+    }
+    // the states of pre-training, and those of the encoder once it ran as a layer of a network
+    @Override
+    public Updater.State[] getUpdateStates() {
+        Updater.State[] states = {updateW, updateHbias, updateVbias};
+        if (encoder == null) return states;
+        Updater.State[] encoding = encoder.getUpdateStates();
+        return new Updater.State[]{updateW, updateHbias, updateVbias, encoding[0], encoding[1]};
+    }
+    public void setActivation(Activation activation) {
+        this.activation = activation;
+        encoder = null;
+    }
+    public Parallelism getParallelism() { return parallelism; }
+    @Override
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        if (encoder != null) encoder.setParallelism(parallelism);
+    }
 
 }
@@ -2,16 +2,26 @@ package com.isaac.neuralnetworks;
 
 
 import com.isaac.initialization.Activation;
+import com.isaac.initialization.ConvolutionMode;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
 import com.isaac.layers.ConvolutionPoolingLayer;
 import com.isaac.layers.DenseLayer;
+import com.isaac.layers.Layer;
 import com.isaac.layers.LogisticLayer;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 @SuppressWarnings("unused")
 public class ConvolutionalNeuralNetworks {
+    private static final String MODEL = "ConvolutionalNeuralNetworks";
     private int[] nKernels;
     private int[][] kernelSizes;
     private int[][] poolSizes;
@@ -24,15 +34,34 @@ public class ConvolutionalNeuralNetworks {
     private DenseLayer denseLayer;
     private LogisticLayer outputLayer;
     private Random rng;
+    private Parallelism parallelism; // null for single threaded execution
+    private Precision precision;
+    private Sequential sequential; // the execution plans of the convolution + pooling layers and the MLP
 
     public ConvolutionalNeuralNetworks(int[] imageSize, int channel, int[] nKernels, int[][] kernelSizes,
                                        int[][] poolSizes, int nHidden, int nOut, Random rng, Activation activationMethod) {
+        this(imageSize, channel, nKernels, kernelSizes, poolSizes, nHidden, nOut, rng, activationMethod,
+                ConvolutionMode.AUTO);
+    }
+
+    public ConvolutionalNeuralNetworks(int[] imageSize, int channel, int[] nKernels, int[][] kernelSizes,
+                                       int[][] poolSizes, int nHidden, int nOut, Random rng, Activation activationMethod,
+                                       ConvolutionMode convolutionMode) {
+        this(imageSize, channel, nKernels, kernelSizes, poolSizes, nHidden, nOut, rng, activationMethod, convolutionMode,
+                Precision.DOUBLE);
+    }
+
+    // the precision applies to the fully connected layers, convolution + pooling layers compute in double
+    public ConvolutionalNeuralNetworks(int[] imageSize, int channel, int[] nKernels, int[][] kernelSizes,
+                                       int[][] poolSizes, int nHidden, int nOut, Random rng, Activation activationMethod,
+                                       ConvolutionMode convolutionMode, Precision precision) {
         this.nKernels = nKernels;
         this.kernelSizes = kernelSizes;
         this.poolSizes = poolSizes;
         this.nHidden = nHidden;
         this.nOut = nOut;
         this.rng = rng == null ? new Random(1234) : rng;
+        this.precision = precision == null ? Precision.DOUBLE : precision;
         convPoolLayers = new ConvolutionPoolingLayer[nKernels.length];
         convolvedSizes = new int[nKernels.length][imageSize.length];
         pooledSizes = new int[nKernels.length][imageSize.length];
@@ -50,110 +79,94 @@ public class ConvolutionalNeuralNetworks {
             convolvedSizes[i] = new int[]{size_[0] - kernelSizes[i][0] + 1, size_[1] - kernelSizes[i][1] + 1};
             pooledSizes[i] = new int[]{convolvedSizes[i][0] / poolSizes[i][0], convolvedSizes[i][1] / poolSizes[i][0]};
             convPoolLayers[i] = new ConvolutionPoolingLayer(size_, channel_, nKernels[i], kernelSizes[i], poolSizes[i],
-                    convolvedSizes[i], pooledSizes[i], rng, activationMethod);
+                    convolvedSizes[i], pooledSizes[i], rng, activationMethod, convolutionMode);
         }
         // build MLP
         flattenedSize = nKernels[nKernels.length-1] * pooledSizes[pooledSizes.length-1][0] * pooledSizes[pooledSizes.length-1][1];
         // construct hidden layer
-        denseLayer = new DenseLayer(flattenedSize, nHidden, null, null, rng, activationMethod);
+        denseLayer = new DenseLayer(flattenedSize, nHidden, null, null, rng, activationMethod, this.precision);
         // construct output layer
-        outputLayer = new LogisticLayer(nHidden, nOut);
+        outputLayer = new LogisticLayer(nHidden, nOut, this.precision);
+        // the flat layout lets the pooled output [minibatchSize, nKernel, pooledSize] feed the MLP as it is
+        Layer[] layers = Arrays.copyOf(convPoolLayers, nKernels.length + 2, Layer[].class);
+        layers[nKernels.length] = denseLayer;
+        layers[nKernels.length + 1] = outputLayer;
+        sequential = new Sequential(layers);
+        sequential.setName(MODEL);
     }
 
 
-    public void train(double[][][][] X, int[][] T, int minibatchSize, double learningRate) {
-        // cache pre-activated, activated, and downsampled inputs of each convolution + pooling layer for backpropagation
-        List<double[][][][]> preActivated_X = new ArrayList<>(nKernels.length);
-        List<double[][][][]> activated_X = new ArrayList<>(nKernels.length);
-        List<double[][][][]> downsampled_X = new ArrayList<>(nKernels.length+1);  // +1 for input X
-        downsampled_X.add(X);
-        for (int i = 0; i < nKernels.length; i++) {
-            preActivated_X.add(new double[minibatchSize][nKernels[i]][convolvedSizes[i][0]][convolvedSizes[i][1]]);
-            activated_X.add(new double[minibatchSize][nKernels[i]][convolvedSizes[i][0]][convolvedSizes[i][1]]);
-            downsampled_X.add(new double[minibatchSize][nKernels[i]][convolvedSizes[i][0]][convolvedSizes[i][1]]);
-        }
-        double[][] flattened_X = new double[minibatchSize][flattenedSize];  // cache flattened inputs
-        double[][] Z = new double[minibatchSize][nHidden];  // cache outputs of hidden layer
-        double[][] dY;  // delta of output layer
-        double[][] dZ;  // delta of hidden layer
-        double[][] dX_flatten = new double[minibatchSize][flattenedSize];  // delta of input layer
-        double[][][][] dX = new double[minibatchSize][nKernels[nKernels.length-1]][pooledSizes[pooledSizes.length-1][0]][pooledSizes[pooledSizes.length-1][1]];
-        double[][][][] dC;
-        // train with minibatch
-        for (int n = 0; n < minibatchSize; n++) {
-            // forward convolution + pooling layers
-            double[][][] z_ = X[n].clone();
-            for (int i = 0; i < nKernels.length; i++) {
-                z_ = convPoolLayers[i].forward(z_, preActivated_X.get(i)[n], activated_X.get(i)[n]);
-                downsampled_X.get(i+1)[n] = z_.clone();
-            }
-            // flatten output to make it input for fully connected MLP
-            double[] x_ = this.flatten(z_);
-            flattened_X[n] = x_.clone();
-            // forward hidden layer
-            Z[n] = denseLayer.forward(x_);
-        }
-        // forward & backward output layer
-        dY = outputLayer.train(Z, T, minibatchSize, learningRate);
-        // backward hidden layer
-        dZ = denseLayer.backward(flattened_X, Z, dY, outputLayer.getW(), minibatchSize, learningRate);
-        // back-propagate delta to input layer
-        for (int n = 0; n < minibatchSize; n++) {
-            for (int i = 0; i < flattenedSize; i++) {
-                for (int j = 0; j < nHidden; j++) { dX_flatten[n][i] += denseLayer.getW()[j][i] * dZ[n][j]; }
-            }
-            dX[n] = unflatten(dX_flatten[n]);  // un-flatten delta
-        }
-        // backward convolution + pooling layers
-        dC = dX.clone();
-        for (int i = nKernels.length-1; i >= 0; i--) {
-            dC = convPoolLayers[i].backward(downsampled_X.get(i), preActivated_X.get(i), activated_X.get(i),
-                    downsampled_X.get(i+1), dC, minibatchSize, learningRate);
-        }
+    // X: [minibatchSize, channel, imageSize[0], imageSize[1]], T: [minibatchSize, nOut]; nothing is back-propagated
+    // below the first convolution + pooling layer
+    public void train(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        sequential.train(X, T, minibatchSize, learningRate);
     }
 
-    private double[] flatten(double[][][] z) {
-        double[] x = new double[flattenedSize];
-        int index = 0;
-        for (int k = 0; k < nKernels[nKernels.length-1]; k++) {
-            for (int i = 0; i < pooledSizes[pooledSizes.length-1][0]; i++) {
-                for (int j = 0; j < pooledSizes[pooledSizes.length-1][1]; j++) {
-                    x[index] = z[k][i][j];
-                    index += 1;
-                }
-            }
-        }
-        return x;
+    // x: [channel, imageSize[0], imageSize[1]]
+    public Integer[] predict(Tensor x) {
+        return sequential.predict(x);
     }
 
-    private double[][][] unflatten(double[] x) {
-        double[][][] z = new double[nKernels[nKernels.length-1]][pooledSizes[pooledSizes.length-1][0]][pooledSizes[pooledSizes.length-1][1]];
-        int index = 0;
-        for (int k = 0; k < z.length; k++) {
-            for (int i = 0; i < z[0].length; i++) {
-                for (int j = 0; j < z[0][0].length; j++) {
-                    z[k][i][j] = x[index];
-                    index += 1;
-                }
-            }
-        }
-        return z;
+    // X: [N, channel, imageSize[0], imageSize[1]], the index of the most probable class of every image
+    public int[] predictClasses(Tensor X) {
+        return sequential.classify(X);
     }
 
-    public Integer[] predict(double[][][] x) {
-        List<double[][][]> preActivated = new ArrayList<>(nKernels.length);
-        List<double[][][]> activated = new ArrayList<>(nKernels.length);
-        for (int i = 0; i < nKernels.length; i++) {
-            preActivated.add(new double[nKernels[i]][convolvedSizes[i][0]][convolvedSizes[i][1]]);
-            activated.add(new double[nKernels[i]][convolvedSizes[i][0]][convolvedSizes[i][1]]);
+    // X: [N, channel, imageSize[0], imageSize[1]], the class probabilities [N, nOut] of every image, in double
+    public Tensor predictProbabilities(Tensor X) {
+        return sequential.output(X);
+    }
+
+    // the architecture and the parameters of every layer as a model file, see ModelWriter
+    public void save(File file) throws IOException {
+        try (ModelWriter out = new ModelWriter(file, MODEL)) {
+            out.writeInts(convPoolLayers[0].getImageSize());
+            out.writeInt(convPoolLayers[0].getChannel());
+            out.writeInts(nKernels);
+            for (int[] kernelSize : kernelSizes) out.writeInts(kernelSize);
+            for (int[] poolSize : poolSizes) out.writeInts(poolSize);
+            out.writeInt(nHidden);
+            out.writeInt(nOut);
+            out.writeString(denseLayer.getActivation().name());
+            out.writeString(convPoolLayers[0].getConvolutionMode().name());
+            out.writeString(precision.name());
+            for (ConvolutionPoolingLayer layer : convPoolLayers) layer.write(out);
+            denseLayer.write(out);
+            outputLayer.write(out);
         }
-        // forward convolution + pooling layers
-        double[][][] z = x.clone();
-        for (int i = 0; i < nKernels.length; i++) {
-            z = convPoolLayers[i].forward(z, preActivated.get(i), activated.get(i));
+    }
+
+    // a network written by save, ready to predict or to resume training
+    public static ConvolutionalNeuralNetworks load(File file) throws IOException {
+        return load(file, false);
+    }
+
+    // a network written by save whose weights are read-only views of the mapped file, shared through the page cache
+    // by every process mapping it: it predicts as the loaded one, and training it throws a ReadOnlyBufferException
+    public static ConvolutionalNeuralNetworks map(File file) throws IOException {
+        return load(file, true);
+    }
+
+    private static ConvolutionalNeuralNetworks load(File file, boolean mapped) throws IOException {
+        try (ModelReader in = new ModelReader(file, MODEL, mapped)) {
+            int[] imageSize = in.readInts();
+            int channel = in.readInt();
+            int[] nKernels = in.readInts();
+            int[][] kernelSizes = new int[nKernels.length][];
+            for (int i = 0; i < nKernels.length; i++) kernelSizes[i] = in.readInts();
+            int[][] poolSizes = new int[nKernels.length][];
+            for (int i = 0; i < nKernels.length; i++) poolSizes[i] = in.readInts();
+            int nHidden = in.readInt(), nOut = in.readInt();
+            Activation activation = Activation.valueOf(in.readString());
+            ConvolutionMode convolutionMode = ConvolutionMode.valueOf(in.readString());
+            Precision precision = Precision.valueOf(in.readString());
+            ConvolutionalNeuralNetworks network = new ConvolutionalNeuralNetworks(imageSize, channel, nKernels,
+                    kernelSizes, poolSizes, nHidden, nOut, null, activation, convolutionMode, precision);
+            for (ConvolutionPoolingLayer layer : network.convPoolLayers) layer.read(in);
+            network.denseLayer.read(in);
+            network.outputLayer.read(in);
+            return network;
         }
-        // forward MLP
-        return outputLayer.predict(denseLayer.forward(this.flatten(z)));
     }
 
     /** Getters and Setters */
@@ -167,6 +180,7 @@ public class ConvolutionalNeuralNetworks {
     public void setnHidden(int nHidden) { this.nHidden = nHidden; }
     public int getnOut() { return nOut; }
     public void setnOut(int nOut) { this.nOut = nOut; }
+    public ConvolutionPoolingLayer[] getConvPoolLayers() { return convPoolLayers; }
     public int[][] getConvolvedSizes() { return convolvedSizes; }
     public void setConvolvedSizes(int[][] convolvedSizes) { this.convolvedSizes = convolvedSizes; }
     public int[][] getPooledSizes() { return pooledSizes; }
@@ -175,4 +189,22 @@ public class ConvolutionalNeuralNetworks {
     public void setFlattenedSize(int flattenedSize) { this.flattenedSize = flattenedSize; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public Precision getPrecision() { return precision; }
+    public Updater getUpdater() { return outputLayer.getUpdater(); }
+    // the rule of the parameter updates of every layer, SGD by default
+    public void setUpdater(Updater updater) {
+        sequential.setUpdater(updater);
+    }
+    public TrainingListener getListener() { return sequential.getListener(); }
+    // reports every minibatch of train to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        sequential.setMetrics(listener == null ? null : new IterationMetrics(MODEL, listener));
+    }
+    public Parallelism getParallelism() { return parallelism; }
+    // opt-in data-parallel execution: batched inference is split across the threads of the given pool, and so is the
+    // MLP part of a training step
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        sequential.setParallelism(parallelism);
+    }
 }
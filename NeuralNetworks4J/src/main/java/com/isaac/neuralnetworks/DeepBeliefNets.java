@@ -1,16 +1,30 @@
 package com.isaac.neuralnetworks;
 
 import com.isaac.initialization.Activation;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.SamplingMode;
+import com.isaac.initialization.Updater;
 import com.isaac.layers.DenseLayer;
+import com.isaac.layers.Layer;
 import com.isaac.layers.LogisticLayer;
 import com.isaac.layers.RestrictedBoltzmannMachine;
+import com.isaac.utils.BitMatrix;
+import com.isaac.utils.FlightEvents;
+import com.isaac.utils.LayerCache;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+import com.isaac.utils.Workspace;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 @SuppressWarnings("unused")
 public class DeepBeliefNets {
+    private static final String MODEL = "DeepBeliefNets";
     private int nIn;
     private int[] hiddenLayerSizes;
     private int nOut;
@@ -19,13 +33,25 @@ public class DeepBeliefNets {
     private DenseLayer[] denseLayers;
     private LogisticLayer outputLayer;
     public Random rng;
+    private Parallelism parallelism; // null for single threaded training
+    private Precision precision;
+    private Workspace workspace; // outputs of a layer during pretraining, reused by every minibatch
+    private Sequential sequential; // the execution plans of the hidden layers and the output layer
+    private IterationMetrics metrics; // null when no listener is set
+    private long cacheMemory = 256L << 20; // bytes of layer inputs held on the heap during pretraining, more are spilled
 
     public DeepBeliefNets(int nIn, int[] hiddenLayerSizes, int nOut, Random rng) {
+        this(nIn, hiddenLayerSizes, nOut, rng, Precision.DOUBLE);
+    }
+
+    // the precision applies to finetuning and prediction, pre-training works on the double weights it shares
+    public DeepBeliefNets(int nIn, int[] hiddenLayerSizes, int nOut, Random rng, Precision precision) {
         this.nIn = nIn;
         this.hiddenLayerSizes = hiddenLayerSizes;
         this.nLayers = hiddenLayerSizes.length;
         this.nOut = nOut;
         this.rng = rng == null ? new Random(1234) : rng;
+        this.precision = precision == null ? Precision.DOUBLE : precision;
         this.denseLayers = new DenseLayer[nLayers];
         this.rbmLayers = new RestrictedBoltzmannMachine[nLayers];
         // construct multi-layer
@@ -35,76 +61,151 @@ public class DeepBeliefNets {
             else nIn_ = hiddenLayerSizes[i-1];
             // construct hidden layers with sigmoid function
             // weight matrices and bias vectors will be shared with RBM layers
-            denseLayers[i] = new DenseLayer(nIn_, hiddenLayerSizes[i], null, null, rng, Activation.Sigmoid);
+            denseLayers[i] = new DenseLayer(nIn_, hiddenLayerSizes[i], null, null, rng, Activation.Sigmoid,
+                    this.precision);
             // construct RBM layers
             rbmLayers[i] = new RestrictedBoltzmannMachine(nIn_, hiddenLayerSizes[i], denseLayers[i].getW(),
                     denseLayers[i].getB(), null, rng, null);
         }
         // logistic regression layer for output
-        outputLayer = new LogisticLayer(hiddenLayerSizes[nLayers-1], nOut);
+        outputLayer = new LogisticLayer(hiddenLayerSizes[nLayers-1], nOut, this.precision);
+        workspace = new Workspace(nLayers);
+        Layer[] layers = Arrays.copyOf(denseLayers, nLayers + 1, Layer[].class);
+        layers[nLayers] = outputLayer;
+        sequential = new Sequential(layers);
+        sequential.setName(MODEL);
     }
 
-    public void pretrain(int[][][] X, int minibatchSize, int minibatch_N, int epochs, double learningRate, int k) {
-        for (int layer = 0; layer < nLayers; layer++) {  // pre-train layer-wise
-            for (int epoch = 0; epoch < epochs; epoch++) {
-                for (int batch = 0; batch < minibatch_N; batch++) {
-                    int[][] X_ = new int[minibatchSize][nIn];
-                    int[][] prevLayerX_;
-                    // Set input data for current layer
-                    if (layer == 0) { X_ = X[batch]; }
-                    else {
-                        prevLayerX_ = X_;
-                        X_ = new int[minibatchSize][hiddenLayerSizes[layer-1]];
-                        for (int i = 0; i < minibatchSize; i++) { X_[i] = denseLayers[layer-1].outputBinomial(prevLayerX_[i], rng); }
+    // X: [minibatch_N, minibatchSize, nIn] binary units {0, 1}
+    public void pretrain(Tensor X, int minibatchSize, int minibatch_N, int epochs, double learningRate, int k) {
+        pretrain(X, minibatchSize, minibatch_N, epochs, learningRate, k, SamplingMode.CD);
+    }
+
+    // PCD lets the negative chains of every RBM persist across minibatches and epochs, so that k = 1 keeps mixing
+    public void pretrain(Tensor X, int minibatchSize, int minibatch_N, int epochs, double learningRate, int k,
+                         SamplingMode mode) {
+        // binary units of the minibatch at the input of every layer, packed into bits
+        BitMatrix[] units = new BitMatrix[nLayers];
+        for (int layer = 0; layer < nLayers; layer++) {
+            units[layer] = new BitMatrix(minibatchSize, layer == 0 ? nIn : hiddenLayerSizes[layer - 1]);
+        }
+        // the layers below the one being trained are frozen: the means of the input units of every layer are computed
+        // once, from one sample of the inputs of the layer below, and every epoch draws fresh binary units from them
+        LayerCache cache = null; // means of the inputs of the current layer, the first one reads X
+        IterationMetrics metrics = this.metrics;
+        try {
+            for (int layer = 0; layer < nLayers; layer++) {  // pre-train layer-wise
+                rbmLayers[layer].resetChains();
+                String[] names = {IterationMetrics.name(rbmLayers[layer], layer)};
+                String shape = FlightEvents.shape(rbmLayers[layer].getInputShape(),
+                        rbmLayers[layer].getOutputShape());
+                for (int epoch = 0; epoch < epochs; epoch++) {
+                    for (int batch = 0; batch < minibatch_N; batch++) {
+                        long start = 0L;
+                        FlightEvents.Step step = FlightEvents.step();
+                        if (metrics != null) {
+                            metrics.begin(IterationMetrics.PRETRAIN, names, minibatchSize);
+                            start = System.nanoTime();
+                        }
+                        input(X, cache, batch, layer, units[layer]);
+                        if (metrics != null) {
+                            metrics.forward(0, start);
+                            start = metrics.beginBackward(rbmLayers[layer].getUpdateStates());
+                        }
+                        FlightEvents.Pass pass = FlightEvents.pass();
+                        rbmLayers[layer].contrastiveDivergence(units[layer], learningRate, k, mode);
+                        if (pass != null) pass.end(names[0], FlightEvents.BACKWARD, minibatchSize, shape);
+                        if (step != null) step.end(MODEL, FlightEvents.PRETRAIN, minibatchSize, shape);
+                        if (metrics != null) {
+                            metrics.backward(0, start);
+                            metrics.end();
+                        }
                     }
-                    rbmLayers[layer].contrastiveDivergence(X_, minibatchSize, learningRate, k);
                 }
+                denseLayers[layer].refreshWeights(); // the RBM trained the shared double weights
+                if (layer == nLayers - 1) break;
+                LayerCache next = new LayerCache(minibatch_N, minibatchSize, hiddenLayerSizes[layer], cacheMemory);
+                for (int batch = 0; batch < minibatch_N; batch++) {
+                    input(X, cache, batch, layer, units[layer]);
+                    next.put(batch, denseLayers[layer].output(units[layer], workspace.get(layer, minibatchSize,
+                            hiddenLayerSizes[layer])));
+                }
+                if (cache != null) cache.close();
+                cache = next;
             }
+        } finally {
+            if (cache != null) cache.close();
         }
     }
 
-    public void finetune(double[][] X, int[][] T, int minibatchSize, double learningRate) {
-        List<double[][]> layerInputs = new ArrayList<>(nLayers + 1);
-        layerInputs.add(X);
-        double[][] Z = new double[0][0];
-        double[][] dY;
-        // forward hidden layers
-        for (int layer = 0; layer < nLayers; layer++) {
-            double[] x_;  // layer input
-            double[][] Z_ = new double[minibatchSize][hiddenLayerSizes[layer]];
-            for (int n = 0; n < minibatchSize; n++) {
-                if (layer == 0) x_ = X[n];
-                else x_ = Z[n];
-                Z_[n] = denseLayers[layer].forward(x_);
-            }
-            Z = Z_;
-            layerInputs.add(Z.clone());
-        }
-        // forward & backward output layer
-        dY = outputLayer.train(Z, T, minibatchSize, learningRate);
-        // backward hidden layers
-        double[][] Wprev;
-        double[][] dZ = new double[0][0];
-        for (int layer = nLayers - 1; layer >= 0; layer--) {
-            if (layer == nLayers - 1) Wprev = outputLayer.getW();
-            else {
-                Wprev = denseLayers[layer+1].getW();
-                dY = dZ.clone();
+    // binary input units of the given layer for one minibatch: the data itself, or sampled from the cached means
+    private void input(Tensor X, LayerCache cache, int batch, int layer, BitMatrix units) {
+        if (layer == 0) {
+            Tensor X_ = X.slice(batch);
+            units.pack(X_.data(), X_.offset());
+        } else denseLayers[layer - 1].sampleBinomial(cache.get(batch), units);
+    }
+
+    public void finetune(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        sequential.train(X, T, minibatchSize, learningRate);
+    }
+
+    public Integer[] predict(Tensor x) {
+        return sequential.predict(x);
+    }
+
+    // X: [N, nIn], the index of the most probable class of every row
+    public int[] predictClasses(Tensor X) {
+        return sequential.classify(X);
+    }
+
+    // X: [N, nIn], the class probabilities [N, nOut] of every row
+    public Tensor predictProbabilities(Tensor X) {
+        return sequential.output(X);
+    }
+
+    // the architecture, the weights and hidden biases shared by every hidden layer and its RBM, the visible biases of the
+    // RBMs and the output layer as a model file, see ModelWriter
+    public void save(File file) throws IOException {
+        try (ModelWriter out = new ModelWriter(file, MODEL)) {
+            out.writeInt(nIn);
+            out.writeInts(hiddenLayerSizes);
+            out.writeInt(nOut);
+            out.writeString(precision.name());
+            for (int layer = 0; layer < nLayers; layer++) {
+                denseLayers[layer].write(out);
+                out.write(rbmLayers[layer].getVbias());
             }
-            dZ = denseLayers[layer].backward(layerInputs.get(layer), layerInputs.get(layer+1), dY, Wprev, minibatchSize,
-                    learningRate);
+            outputLayer.write(out);
         }
     }
 
-    public Integer[] predict(double[] x) {
-        double[] z = new double[0];
-        for (int layer = 0; layer < nLayers; layer++) {
-            double[] x_;
-            if (layer == 0) x_ = x;
-            else x_ = z.clone();
-            z = denseLayers[layer].forward(x_);
+    // a network written by save, ready to predict, to finetune or to resume pre-training
+    public static DeepBeliefNets load(File file) throws IOException {
+        return load(file, false);
+    }
+
+    // a network written by save whose weights are read-only views of the mapped file, shared through the page cache
+    // by every process mapping it: it predicts as the loaded one, and training it throws a ReadOnlyBufferException
+    public static DeepBeliefNets map(File file) throws IOException {
+        return load(file, true);
+    }
+
+    private static DeepBeliefNets load(File file, boolean mapped) throws IOException {
+        try (ModelReader in = new ModelReader(file, MODEL, mapped)) {
+            int nIn = in.readInt();
+            int[] hiddenLayerSizes = in.readInts();
+            int nOut = in.readInt();
+            Precision precision = Precision.valueOf(in.readString());
+            DeepBeliefNets network = new DeepBeliefNets(nIn, hiddenLayerSizes, nOut, null, precision);
+            for (int layer = 0; layer < network.nLayers; layer++) {
+                network.denseLayers[layer].read(in);
+                if (mapped) network.rbmLayers[layer].setW(network.denseLayers[layer].getW()); // shares the view
+                in.read(network.rbmLayers[layer].getVbias());
+            }
+            network.outputLayer.read(in);
+            return network;
         }
-        return outputLayer.predict(z);
     }
 
     /** Getters and Setters */
@@ -118,4 +219,27 @@ public class DeepBeliefNets {
     public void setnLayers(int nLayers) { this.nLayers = nLayers; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public Precision getPrecision() { return precision; }
+    public Updater getUpdater() { return outputLayer.getUpdater(); }
+    // the rule of the parameter updates of every layer, in pre-training and finetuning alike, SGD by default
+    public void setUpdater(Updater updater) {
+        sequential.setUpdater(updater);
+        for (RestrictedBoltzmannMachine layer : rbmLayers) layer.setUpdater(updater);
+    }
+    public long getCacheMemory() { return cacheMemory; }
+    // 0 spills the cached layer inputs of pretraining to a memory-mapped file whatever their size
+    public void setCacheMemory(long cacheMemory) { this.cacheMemory = cacheMemory; }
+    public TrainingListener getListener() { return metrics == null ? null : metrics.getListener(); }
+    // reports every minibatch of pretrain and finetune to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        metrics = listener == null ? null : new IterationMetrics(MODEL, listener);
+        sequential.setMetrics(metrics);
+    }
+    public Parallelism getParallelism() { return parallelism; }
+    // opt-in data-parallel pre-training and finetuning, each minibatch is split across the threads of the given pool
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        sequential.setParallelism(parallelism);
+        for (RestrictedBoltzmannMachine layer : rbmLayers) layer.setParallelism(parallelism);
+    }
 }
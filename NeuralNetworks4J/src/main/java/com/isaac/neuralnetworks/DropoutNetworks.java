@@ -1,16 +1,24 @@
 package com.isaac.neuralnetworks;
 
 import com.isaac.initialization.Activation;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
 import com.isaac.layers.DenseLayer;
+import com.isaac.layers.Layer;
 import com.isaac.layers.LogisticLayer;
-import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 @SuppressWarnings({"Duplicates", "unused"})
 public class DropoutNetworks {
+    private static final String MODEL = "DropoutNetworks";
     private int nIn;
     private int nOut;
     private int[] hiddenLayerSizes;
@@ -18,106 +26,95 @@ public class DropoutNetworks {
     private DenseLayer[] hiddenLayers;
     private LogisticLayer outputLayer;
     private Random rng;
+    private Parallelism parallelism; // null for single threaded training
+    private Precision precision;
+    private Sequential sequential; // the execution plans of the hidden layers and the output layer
 
     public DropoutNetworks (int nIn, int[] hiddenLayerSizes, int nOut, Random rng, Activation activationMethod) {
+        this(nIn, hiddenLayerSizes, nOut, rng, activationMethod, Precision.DOUBLE);
+    }
+
+    public DropoutNetworks (int nIn, int[] hiddenLayerSizes, int nOut, Random rng, Activation activationMethod,
+                            Precision precision) {
         this.nIn = nIn;
         this.hiddenLayerSizes = hiddenLayerSizes;
         this.nLayers = hiddenLayerSizes.length;
         this.nOut = nOut;
         this.rng = rng == null ? new Random(1234) : rng;
+        this.precision = precision == null ? Precision.DOUBLE : precision;
         activationMethod = activationMethod == null ? Activation.Tanh : activationMethod;
         this.hiddenLayers = new DenseLayer[nLayers];
         for (int i = 0; i < nLayers; i++) {
             int nIn_;
             if (i == 0) nIn_ = nIn;
             else nIn_ = hiddenLayerSizes[i - 1];
-            hiddenLayers[i] = new DenseLayer(nIn_, hiddenLayerSizes[i], null, null, rng, activationMethod);
+            hiddenLayers[i] = new DenseLayer(nIn_, hiddenLayerSizes[i], null, null, rng, activationMethod,
+                    this.precision);
         }
-        outputLayer = new LogisticLayer(hiddenLayerSizes[nLayers - 1], nOut);
+        outputLayer = new LogisticLayer(hiddenLayerSizes[nLayers - 1], nOut, this.precision);
+        Layer[] layers = Arrays.copyOf(hiddenLayers, nLayers + 1, Layer[].class);
+        layers[nLayers] = outputLayer;
+        sequential = new Sequential(layers);
+        sequential.setName(MODEL);
     }
 
-    public void train(double[][] X, int[][] T, int minibatchSize, double learningRate, double pDrouput) {
-        // since we need some layer inputs when calculating the back-propagation errors,
-        // define layerInputs to cache their respective input values
-        List<double[][]> layerInputs = new ArrayList<>(nLayers + 1);
-        layerInputs.add(X); // here the X is original training data
-        // cache dropout masks for each layer for back-propagation
-        List<int[][]> dropoutMasks = new ArrayList<>(nLayers);
-        double[][] Z = new double[0][0];
-        double[][] D; // delta
-        // forward hidden layers
-        for (int layer = 0; layer < nLayers; layer++) {
-            double[] x_; // layer input
-            double[][] Z_ = new double[minibatchSize][hiddenLayerSizes[layer]];
-            int[][] mask_ = new int[minibatchSize][hiddenLayerSizes[layer]];
-            for (int n = 0; n < minibatchSize; n++) {
-                if (layer == 0) { x_ = X[n]; }
-                else { x_ = Z[n]; }
-                Z_[n] = hiddenLayers[layer].forward(x_);
-                mask_[n] = dropout(Z_[n], pDrouput); // apply dropout mask to units
-            }
-            Z = Z_;
-            layerInputs.add(Z.clone());
-            dropoutMasks.add(mask_);
-        }
-        // After forward propagation through the hidden layers, training data is forward propagated in the output layer
-        // of the logistic regression. Then, the deltas of each layer are going back through the network. Here, we apply
-        // the cached masks to the delta so that its values are backprop in the same network for/back-ward output layer
-        D = outputLayer.train(Z, T, minibatchSize, learningRate);
-        // backward hidden layers
-        for (int layer = nLayers - 1; layer >= 0; layer--) {
-            double[][] Wprev_;
-            if (layer == nLayers - 1) { Wprev_ = outputLayer.getW(); }
-            else { Wprev_= hiddenLayers[layer + 1].getW(); }
-            // apply mask to delta as well
-            for (int n = 0; n < minibatchSize; n++) {
-                int[] mask_ = dropoutMasks.get(layer)[n];
-                for (int j = 0; j < D[n].length; j++) { D[n][j] *= mask_[j]; }
-            }
-            D = hiddenLayers[layer].backward(layerInputs.get(layer), layerInputs.get(layer + 1), D, Wprev_,
-                    minibatchSize, learningRate);
-        }
+    // dropout is inverted: the kept units are scaled up while training, so the trained weights are used as they are by
+    // predict and training can resume. Every hidden layer passes its delta through its own mask, so that only the
+    // units kept in the forward pass are trained
+    public void train(Tensor X, Tensor T, int minibatchSize, double learningRate, double pDrouput) {
+        sequential.train(X, T, minibatchSize, learningRate, pDrouput);
     }
 
-    // this function returns the values following the Bernoulli distribution
-    private int[] dropout(double[] z, double p) {
-        int size = z.length;
-        int[] mask = new int[size];
-        for (int i = 0; i < size; i++) {
-            mask[i] = RandomGenerator.binomial(1, 1 - p, rng);
-            z[i] *= mask[i]; // apply mask
-        }
-        return mask;
+    public Integer[] predict(Tensor x) {
+        return sequential.predict(x);
+    }
+
+    // X: [N, nIn], the index of the most probable class of every row
+    public int[] predictClasses(Tensor X) {
+        return sequential.classify(X);
+    }
+
+    // X: [N, nIn], the class probabilities [N, nOut] of every row
+    public Tensor predictProbabilities(Tensor X) {
+        return sequential.output(X);
     }
 
-    // Before applying the test data to tuned model, we need to configure the weights of the network. Dropout masks cannot
-    // be simply applied to the test data, because when masked, the shape of each network will be differentiated, and this
-    // may returns different results because a certain unit may have a significant effect on certain features. Instead, we
-    // need to smooth the weights of the network. Below, all the weights are multiplied by the probability of non-dropout.
-    public void pretest(double pDropout) {
-        for (int layer = 0; layer < nLayers; layer++) {
-            int nIn_, nOut_;
-            if (layer == 0) { nIn_ = nIn; }
-            else { nIn_ = hiddenLayerSizes[layer]; }
-            if (layer == nLayers - 1) { nOut_ = nOut; }
-            else { nOut_ = hiddenLayerSizes[layer+1]; }
-            for (int j = 0; j < nOut_; j++) {
-                for (int i = 0; i < nIn_; i++) {
-                    hiddenLayers[layer].getW()[j][i] *= 1 - pDropout;
-                }
-            }
+    // the architecture and the parameters of every layer as a model file, see ModelWriter
+    public void save(File file) throws IOException {
+        try (ModelWriter out = new ModelWriter(file, MODEL)) {
+            out.writeInt(nIn);
+            out.writeInts(hiddenLayerSizes);
+            out.writeInt(nOut);
+            out.writeString(hiddenLayers[0].getActivation().name());
+            out.writeString(precision.name());
+            for (DenseLayer layer : hiddenLayers) layer.write(out);
+            outputLayer.write(out);
         }
     }
 
-    public Integer[] predict(double[] x) {
-        double[] z = new double[0];
-        for (int layer = 0; layer < nLayers; layer++) {
-            double[] x_;
-            if (layer == 0) { x_ = x; }
-            else { x_ = z.clone(); }
-            z = hiddenLayers[layer].forward(x_);
+    // a network written by save, ready to predict or to resume training
+    public static DropoutNetworks load(File file) throws IOException {
+        return load(file, false);
+    }
+
+    // a network written by save whose weights are read-only views of the mapped file, shared through the page cache
+    // by every process mapping it: it predicts as the loaded one, and training it throws a ReadOnlyBufferException
+    public static DropoutNetworks map(File file) throws IOException {
+        return load(file, true);
+    }
+
+    private static DropoutNetworks load(File file, boolean mapped) throws IOException {
+        try (ModelReader in = new ModelReader(file, MODEL, mapped)) {
+            int nIn = in.readInt();
+            int[] hiddenLayerSizes = in.readInts();
+            int nOut = in.readInt();
+            Activation activation = Activation.valueOf(in.readString());
+            Precision precision = Precision.valueOf(in.readString());
+            DropoutNetworks network = new DropoutNetworks(nIn, hiddenLayerSizes, nOut, null, activation, precision);
+            for (DenseLayer layer : network.hiddenLayers) layer.read(in);
+            network.outputLayer.read(in);
+            return network;
         }
-        return outputLayer.predict(z);
     }
 
     /** Getters ans Setters */
@@ -131,5 +128,22 @@ public class DropoutNetworks {
     public void setnLayers(int nLayers) { this.nLayers = nLayers; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public Precision getPrecision() { return precision; }
+    public Updater getUpdater() { return outputLayer.getUpdater(); }
+    // the rule of the parameter updates of every layer, SGD by default
+    public void setUpdater(Updater updater) {
+        sequential.setUpdater(updater);
+    }
+    public TrainingListener getListener() { return sequential.getListener(); }
+    // reports every minibatch of train to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        sequential.setMetrics(listener == null ? null : new IterationMetrics(MODEL, listener));
+    }
+    public Parallelism getParallelism() { return parallelism; }
+    // opt-in data-parallel training, each minibatch is split across the threads of the given pool
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        sequential.setParallelism(parallelism);
+    }
 
 }
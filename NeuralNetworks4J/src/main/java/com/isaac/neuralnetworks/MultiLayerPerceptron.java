@@ -1,48 +1,105 @@
 package com.isaac.neuralnetworks;
 
 import com.isaac.initialization.Activation;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
 import com.isaac.layers.DenseLayer;
 import com.isaac.layers.LogisticLayer;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
 
 @SuppressWarnings("unused")
 public class MultiLayerPerceptron {
+    private static final String MODEL = "MultiLayerPerceptron";
     private int nIn;
     private int nHidden;
     private int nOut;
     private DenseLayer hiddenLayer;
     private LogisticLayer outputLayer;
     public Random rng;
+    private Parallelism parallelism; // null for single threaded training
+    private Precision precision;
+    private Sequential sequential; // the execution plans of the hidden and the output layer
 
     public  MultiLayerPerceptron(int nIn, int nHidden, int nOut, Random rng, Activation activationMethod) {
+        this(nIn, nHidden, nOut, rng, activationMethod, Precision.DOUBLE);
+    }
+
+    public  MultiLayerPerceptron(int nIn, int nHidden, int nOut, Random rng, Activation activationMethod,
+                                 Precision precision) {
         this.nIn = nIn;
         this.nHidden = nHidden;
         this.nOut = nOut;
         this.rng = rng == null ? new Random(1234) : rng;
+        this.precision = precision == null ? Precision.DOUBLE : precision;
         // construct hidden layer with tanh as activation function
         activationMethod = activationMethod == null ? Activation.Sigmoid : activationMethod;
-        hiddenLayer = new DenseLayer(nIn, nHidden, null, null, rng, activationMethod);
+        hiddenLayer = new DenseLayer(nIn, nHidden, null, null, rng, activationMethod, this.precision);
         // construct output layer i.e. multi-class logistic layer
-        outputLayer = new LogisticLayer(nHidden, nOut);
+        outputLayer = new LogisticLayer(nHidden, nOut, this.precision);
+        sequential = new Sequential(hiddenLayer, outputLayer);
+        sequential.setName(MODEL);
+    }
+
+    public void train(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        sequential.train(X, T, minibatchSize, learningRate);
+    }
+
+    public Integer[] predict(Tensor x) {
+        return sequential.predict(x);
+    }
+
+    // X: [N, nIn], the index of the most probable class of every row, the batch going through each layer in blocks of
+    // rows as matrix products, spread across the threads of the parallelism if one is set
+    public int[] predictClasses(Tensor X) {
+        return sequential.classify(X);
+    }
+
+    // X: [N, nIn], the class probabilities [N, nOut] of every row, in double whatever the precision
+    public Tensor predictProbabilities(Tensor X) {
+        return sequential.output(X);
     }
 
-    public void train(double[][] X, int T[][], int minibatchSize, double learningRate) {
-        double[][] Z = new double[minibatchSize][nIn]; // outputs of hidden layer (= inputs of output layer)
-        double[][] dY;
-        // forward hidden layer
-        for (int n = 0; n < minibatchSize; n++) {
-            Z[n] = hiddenLayer.forward(X[n]); // activate input units
+    // the architecture and the parameters of every layer as a model file, see ModelWriter
+    public void save(File file) throws IOException {
+        try (ModelWriter out = new ModelWriter(file, MODEL)) {
+            out.writeInt(nIn);
+            out.writeInt(nHidden);
+            out.writeInt(nOut);
+            out.writeString(hiddenLayer.getActivation().name());
+            out.writeString(precision.name());
+            hiddenLayer.write(out);
+            outputLayer.write(out);
         }
-        // forward & backward output layer
-        dY = outputLayer.train(Z, T, minibatchSize, learningRate);
-        // backward hidden layer (back-propagate)
-        hiddenLayer.backward(X, Z, dY, outputLayer.getW(), minibatchSize, learningRate);
     }
 
-    public Integer[] predict(double[] x) {
-        double[] z = hiddenLayer.output(x);
-        return outputLayer.predict(z);
+    // a network written by save, ready to predict or to resume training
+    public static MultiLayerPerceptron load(File file) throws IOException {
+        return load(file, false);
+    }
+
+    // a network written by save whose weights are read-only views of the mapped file, shared through the page cache
+    // by every process mapping it: it predicts as the loaded one, and training it throws a ReadOnlyBufferException
+    public static MultiLayerPerceptron map(File file) throws IOException {
+        return load(file, true);
+    }
+
+    private static MultiLayerPerceptron load(File file, boolean mapped) throws IOException {
+        try (ModelReader in = new ModelReader(file, MODEL, mapped)) {
+            int nIn = in.readInt(), nHidden = in.readInt(), nOut = in.readInt();
+            Activation activation = Activation.valueOf(in.readString());
+            Precision precision = Precision.valueOf(in.readString());
+            MultiLayerPerceptron network = new MultiLayerPerceptron(nIn, nHidden, nOut, null, activation, precision);
+            network.hiddenLayer.read(in);
+            network.outputLayer.read(in);
+            return network;
+        }
     }
 
     /** Getters and Setters */
@@ -54,5 +111,22 @@ public class MultiLayerPerceptron {
     public void setnOut(int nOut) { this.nOut = nOut; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public Precision getPrecision() { return precision; }
+    public Updater getUpdater() { return outputLayer.getUpdater(); }
+    // the rule of the parameter updates of the hidden and the output layer, SGD by default
+    public void setUpdater(Updater updater) {
+        sequential.setUpdater(updater);
+    }
+    public TrainingListener getListener() { return sequential.getListener(); }
+    // reports every minibatch of train to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        sequential.setMetrics(listener == null ? null : new IterationMetrics(MODEL, listener));
+    }
+    public Parallelism getParallelism() { return parallelism; }
+    // opt-in data-parallel training, each minibatch is split across the threads of the given pool
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        sequential.setParallelism(parallelism);
+    }
 
 }
@@ -1,10 +1,22 @@
 package com.isaac.neuralnetworks;
 
+import com.isaac.utils.Blas;
+import com.isaac.utils.FlightEvents;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Tensor;
+
+import java.io.File;
+import java.io.IOException;
+
 @SuppressWarnings("unused")
 public class Perceptron {
+    private static final String MODEL = "Perceptron";
+    private static final String[] LAYERS = {MODEL + "#0"}; // in the metrics of a training step
     private int nIn; // dimensions of input data
     private double[] w; // weight vector of perceptrons
     public double learningRate;
+    private IterationMetrics metrics; // null when no listener is set
 
     public Perceptron(int nIn) {
         this.nIn = nIn;
@@ -12,27 +24,66 @@ public class Perceptron {
     }
 
     public int train(double[] x, int t, double learningRate) {
+        IterationMetrics metrics = this.metrics;
+        long start = 0L;
+        FlightEvents.Step step = FlightEvents.step(); // null unless recorded
+        if (metrics != null) {
+            metrics.begin(IterationMetrics.TRAIN, LAYERS, 1);
+            start = System.nanoTime();
+        }
         int classified = 0;
-        double c = 0;
         // check if the data is classified correctly
-        for (int i = 0; i < nIn; i++) c += w[i] * x[i] * t;
+        double c = Blas.dot(nIn, w, 0, x, 0) * t;
+        if (metrics != null) {
+            metrics.forward(0, start);
+            start = System.nanoTime();
+        }
         // apply steepest descent method if the data is wrongly classified
         if (c > 0) classified = 1;
         else {
-            for (int i = 0; i < nIn; i++) w[i] += learningRate * x[i] * t;
+            Blas.axpy(nIn, learningRate * t, x, 0, w, 0);
+        }
+        if (step != null) step.end(MODEL, FlightEvents.TRAIN, 1, FlightEvents.shape(nIn, 1));
+        if (metrics != null) {
+            // the perceptron criterion max(0, -t w.x), of gradient -t x on a wrongly classified sample
+            metrics.update(0, start, classified == 1 ? 0. : Math.sqrt(Blas.dot(nIn, x, 0, x, 0)));
+            metrics.setLoss(Math.max(0., -c));
+            metrics.end();
         }
         return classified;
     }
 
     public int predict(double[] x) {
-        double preActivation = 0.0;
-        for (int i = 0; i < nIn; i++) preActivation += w[i] * x[i];
+        FlightEvents.Predict predict = FlightEvents.predict();
+        double preActivation = Blas.dot(nIn, w, 0, x, 0);
+        if (predict != null) predict.end(MODEL, 1, FlightEvents.shape(nIn, 1));
         return preActivation > 0 ? 1 : -1;
     }
 
+    // nIn and w as a model file, see ModelWriter
+    public void save(File file) throws IOException {
+        try (ModelWriter out = new ModelWriter(file, MODEL)) {
+            out.writeInt(nIn);
+            out.write(Tensor.wrap(w));
+        }
+    }
+
+    public static Perceptron load(File file) throws IOException {
+        try (ModelReader in = new ModelReader(file, MODEL)) {
+            Perceptron perceptron = new Perceptron(in.readInt());
+            in.read(Tensor.wrap(perceptron.w));
+            return perceptron;
+        }
+    }
+
     /** Getters and Setters */
     public int getnIn() { return nIn; }
     public void setnIn(int nIn) { this.nIn = nIn; }
     public double[] getW() { return w; }
     public void setW(double[] w) { this.w = w; }
+    public TrainingListener getListener() { return metrics == null ? null : metrics.getListener(); }
+    // reports every sample of train to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        metrics = listener == null ? null : new IterationMetrics(MODEL, listener);
+    }
 }
@@ -0,0 +1,319 @@
+package com.isaac.neuralnetworks;
+
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
+import com.isaac.layers.DenseLayer;
+import com.isaac.layers.Layer;
+import com.isaac.layers.LogisticLayer;
+import com.isaac.utils.BitMatrix;
+import com.isaac.utils.FlightEvents;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+
+import java.util.Arrays;
+
+/**
+ * A stack of layers ending in a softmax output layer, run through execution plans compiled from the architecture.
+ * The training plan of a minibatch size gives every layer a buffer for its outputs, which the backward pass reads, and
+ * a view of the outputs below it as its input, or a buffer converting them when the two layers compute in different
+ * precisions. The deltas live in two ping-pong buffers per precision: a layer reads the delta of its outputs from one
+ * and writes the delta of its inputs into the other, which is the delta of the outputs of the layer below. The
+ * inference plan streams the rows through two ping-pong buffers per precision in blocks, so predicting a whole test
+ * set keeps only two blocks of activations. Both plans are compiled on first use and reused by every later call; the
+ * inference plan is compiled once per calling thread, so a trained model can be scored from several threads at once,
+ * as long as it is not trained at the same time.
+ * With a {@link TrainingListener} set, every training step is timed layer by layer and reported with its loss. The
+ * steps, the passes of every layer and the predictions are flight recorder events as well, see {@link FlightEvents}.
+ */
+@SuppressWarnings("unused")
+public class Sequential {
+    private static final int BLOCK = 256; // rows of an inference block
+
+    private final Layer[] layers;
+    private final LogisticLayer outputLayer;
+    private final int nLayers;
+    private final int[] sizes; // values of a sample at the input of every layer, sizes[nLayers] at the output
+    private Parallelism parallelism; // null for single threaded execution
+    private final String[] names; // of the layers in the metrics of a training step and in the flight recorder events
+    private final String[] shapes; // of a sample through every layer, in the flight recorder events
+    private final String shape; // of a sample through the network
+    private String name; // of the network in the flight recorder events
+    private IterationMetrics metrics; // null when no listener is set
+    // training plan of the minibatch size planned, 0 before the first step
+    private int planned;
+    private Tensor[] inputs; // X of every layer but the first, a view of the outputs below or a conversion buffer
+    private Tensor input; // the network input converted to the precision of the first layer, if it differs
+    private Tensor[] outputs; // Y of every hidden layer
+    private Tensor[] deltas; // dY of every layer
+    private Tensor[] inputDeltas; // dX of every layer but the first, the same tensor as the dY below unless converted
+    private BitMatrix[] masks; // [minibatchSize, nOut] dropout masks of the hidden dense layers
+    // inference plan of the calling thread, the input and output block buffers of every layer, of BLOCK rows
+    private final ThreadLocal<Tensor[][]> inference = ThreadLocal.withInitial(this::compileInference);
+
+    // the layers from the input to the output layer, the size at the output of each must be the one at the input of
+    // the next
+    public Sequential(Layer... layers) {
+        if (layers.length == 0 || !(layers[layers.length - 1] instanceof LogisticLayer))
+            throw new IllegalArgumentException("Given layers un-supported, the last one must be a LogisticLayer");
+        this.layers = layers.clone();
+        this.outputLayer = (LogisticLayer) layers[layers.length - 1];
+        this.nLayers = layers.length;
+        this.sizes = new int[nLayers + 1];
+        for (int l = 0; l < nLayers; l++) {
+            sizes[l] = product(layers[l].getInputShape());
+            if (l > 0 && sizes[l] != product(layers[l - 1].getOutputShape()))
+                throw new IllegalArgumentException("Given layer " + l + " un-supported, its input "
+                        + Arrays.toString(layers[l].getInputShape()) + " does not fit the output "
+                        + Arrays.toString(layers[l - 1].getOutputShape()) + " below it");
+        }
+        sizes[nLayers] = product(outputLayer.getOutputShape());
+        this.names = new String[nLayers];
+        this.shapes = new String[nLayers];
+        for (int l = 0; l < nLayers; l++) {
+            names[l] = IterationMetrics.name(layers[l], l);
+            shapes[l] = FlightEvents.shape(layers[l].getInputShape(), layers[l].getOutputShape());
+        }
+        this.shape = FlightEvents.shape(layers[0].getInputShape(), outputLayer.getOutputShape());
+        this.name = getClass().getSimpleName();
+    }
+
+    public void train(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        train(X, T, minibatchSize, learningRate, 0.);
+    }
+
+    // X: [minibatchSize, input shape], T: [minibatchSize, nOut]. With pDropout > 0 the units of the hidden dense
+    // layers are dropped with that probability; dropout is inverted, so prediction uses the trained weights as they are
+    public void train(Tensor X, Tensor T, int minibatchSize, double learningRate, double pDropout) {
+        compile(minibatchSize);
+        // the timings are only taken for a listener, a step without one reads the clock nowhere
+        IterationMetrics metrics = this.metrics;
+        if (metrics != null) metrics.begin(IterationMetrics.TRAIN, names, minibatchSize);
+        long start = 0L;
+        // the events are null unless a flight recording has them enabled
+        FlightEvents.Step step = FlightEvents.step();
+        FlightEvents.Pass pass;
+        // forward hidden layers, the outputs of each layer stay in the plan until the backward pass
+        Tensor X_ = input != null ? input.copyFrom(X) : X;
+        for (int l = 0; l < nLayers - 1; l++) {
+            if (metrics != null) start = System.nanoTime();
+            pass = FlightEvents.pass();
+            if (l > 0) X_ = inputOf(l);
+            if (pDropout > 0. && layers[l] instanceof DenseLayer)
+                ((DenseLayer) layers[l]).forward(X_, outputs[l], pDropout, masks[l]);
+            else layers[l].forward(X_, outputs[l], minibatchSize);
+            if (pass != null) pass.end(names[l], FlightEvents.FORWARD, minibatchSize, shapes[l]);
+            if (metrics != null) metrics.forward(l, start);
+        }
+        // forward & backward output layer, the softmax and the cross-entropy delta are fused
+        Tensor X0 = input != null ? input : X;
+        if (metrics != null) start = metrics.beginBackward(outputLayer.getUpdateStates());
+        pass = FlightEvents.pass();
+        outputLayer.train(nLayers == 1 ? X0 : inputOf(nLayers - 1), T, deltas[nLayers - 1],
+                nLayers == 1 ? null : inputDeltas[nLayers - 1], minibatchSize, learningRate);
+        if (pass != null) pass.end(names[nLayers - 1], FlightEvents.BACKWARD, minibatchSize, shapes[nLayers - 1]);
+        if (metrics != null) {
+            metrics.backward(nLayers - 1, start);
+            // before the layer below overwrites the delta with its own
+            metrics.setLoss(loss(deltas[nLayers - 1], T, minibatchSize));
+        }
+        // backward hidden layers, every layer hands the delta of its inputs down to the one below
+        for (int l = nLayers - 2; l >= 0; l--) {
+            if (metrics != null) start = metrics.beginBackward(layers[l].getUpdateStates());
+            pass = FlightEvents.pass();
+            if (deltas[l] != inputDeltas[l + 1]) deltas[l].copyFrom(inputDeltas[l + 1]);
+            Tensor X__ = l == 0 ? X0 : inputs[l];
+            Tensor dX_ = l == 0 ? null : inputDeltas[l];
+            if (pDropout > 0. && layers[l] instanceof DenseLayer)
+                ((DenseLayer) layers[l]).backward(X__, outputs[l], deltas[l], dX_, minibatchSize, learningRate,
+                        pDropout, masks[l]);
+            else layers[l].backward(X__, outputs[l], deltas[l], dX_, minibatchSize, learningRate);
+            if (pass != null) pass.end(names[l], FlightEvents.BACKWARD, minibatchSize, shapes[l]);
+            if (metrics != null) metrics.backward(l, start);
+        }
+        if (step != null) step.end(name, FlightEvents.TRAIN, minibatchSize, shape);
+        if (metrics != null) metrics.end();
+    }
+
+    // mean cross-entropy of the minibatch, read from the delta Y - T the output layer leaves in dY
+    private double loss(Tensor dY, Tensor T, int minibatchSize) {
+        int n = minibatchSize * sizes[nLayers];
+        double sum = 0.;
+        for (int i = 0; i < n; i++) {
+            double t = T.get(i);
+            if (t > 0.) sum -= t * Math.log(Math.max(dY.get(i) + t, Double.MIN_NORMAL));
+        }
+        return sum / minibatchSize;
+    }
+
+    // the input of layer l > 0 of a training step, converting the outputs below it if needed
+    private Tensor inputOf(int l) {
+        if (inputs[l] != outputs[l - 1]) inputs[l].copyFrom(outputs[l - 1]);
+        return inputs[l];
+    }
+
+    // the buffers and views of a training step with the given minibatch size, kept until the size changes
+    private void compile(int minibatchSize) {
+        if (planned == minibatchSize) return;
+        int width = 0;
+        for (int size : sizes) width = Math.max(width, size);
+        double[][] pingPong = new double[2][];
+        float[][] pingPongf = new float[2][];
+        inputs = new Tensor[nLayers];
+        outputs = new Tensor[nLayers];
+        deltas = new Tensor[nLayers];
+        inputDeltas = new Tensor[nLayers];
+        masks = new BitMatrix[nLayers];
+        Precision first = layers[0].getPrecision();
+        input = first.isFloat() ? new Tensor(first, batch(minibatchSize, layers[0].getInputShape())) : null;
+        for (int l = 0; l < nLayers; l++) {
+            Layer layer = layers[l];
+            Precision precision = layer.getPrecision();
+            int[] in_ = batch(minibatchSize, layer.getInputShape());
+            int[] out_ = batch(minibatchSize, layer.getOutputShape());
+            if (l < nLayers - 1) outputs[l] = new Tensor(precision, out_);
+            if (l > 0) inputs[l] = sameStorage(l - 1, l) ? outputs[l - 1] : new Tensor(precision, in_);
+            // dX of layer l in slot (l + 1) % 2, where layer l - 1 finds its dY unless it is converted
+            if (l > 0) inputDeltas[l] = slot(pingPong, pingPongf, (l + 1) % 2, precision, minibatchSize * width, in_);
+            if (l < nLayers - 1 && layer instanceof DenseLayer)
+                masks[l] = new BitMatrix(minibatchSize, sizes[l + 1]);
+        }
+        // dY of layer l in slot l % 2
+        for (int l = nLayers - 1; l >= 0; l--) {
+            int[] out_ = batch(minibatchSize, layers[l].getOutputShape());
+            deltas[l] = l < nLayers - 1 && sameStorage(l, l + 1) ? inputDeltas[l + 1]
+                    : slot(pingPong, pingPongf, l % 2, layers[l].getPrecision(), minibatchSize * width, out_);
+        }
+        planned = minibatchSize;
+    }
+
+    // X: a sample [input shape] or a batch [N, input shape], the class probabilities [nOut] or [N, nOut] in double.
+    // Safe to call from several threads at once, each streams its rows through a plan of its own
+    public Tensor output(Tensor X) {
+        FlightEvents.Predict predict = FlightEvents.predict();
+        int rows = X.length() / sizes[0];
+        Tensor Y = rows == 1 && X.rank() == layers[0].getInputShape().length ? new Tensor(sizes[nLayers])
+                : new Tensor(rows, sizes[nLayers]);
+        Tensor[][] plan = inference.get();
+        Tensor[] blockInputs = plan[0], blockOutputs = plan[1];
+        Tensor X_ = X.reshape(rows, sizes[0]), Y_ = Y.reshape(rows, sizes[nLayers]);
+        for (int from = 0; from < rows; from += BLOCK) {
+            int to = Math.min(rows, from + BLOCK);
+            Tensor Z = X_.slice(from, to);
+            for (int l = 0; l < nLayers; l++) {
+                // the outputs below are read in place, or converted into the input slot of this layer
+                if (l == 0 ? Z.isFloat() != layers[0].getPrecision().isFloat() : blockInputs[l] != blockOutputs[l - 1])
+                    Z = block(blockInputs[l], to - from).copyFrom(Z);
+                FlightEvents.Pass pass = FlightEvents.pass();
+                Z = layers[l].output(Z, block(blockOutputs[l], to - from));
+                if (pass != null) pass.end(names[l], FlightEvents.FORWARD, to - from, shapes[l]);
+            }
+            Y_.slice(from, to).copyFrom(Z);
+        }
+        if (predict != null) predict.end(name, rows, shape);
+        return Y;
+    }
+
+    // X: a sample or a batch, the index of the most probable class of every row
+    public int[] classify(Tensor X) {
+        Tensor Y = output(X);
+        int nOut = sizes[nLayers];
+        int[] labels = new int[Y.length() / nOut];
+        double[] y = Y.data();
+        for (int n = 0; n < labels.length; n++) {
+            int at = 0;
+            for (int j = 1; j < nOut; j++) if (y[n * nOut + at] < y[n * nOut + j]) at = j;
+            labels[n] = at;
+        }
+        return labels;
+    }
+
+    // x: a single sample, 1 for the most probable classes, 0 for the others
+    public Integer[] predict(Tensor x) {
+        Tensor y = output(x);
+        int nOut = sizes[nLayers];
+        double max = y.get(0);
+        for (int j = 1; j < nOut; j++) max = Math.max(max, y.get(j));
+        Integer[] t = new Integer[nOut];
+        for (int j = 0; j < nOut; j++) t[j] = y.get(j) == max ? 1 : 0;
+        return t;
+    }
+
+    // layer l reads a block from slot (l + 1) % 2 and writes it into slot l % 2 of its precision; its input slot holds
+    // the outputs below when the precisions agree, or is where they are converted
+    private Tensor[][] compileInference() {
+        int width = 0;
+        for (int size : sizes) width = Math.max(width, size);
+        double[][] pingPong = new double[2][];
+        float[][] pingPongf = new float[2][];
+        Tensor[] blockInputs = new Tensor[nLayers];
+        Tensor[] blockOutputs = new Tensor[nLayers];
+        for (int l = 0; l < nLayers; l++) {
+            Precision precision = layers[l].getPrecision();
+            blockOutputs[l] = slot(pingPong, pingPongf, l % 2, precision, BLOCK * width,
+                    batch(BLOCK, layers[l].getOutputShape()));
+            blockInputs[l] = l > 0 && sameStorage(l - 1, l) ? blockOutputs[l - 1] : slot(pingPong, pingPongf,
+                    (l + 1) % 2, precision, BLOCK * width, batch(BLOCK, layers[l].getInputShape()));
+        }
+        return new Tensor[][]{blockInputs, blockOutputs};
+    }
+
+    // the first rows of a block buffer, a full block is the buffer itself
+    private static Tensor block(Tensor buffer, int rows) {
+        return rows == buffer.size(0) ? buffer : buffer.slice(0, rows);
+    }
+
+    // whether layers k and l keep their tensors in the same precision, so one reads the other in place
+    private boolean sameStorage(int k, int l) {
+        return layers[k].getPrecision().isFloat() == layers[l].getPrecision().isFloat();
+    }
+
+    // a view of the given shape at the start of the ping-pong slot of the given precision, allocated on first use
+    private static Tensor slot(double[][] pingPong, float[][] pingPongf, int slot, Precision precision, int length,
+                               int[] shape) {
+        if (precision.isFloat()) {
+            if (pingPongf[slot] == null) pingPongf[slot] = new float[length];
+            return new Tensor(pingPongf[slot], 0, shape);
+        }
+        if (pingPong[slot] == null) pingPong[slot] = new double[length];
+        return new Tensor(pingPong[slot], 0, shape);
+    }
+
+    private static int[] batch(int rows, int[] shape) {
+        int[] shape_ = new int[shape.length + 1];
+        shape_[0] = rows;
+        System.arraycopy(shape, 0, shape_, 1, shape.length);
+        return shape_;
+    }
+
+    private static int product(int[] shape) {
+        int n = 1;
+        for (int d : shape) n *= d;
+        return n;
+    }
+
+    /** Getters and Setters */
+    public Layer[] getLayers() { return layers.clone(); }
+    public LogisticLayer getOutputLayer() { return outputLayer; }
+    public int getnIn() { return sizes[0]; }
+    public int getnOut() { return sizes[nLayers]; }
+    public Updater getUpdater() { return outputLayer.getUpdater(); }
+    // the rule of the parameter updates of every layer, SGD by default
+    public void setUpdater(Updater updater) {
+        for (Layer layer : layers) layer.setUpdater(updater);
+    }
+    public TrainingListener getListener() { return metrics == null ? null : metrics.getListener(); }
+    // reports every training step to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        this.metrics = listener == null ? null : new IterationMetrics(name, listener);
+    }
+    // the metrics of a network, shared with its pre-training
+    void setMetrics(IterationMetrics metrics) { this.metrics = metrics; }
+    // the network in the flight recorder events, the class of the plan by default
+    void setName(String name) { this.name = name; }
+    public Parallelism getParallelism() { return parallelism; }
+    // opt-in data-parallel execution, each minibatch or block is split across the threads of the given pool
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        for (Layer layer : layers) layer.setParallelism(parallelism);
+    }
+}
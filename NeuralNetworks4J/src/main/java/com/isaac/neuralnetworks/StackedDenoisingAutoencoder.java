@@ -1,16 +1,28 @@
 package com.isaac.neuralnetworks;
 
 import com.isaac.initialization.Activation;
+import com.isaac.initialization.Precision;
+import com.isaac.initialization.Updater;
 import com.isaac.layers.DenoisingAutoencoder;
 import com.isaac.layers.DenseLayer;
+import com.isaac.layers.Layer;
 import com.isaac.layers.LogisticLayer;
+import com.isaac.utils.FlightEvents;
+import com.isaac.utils.LayerCache;
+import com.isaac.utils.ModelReader;
+import com.isaac.utils.ModelWriter;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+import com.isaac.utils.Workspace;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 @SuppressWarnings({"unused", "Duplicates"})
 public class StackedDenoisingAutoencoder {
+    private static final String MODEL = "StackedDenoisingAutoencoder";
     private int nIn;
     private int[] hiddenLayerSizes;
     private int nOut;
@@ -19,13 +31,25 @@ public class StackedDenoisingAutoencoder {
     private DenseLayer[] denseLayers;
     private LogisticLayer outputLayer;
     private Random rng;
+    private Parallelism parallelism; // null for single threaded training
+    private Precision precision;
+    private Workspace workspace; // outputs of a layer during pretraining, reused by every minibatch
+    private Sequential sequential; // the execution plans of the hidden layers and the output layer
+    private IterationMetrics metrics; // null when no listener is set
+    private long cacheMemory = 256L << 20; // bytes of layer inputs held on the heap during pretraining, more are spilled
 
     public StackedDenoisingAutoencoder (int nIn, int[] hiddenLayerSizes, int nOut, Random rng) {
+        this(nIn, hiddenLayerSizes, nOut, rng, Precision.DOUBLE);
+    }
+
+    // the precision applies to finetuning and prediction, pre-training works on the double weights it shares
+    public StackedDenoisingAutoencoder (int nIn, int[] hiddenLayerSizes, int nOut, Random rng, Precision precision) {
         this.nIn = nIn;
         this.nOut = nOut;
         this.hiddenLayerSizes = hiddenLayerSizes;
         this.nLayers = hiddenLayerSizes.length;
         this.rng = rng == null ? new Random(1234) : rng;
+        this.precision = precision == null ? Precision.DOUBLE : precision;
         this.daLayers = new DenoisingAutoencoder[this.nLayers];
         this.denseLayers = new DenseLayer[this.nLayers];
         // construct multi-layer
@@ -34,78 +58,132 @@ public class StackedDenoisingAutoencoder {
             if (i == 0) nIn_ = nIn;
             else nIn_ = hiddenLayerSizes[i-1];
             // construct hidden layers with sigmoid function, weight matrices will be shared with RBM layers
-            denseLayers[i] = new DenseLayer(nIn_, hiddenLayerSizes[i], null, null, rng, Activation.Sigmoid);
+            denseLayers[i] = new DenseLayer(nIn_, hiddenLayerSizes[i], null, null, rng, Activation.Sigmoid,
+                    this.precision);
             // construct DA layers
             daLayers[i] = new DenoisingAutoencoder(nIn_, hiddenLayerSizes[i], denseLayers[i].getW(), denseLayers[i].getB(),
                     null, rng, Activation.Sigmoid);
         }
-        outputLayer = new LogisticLayer(hiddenLayerSizes[nLayers - 1], nOut);
+        outputLayer = new LogisticLayer(hiddenLayerSizes[nLayers - 1], nOut, this.precision);
+        workspace = new Workspace(nLayers);
+        Layer[] layers = Arrays.copyOf(denseLayers, nLayers + 1, Layer[].class);
+        layers[nLayers] = outputLayer;
+        sequential = new Sequential(layers);
+        sequential.setName(MODEL);
     }
 
-    public void pretrain(double[][][] X, int minibatchSize, int minibatch_N, int epochs, double learningRate,
+    // X: [minibatch_N, minibatchSize, nIn]
+    public void pretrain(Tensor X, int minibatchSize, int minibatch_N, int epochs, double learningRate,
                          double corruptionLevel) {
-        for (int layer = 0; layer < nLayers; layer++) {
-            for (int epoch = 0; epoch < epochs; epoch++) {
-                for (int batch = 0; batch < minibatch_N; batch++) {
-                    double[][] X_ = new double[minibatchSize][nIn];
-                    double[][] prevLayerX_;
-                    // Set input data for current layer
-                    if (layer == 0) X_ = X[batch];
-                    else {
-                        prevLayerX_ = X_;
-                        X_ = new double[minibatchSize][hiddenLayerSizes[layer-1]];
-                        for (int i = 0; i < minibatchSize; i++) {
-                            X_[i] = denseLayers[layer-1].output(prevLayerX_[i]);
+        // the layers below the one being trained are frozen, so the input of every layer is computed once from the
+        // cached input of the layer below and read back in every epoch
+        LayerCache cache = null; // inputs of the current layer, the first one reads X
+        IterationMetrics metrics = this.metrics;
+        try {
+            for (int layer = 0; layer < nLayers; layer++) {
+                String[] names = {IterationMetrics.name(daLayers[layer], layer)};
+                String shape = FlightEvents.shape(daLayers[layer].getInputShape(),
+                        daLayers[layer].getOutputShape());
+                for (int epoch = 0; epoch < epochs; epoch++) {
+                    for (int batch = 0; batch < minibatch_N; batch++) {
+                        long start = 0L;
+                        FlightEvents.Step step = FlightEvents.step();
+                        if (metrics != null) {
+                            metrics.begin(IterationMetrics.PRETRAIN, names, minibatchSize);
+                            start = System.nanoTime();
+                        }
+                        Tensor X_ = layer == 0 ? X.slice(batch) : cache.get(batch);
+                        if (metrics != null) {
+                            metrics.forward(0, start);
+                            start = metrics.beginBackward(daLayers[layer].getUpdateStates());
+                        }
+                        FlightEvents.Pass pass = FlightEvents.pass();
+                        daLayers[layer].train(X_, minibatchSize, learningRate, corruptionLevel);
+                        if (pass != null) pass.end(names[0], FlightEvents.BACKWARD, minibatchSize, shape);
+                        if (step != null) step.end(MODEL, FlightEvents.PRETRAIN, minibatchSize, shape);
+                        if (metrics != null) {
+                            metrics.backward(0, start);
+                            metrics.end();
                         }
                     }
-                    daLayers[layer].train(X_, minibatchSize, learningRate, corruptionLevel);
                 }
+                denseLayers[layer].refreshWeights(); // the DA trained the shared double weights
+                if (layer == nLayers - 1) break;
+                LayerCache next = new LayerCache(minibatch_N, minibatchSize, hiddenLayerSizes[layer], cacheMemory);
+                for (int batch = 0; batch < minibatch_N; batch++) {
+                    Tensor X_ = layer == 0 ? X.slice(batch) : cache.get(batch);
+                    next.put(batch, denseLayers[layer].output(X_, workspace.get(layer, minibatchSize,
+                            hiddenLayerSizes[layer])));
+                }
+                if (cache != null) cache.close();
+                cache = next;
             }
+        } finally {
+            if (cache != null) cache.close();
         }
     }
 
-    public void finetune(double[][] X, int[][] T, int minibatchSize, double learningRate) {
-        List<double[][]> layerInputs = new ArrayList<>(nLayers + 1);
-        layerInputs.add(X);
-        double[][] Z = new double[0][0];
-        double[][] dY;
-        // forward hidden layers
-        for (int layer = 0; layer < nLayers; layer++) {
-            double[] x_;  // layer input
-            double[][] Z_ = new double[minibatchSize][hiddenLayerSizes[layer]];
-            for (int n = 0; n < minibatchSize; n++) {
-                if (layer == 0) { x_ = X[n]; }
-                else { x_ = Z[n]; }
-                Z_[n] = denseLayers[layer].forward(x_);
-            }
-            Z = Z_;
-            layerInputs.add(Z.clone());
-        }
-        // forward & backward output layer
-        dY = outputLayer.train(Z, T, minibatchSize, learningRate);
-        // backward hidden layers
-        double[][] Wprev;
-        double[][] dZ = new double[0][0];
-        for (int layer = nLayers - 1; layer >= 0; layer--) {
-            if (layer == nLayers - 1) { Wprev = outputLayer.getW(); }
-            else {
-                Wprev = denseLayers[layer+1].getW();
-                dY = dZ.clone();
+    public void finetune(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        sequential.train(X, T, minibatchSize, learningRate);
+    }
+
+    public Integer[] predict(Tensor x) {
+        return sequential.predict(x);
+    }
+
+    // X: [N, nIn], the index of the most probable class of every row
+    public int[] predictClasses(Tensor X) {
+        return sequential.classify(X);
+    }
+
+    // X: [N, nIn], the class probabilities [N, nOut] of every row
+    public Tensor predictProbabilities(Tensor X) {
+        return sequential.output(X);
+    }
+
+    // the architecture, the weights and hidden biases shared by every hidden layer and its DA, the visible biases of the
+    // DAs and the output layer as a model file, see ModelWriter
+    public void save(File file) throws IOException {
+        try (ModelWriter out = new ModelWriter(file, MODEL)) {
+            out.writeInt(nIn);
+            out.writeInts(hiddenLayerSizes);
+            out.writeInt(nOut);
+            out.writeString(precision.name());
+            for (int layer = 0; layer < nLayers; layer++) {
+                denseLayers[layer].write(out);
+                out.write(daLayers[layer].getVbias());
             }
-            dZ = denseLayers[layer].backward(layerInputs.get(layer), layerInputs.get(layer+1), dY, Wprev, minibatchSize,
-                    learningRate);
+            outputLayer.write(out);
         }
     }
 
-    public Integer[] predict(double[] x) {
-        double[] z = new double[0];
-        for (int layer = 0; layer < nLayers; layer++) {
-            double[] x_;
-            if (layer == 0) { x_ = x; }
-            else { x_ = z.clone(); }
-            z = denseLayers[layer].forward(x_);
+    // a network written by save, ready to predict, to finetune or to resume pre-training
+    public static StackedDenoisingAutoencoder load(File file) throws IOException {
+        return load(file, false);
+    }
+
+    // a network written by save whose weights are read-only views of the mapped file, shared through the page cache
+    // by every process mapping it: it predicts as the loaded one, and training it throws a ReadOnlyBufferException
+    public static StackedDenoisingAutoencoder map(File file) throws IOException {
+        return load(file, true);
+    }
+
+    private static StackedDenoisingAutoencoder load(File file, boolean mapped) throws IOException {
+        try (ModelReader in = new ModelReader(file, MODEL, mapped)) {
+            int nIn = in.readInt();
+            int[] hiddenLayerSizes = in.readInts();
+            int nOut = in.readInt();
+            Precision precision = Precision.valueOf(in.readString());
+            StackedDenoisingAutoencoder network = new StackedDenoisingAutoencoder(nIn, hiddenLayerSizes, nOut, null,
+                    precision);
+            for (int layer = 0; layer < network.nLayers; layer++) {
+                network.denseLayers[layer].read(in);
+                if (mapped) network.daLayers[layer].setW(network.denseLayers[layer].getW()); // shares the view
+                in.read(network.daLayers[layer].getVbias());
+            }
+            network.outputLayer.read(in);
+            return network;
         }
-        return outputLayer.predict(z);
     }
 
     /** Getters and Setters */
@@ -119,4 +197,27 @@ public class StackedDenoisingAutoencoder {
     public void setnLayers(int nLayers) { this.nLayers = nLayers; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public Precision getPrecision() { return precision; }
+    public Updater getUpdater() { return outputLayer.getUpdater(); }
+    // the rule of the parameter updates of every layer, in pre-training and finetuning alike, SGD by default
+    public void setUpdater(Updater updater) {
+        sequential.setUpdater(updater);
+        for (DenoisingAutoencoder layer : daLayers) layer.setUpdater(updater);
+    }
+    public long getCacheMemory() { return cacheMemory; }
+    // with 0 every cached layer output is streamed from a mapped file
+    public void setCacheMemory(long cacheMemory) { this.cacheMemory = cacheMemory; }
+    public TrainingListener getListener() { return metrics == null ? null : metrics.getListener(); }
+    // reports every minibatch of pretrain and finetune to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        metrics = listener == null ? null : new IterationMetrics(MODEL, listener);
+        sequential.setMetrics(metrics);
+    }
+    public Parallelism getParallelism() { return parallelism; }
+    // opt-in data-parallel training, each minibatch is split across the threads of the given pool
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        sequential.setParallelism(parallelism);
+        for (DenoisingAutoencoder layer : daLayers) layer.setParallelism(parallelism);
+    }
 }
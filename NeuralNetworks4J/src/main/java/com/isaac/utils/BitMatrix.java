@@ -0,0 +1,109 @@
+package com.isaac.utils;
+
+import java.util.Arrays;
+
+/**
+ * Binary units packed 64 per long, one row per sample with every row starting on a word boundary so that rows can be
+ * written by different threads. A [rows, cols] matrix of 0/1 states takes cols / 8 bytes per row instead of 8 cols,
+ * and a product with a weight matrix only has to visit the columns of the set bits, see {@link #indices}.
+ */
+@SuppressWarnings("unused")
+public final class BitMatrix {
+    private final int rows;
+    private final int cols;
+    private final int words; // longs per row
+    private final long[] bits;
+
+    public BitMatrix(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.words = (cols + 63) >>> 6;
+        this.bits = new long[rows * words];
+    }
+
+    // non-zero values of a [rows, cols] tensor, or of a single sample [cols], as set bits
+    public static BitMatrix pack(Tensor X) {
+        int cols = X.size(X.rank() - 1);
+        BitMatrix B = new BitMatrix(X.length() / cols, cols);
+        return B.pack(X.data(), X.offset());
+    }
+
+    // overwrites every row from the dense [rows, cols] values x, non-zero values are set
+    public BitMatrix pack(double[] x, int xOff) {
+        for (int r = 0; r < rows; r++) {
+            int w = r * words, row = xOff + r * cols;
+            for (int c0 = 0; c0 < cols; c0 += 64) {
+                long word = 0L;
+                int n = Math.min(64, cols - c0);
+                for (int c = 0; c < n; c++) if (x[row + c0 + c] != 0.) word |= 1L << c;
+                bits[w++] = word;
+            }
+        }
+        return this;
+    }
+
+    // row r as dense 0/1 values into x[xOff, xOff + cols)
+    public void unpack(int r, double[] x, int xOff) {
+        Arrays.fill(x, xOff, xOff + cols, 0.);
+        int w = r * words;
+        for (int k = 0; k < words; k++) {
+            long word = bits[w + k];
+            while (word != 0L) {
+                x[xOff + (k << 6) + Long.numberOfTrailingZeros(word)] = 1.;
+                word &= word - 1;
+            }
+        }
+    }
+
+    public Tensor toTensor() {
+        Tensor X = new Tensor(rows, cols);
+        for (int r = 0; r < rows; r++) unpack(r, X.data(), r * cols);
+        return X;
+    }
+
+    // the set columns of row r in ascending order into idx, returns how many there are
+    public int indices(int r, int[] idx) {
+        int n = 0, w = r * words;
+        for (int k = 0; k < words; k++) {
+            long word = bits[w + k];
+            while (word != 0L) {
+                idx[n++] = (k << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return n;
+    }
+
+    // number of set bits of row r
+    public int count(int r) {
+        int n = 0;
+        for (int k = r * words, end = k + words; k < end; k++) n += Long.bitCount(bits[k]);
+        return n;
+    }
+
+    // a[aOff + c] += alpha for every set column c of row r
+    public void axpy(int r, double alpha, double[] a, int aOff) {
+        int w = r * words;
+        for (int k = 0; k < words; k++) {
+            long word = bits[w + k];
+            while (word != 0L) {
+                a[aOff + (k << 6) + Long.numberOfTrailingZeros(word)] += alpha;
+                word &= word - 1;
+            }
+        }
+    }
+
+    public boolean get(int r, int c) { return (bits[r * words + (c >>> 6)] & 1L << c) != 0L; }
+
+    public void set(int r, int c, boolean value) {
+        if (value) bits[r * words + (c >>> 6)] |= 1L << c;
+        else bits[r * words + (c >>> 6)] &= ~(1L << c);
+    }
+
+    /** Getters */
+    public int rows() { return rows; }
+    public int cols() { return cols; }
+    public int words() { return words; }
+    // the packed rows, row r starts at word r * words()
+    public long[] bits() { return bits; }
+}
@@ -0,0 +1,110 @@
+package com.isaac.utils;
+
+/**
+ * Level-1 kernels over flat arrays: dot, axpy and sum. On JDK 17 and later, run with --add-modules
+ * jdk.incubator.vector, dot, axpy and sum of double arrays go through {@code VectorBlas}, which runs them on SIMD
+ * lanes of the Vector API; it is compiled separately for Java 17 by the vector profile of the build and loaded by
+ * reflection, so the library still runs on Java 8. Everywhere else, and below VECTOR_MIN elements, the scalar loops
+ * here run: their reductions keep four independent partial sums, which breaks the loop-carried dependency of a single
+ * accumulator so that four additions are in flight at once, and the element-wise axpy is unrolled the same way.
+ */
+@SuppressWarnings("unused")
+public final class Blas {
+    private static final int VECTOR_MIN = 16; // shorter runs do not fill the lanes enough to pay for the setup
+    private static final Kernels VECTOR = vector(); // null where the Vector API is not available
+
+    private Blas() {}
+
+    // the kernels VectorBlas implements on SIMD lanes
+    interface Kernels {
+        double dot(int n, double[] x, int xOff, double[] y, int yOff);
+        void axpy(int n, double a, double[] x, int xOff, double[] y, int yOff);
+        double sum(int n, double[] x, int xOff);
+    }
+
+    private static Kernels vector() {
+        try {
+            return (Kernels) Class.forName("com.isaac.utils.VectorBlas").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return null; // not built, a runtime before JDK 17, or the incubator module not added
+        }
+    }
+
+    // whether dot, axpy and sum of double arrays run on the Vector API
+    public static boolean isVectorized() { return VECTOR != null; }
+
+    // x[xOff, xOff + n) . y[yOff, yOff + n)
+    public static double dot(int n, double[] x, int xOff, double[] y, int yOff) {
+        if (VECTOR != null && n >= VECTOR_MIN) return VECTOR.dot(n, x, xOff, y, yOff);
+        double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += x[xOff + i] * y[yOff + i];
+            s1 += x[xOff + i + 1] * y[yOff + i + 1];
+            s2 += x[xOff + i + 2] * y[yOff + i + 2];
+            s3 += x[xOff + i + 3] * y[yOff + i + 3];
+        }
+        for (; i < n; i++) s0 += x[xOff + i] * y[yOff + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // y += a * x
+    public static void axpy(int n, double a, double[] x, int xOff, double[] y, int yOff) {
+        if (a == 0.) return;
+        if (VECTOR != null && n >= VECTOR_MIN) {
+            VECTOR.axpy(n, a, x, xOff, y, yOff);
+            return;
+        }
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            y[yOff + i] += a * x[xOff + i];
+            y[yOff + i + 1] += a * x[xOff + i + 1];
+            y[yOff + i + 2] += a * x[xOff + i + 2];
+            y[yOff + i + 3] += a * x[xOff + i + 3];
+        }
+        for (; i < n; i++) y[yOff + i] += a * x[xOff + i];
+    }
+
+    // y += a * x for float x, also rounding the result into the float copy yf of y, e.g. a double precision parameter
+    // updated with a single precision gradient and its float copy kept in step
+    public static void axpy(int n, double a, float[] x, int xOff, double[] y, int yOff, float[] yf, int yfOff) {
+        for (int i = 0; i < n; i++) {
+            y[yOff + i] += a * x[xOff + i];
+            yf[yfOff + i] = (float) y[yOff + i];
+        }
+    }
+
+    // sum of x[xOff + idx[i]] for i < n, i.e. the dot product of x with the binary vector whose set indices are idx
+    public static double sum(int n, int[] idx, double[] x, int xOff) {
+        double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += x[xOff + idx[i]];
+            s1 += x[xOff + idx[i + 1]];
+            s2 += x[xOff + idx[i + 2]];
+            s3 += x[xOff + idx[i + 3]];
+        }
+        for (; i < n; i++) s0 += x[xOff + idx[i]];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // y[yOff + idx[i]] += a for i < n, i.e. y += a * x for the binary x whose set indices are idx
+    public static void axpy(int n, double a, int[] idx, double[] y, int yOff) {
+        for (int i = 0; i < n; i++) y[yOff + idx[i]] += a;
+    }
+
+    // sum of x[xOff, xOff + n)
+    public static double sum(int n, double[] x, int xOff) {
+        if (VECTOR != null && n >= VECTOR_MIN) return VECTOR.sum(n, x, xOff);
+        double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += x[xOff + i];
+            s1 += x[xOff + i + 1];
+            s2 += x[xOff + i + 2];
+            s3 += x[xOff + i + 3];
+        }
+        for (; i < n; i++) s0 += x[xOff + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+}
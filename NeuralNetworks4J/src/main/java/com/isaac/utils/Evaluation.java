@@ -3,8 +3,8 @@ package com.isaac.utils;
 import java.util.Arrays;
 
 public class Evaluation {
-    private Integer[][] logits;
-    private Integer[][] labels;
+    private int[] predicted; // class index of every example
+    private int[] actual;
     private int examples;
     private int patterns;
     private int[][] confusionMatrix;
@@ -13,10 +13,15 @@ public class Evaluation {
     private double[] recall;
 
     public Evaluation(Integer[][] logits, Integer[][] labels) {
-        this.logits = logits;
-        this.labels = labels;
-        this.examples = labels.length;
-        this.patterns = labels[0].length;
+        this(indices(logits), indices(labels), labels[0].length);
+    }
+
+    // class indices as given by the batched predictions of the networks
+    public Evaluation(int[] predicted, int[] actual, int patterns) {
+        this.predicted = predicted;
+        this.actual = actual;
+        this.examples = actual.length;
+        this.patterns = patterns;
         this.confusionMatrix = new int[patterns][patterns];
         this.precision = new double[patterns];
         this.recall = new double[patterns];
@@ -24,11 +29,7 @@ public class Evaluation {
     }
 
     public Evaluation fit() {
-        for (int i = 0; i < examples; i++) {
-            int predicted_ = Arrays.asList(logits[i]).indexOf(1);
-            int actual_ = Arrays.asList(labels[i]).indexOf(1);
-            confusionMatrix[actual_][predicted_] += 1;
-        }
+        for (int i = 0; i < examples; i++) confusionMatrix[actual[i]][predicted[i]] += 1;
         for (int i = 0; i < patterns; i++) {
             double col_ = 0.;
             double row_ = 0.;
@@ -48,6 +49,13 @@ public class Evaluation {
         return this;
     }
 
+    // position of the first 1 of every one-hot row
+    private static int[] indices(Integer[][] oneHot) {
+        int[] indices = new int[oneHot.length];
+        for (int i = 0; i < oneHot.length; i++) indices[i] = Arrays.asList(oneHot[i]).indexOf(1);
+        return indices;
+    }
+
     public double getAccuracy() { return accuracy; }
     public double[] getPrecision() { return precision; }
     public double[] getRecall() { return  recall; }
@@ -0,0 +1,185 @@
+package com.isaac.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.Arrays;
+
+/**
+ * JDK Flight Recorder events of the hot paths of training and inference: the training steps of the networks, the
+ * forward and backward passes of their layers, the Gibbs sampling of contrastive divergence and the predictions. Every
+ * event is timed and carries the network or layer, the minibatch size and the shape of a sample through it, so a
+ * recording started with e.g. -XX:StartFlightRecording=filename=training.jfr lines the steps up with the GC and
+ * safepoint pauses. A hot path opens an event with the factory of its type, which returns null unless a recording has
+ * the event enabled, so when nothing records the cost is a branch. Runtimes without jdk.jfr, i.e. JDK 8 before update
+ * 262, never load the event classes and never get an event.
+ */
+@SuppressWarnings("unused")
+public final class FlightEvents {
+    public static final String FORWARD = "forward";
+    public static final String BACKWARD = "backward";
+    public static final String TRAIN = "train"; // phases of a training step
+    public static final String PRETRAIN = "pretrain";
+
+    private static final boolean AVAILABLE = available();
+
+    private FlightEvents() {}
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    // the events begin here, null unless recorded
+    public static Step step() { return AVAILABLE ? Step.open() : null; }
+    public static Pass pass() { return AVAILABLE ? Pass.open() : null; }
+    public static Sampling sampling() { return AVAILABLE ? Sampling.open() : null; }
+    public static Predict predict() { return AVAILABLE ? Predict.open() : null; }
+
+    // the shape of a sample through a layer or a network, e.g. [1, 28, 28] -> [20, 12, 12]
+    public static String shape(int[] in, int[] out) { return Arrays.toString(in) + " -> " + Arrays.toString(out); }
+
+    public static String shape(int nIn, int nOut) { return "[" + nIn + "] -> [" + nOut + "]"; }
+
+    @Name("com.isaac.TrainingStep")
+    @Label("Training Step")
+    @Category("Neural Networks")
+    @Description("A minibatch through a network, its parameters updated")
+    @StackTrace(false)
+    public static final class Step extends Event {
+        @Label("Network")
+        String network;
+        @Label("Phase")
+        String phase;
+        @Label("Batch Size")
+        int batchSize;
+        @Label("Shape")
+        String shape;
+
+        private static Step open() {
+            Step event = new Step();
+            if (!event.isEnabled()) return null;
+            event.begin();
+            return event;
+        }
+
+        // ends the step begun by FlightEvents.step and commits it if it passes the threshold
+        public void end(String network, String phase, int batchSize, String shape) {
+            end();
+            if (!shouldCommit()) return;
+            this.network = network;
+            this.phase = phase;
+            this.batchSize = batchSize;
+            this.shape = shape;
+            commit();
+        }
+    }
+
+    @Name("com.isaac.LayerPass")
+    @Label("Layer Pass")
+    @Category("Neural Networks")
+    @Description("A forward or backward pass of a minibatch through a layer, the backward one updating its parameters")
+    @StackTrace(false)
+    public static final class Pass extends Event {
+        @Label("Layer")
+        String layer;
+        @Label("Pass")
+        String pass;
+        @Label("Batch Size")
+        int batchSize;
+        @Label("Shape")
+        String shape;
+
+        private static Pass open() {
+            Pass event = new Pass();
+            if (!event.isEnabled()) return null;
+            event.begin();
+            return event;
+        }
+
+        public void end(String layer, String pass, int batchSize, String shape) {
+            end();
+            if (!shouldCommit()) return;
+            this.layer = layer;
+            this.pass = pass;
+            this.batchSize = batchSize;
+            this.shape = shape;
+            commit();
+        }
+    }
+
+    @Name("com.isaac.GibbsSampling")
+    @Label("Gibbs Sampling")
+    @Category("Neural Networks")
+    @Description("The Gibbs chains of a minibatch in a contrastive divergence step of an RBM")
+    @StackTrace(false)
+    public static final class Sampling extends Event {
+        @Label("Layer")
+        String layer;
+        @Label("Batch Size")
+        int batchSize;
+        @Label("Shape")
+        String shape;
+        @Label("Steps")
+        @Description("k of CD-k")
+        int k;
+        @Label("Persistent")
+        boolean persistent;
+
+        private static Sampling open() {
+            Sampling event = new Sampling();
+            if (!event.isEnabled()) return null;
+            event.begin();
+            return event;
+        }
+
+        public void end(String layer, int batchSize, String shape, int k, boolean persistent) {
+            end();
+            if (!shouldCommit()) return;
+            this.layer = layer;
+            this.batchSize = batchSize;
+            this.shape = shape;
+            this.k = k;
+            this.persistent = persistent;
+            commit();
+        }
+    }
+
+    @Name("com.isaac.Prediction")
+    @Label("Prediction")
+    @Category("Neural Networks")
+    @Description("A sample or a batch through a network for its outputs")
+    @StackTrace(false)
+    public static final class Predict extends Event {
+        @Label("Network")
+        String network;
+        @Label("Batch Size")
+        int batchSize;
+        @Label("Shape")
+        String shape;
+
+        private static Predict open() {
+            Predict event = new Predict();
+            if (!event.isEnabled()) return null;
+            event.begin();
+            return event;
+        }
+
+        public void end(String network, int batchSize, String shape) {
+            end();
+            if (!shouldCommit()) return;
+            this.network = network;
+            this.batchSize = batchSize;
+            this.shape = shape;
+            commit();
+        }
+    }
+}
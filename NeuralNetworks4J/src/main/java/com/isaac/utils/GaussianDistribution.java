@@ -7,6 +7,8 @@ public final class GaussianDistribution {
 	private final double mean;
 	private final double var;
 	private final Random rng;
+	private double spare; // the second value of the last Box-Muller pair
+	private boolean hasSpare;
 
 	public GaussianDistribution(double mean, double var, Random rng) {
 		if (var < 0.0) throw new IllegalArgumentException("Variance must be non-negative value.");
@@ -15,12 +17,19 @@ public final class GaussianDistribution {
 		this.rng = rng == null ? new Random() : rng;
 	}
 
+	// Box-Muller gives two independent normals from two uniforms, the sine one is kept for the next call
 	public double random() {
+		if (hasSpare) {
+			hasSpare = false;
+			return spare * var + mean;
+		}
 		double r = 0.0;
 		while (r == 0.0) r = rng.nextDouble();
 		double c = Math.sqrt(-2.0 * Math.log(r));
-		if (rng.nextDouble() < 0.5) return c * Math.sin(2.0 * Math.PI * rng.nextDouble()) * var + mean;
-		else return c * Math.cos(2.0 * Math.PI * rng.nextDouble()) * var + mean;
+		double theta = 2.0 * Math.PI * rng.nextDouble();
+		spare = c * Math.sin(theta);
+		hasSpare = true;
+		return c * Math.cos(theta) * var + mean;
 	}
 
 }
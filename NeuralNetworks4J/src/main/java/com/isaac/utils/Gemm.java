@@ -0,0 +1,356 @@
+package com.isaac.utils;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Cache-blocked, register-tiled matrix multiply over row-major flat arrays, C = alpha * op(A) * op(B) + beta * C.
+ * op(A) is m x k and op(B) is k x n. Panels of op(A) and op(B) are packed into thread-local buffers so that the
+ * 4 x 4 micro-kernel streams both operands with unit stride whatever the transposition of the inputs. The float
+ * variant moves half the bytes and accumulates the tile either in float or, for accuracy, in double. Mapped operands,
+ * such as the weights of a model mapped by {@link ModelReader}, are packed straight out of their buffers.
+ */
+public final class Gemm {
+    private static final int MR = 4; // rows of the register tile
+    private static final int NR = 4; // columns of the register tile
+    private static final int MC = 128; // rows of op(A) per packed block, sized for L2
+    private static final int KC = 256; // depth per packed block, sized for L1
+    private static final int NC = 2048; // columns of op(B) per packed block, sized for L3
+    private static final long SMALL = 32 * 32 * 32; // below this many multiply-adds packing does not pay off
+
+    private static final ThreadLocal<double[]> packedA = ThreadLocal.withInitial(() -> new double[MC * KC]);
+    private static final ThreadLocal<double[]> packedB = ThreadLocal.withInitial(() -> new double[KC * NC]);
+    private static final ThreadLocal<float[]> packedAf = ThreadLocal.withInitial(() -> new float[MC * KC]);
+    private static final ThreadLocal<float[]> packedBf = ThreadLocal.withInitial(() -> new float[KC * NC]);
+
+    private Gemm() {}
+
+    public static void gemm(boolean transA, boolean transB, double alpha, Tensor A, Tensor B, double beta, Tensor C) {
+        int m = C.size(0), n = C.size(1);
+        int k = transA ? A.size(0) : A.size(1);
+        int lda = A.size(1), ldb = B.size(1);
+        if (C.isFloat()) {
+            gemm(transA, transB, m, n, k, (float) alpha, A.floats(), A.offset(), lda, B.floats(), B.offset(), ldb,
+                    (float) beta, C.floats(), C.offset(), n, true);
+            return;
+        }
+        gemm(transA, transB, m, n, k, alpha, A.data(), A.offset(), lda, B.data(), B.offset(), ldb,
+                beta, C.data(), C.offset(), n);
+    }
+
+    public static void gemm(boolean transA, boolean transB, int m, int n, int k, double alpha,
+                            double[] A, int aOff, int lda, double[] B, int bOff, int ldb,
+                            double beta, double[] C, int cOff, int ldc) {
+        if (m == 0 || n == 0) return;
+        scale(m, n, beta, C, cOff, ldc);
+        if (k == 0 || alpha == 0.) return;
+        if ((long) m * n * k < SMALL) {
+            naive(transA, transB, m, n, k, alpha, A, aOff, lda, B, bOff, ldb, C, cOff, ldc);
+            return;
+        }
+        packed(transA, transB, m, n, k, alpha, A, null, aOff, lda, B, null, bOff, ldb, C, cOff, ldc);
+    }
+
+    // the double form on tensors, either of which may be mapped; the offsets index their storage as Tensor.index does.
+    // Mapped operands always take the packed path, whose packing is the only pass reading them
+    public static void gemm(boolean transA, boolean transB, int m, int n, int k, double alpha,
+                            Tensor A, int aOff, int lda, Tensor B, int bOff, int ldb,
+                            double beta, double[] C, int cOff, int ldc) {
+        if (!A.isMapped() && !B.isMapped()) {
+            gemm(transA, transB, m, n, k, alpha, A.data(), aOff, lda, B.data(), bOff, ldb, beta, C, cOff, ldc);
+            return;
+        }
+        if (m == 0 || n == 0) return;
+        scale(m, n, beta, C, cOff, ldc);
+        if (k == 0 || alpha == 0.) return;
+        packed(transA, transB, m, n, k, alpha, A.isMapped() ? null : A.data(), A.buffer(), aOff, lda,
+                B.isMapped() ? null : B.data(), B.buffer(), bOff, ldb, C, cOff, ldc);
+    }
+
+    // the blocked product, every operand read from its array or, when it is mapped, from its buffer
+    private static void packed(boolean transA, boolean transB, int m, int n, int k, double alpha,
+                               double[] A, DoubleBuffer mappedA, int aOff, int lda,
+                               double[] B, DoubleBuffer mappedB, int bOff, int ldb, double[] C, int cOff, int ldc) {
+        double[] pa = packedA.get(), pb = packedB.get();
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                if (mappedB == null) packB(transB, kc, nc, B, bOff, ldb, pc, jc, pb);
+                else packB(transB, kc, nc, mappedB, bOff, ldb, pc, jc, pb);
+                for (int ic = 0; ic < m; ic += MC) {
+                    int mc = Math.min(MC, m - ic);
+                    if (mappedA == null) packA(transA, mc, kc, A, aOff, lda, ic, pc, pa);
+                    else packA(transA, mc, kc, mappedA, aOff, lda, ic, pc, pa);
+                    for (int jr = 0; jr < nc; jr += NR) {
+                        int nr = Math.min(NR, nc - jr);
+                        for (int ir = 0; ir < mc; ir += MR) {
+                            int mr = Math.min(MR, mc - ir);
+                            kernel(kc, alpha, pa, ir * kc, pb, jr * kc, C, cOff + (ic + ir) * ldc + jc + jr, ldc, mr, nr);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void scale(int m, int n, double beta, double[] C, int cOff, int ldc) {
+        if (beta == 1.) return;
+        for (int i = 0; i < m; i++) {
+            int row = cOff + i * ldc;
+            if (beta == 0.) { for (int j = 0; j < n; j++) C[row + j] = 0.; }
+            else { for (int j = 0; j < n; j++) C[row + j] *= beta; }
+        }
+    }
+
+    // op(A)[ic:ic+mc, pc:pc+kc] as consecutive MR-row panels, each stored k-major and zero padded to MR rows
+    private static void packA(boolean transA, int mc, int kc, double[] A, int aOff, int lda, int ic, int pc, double[] pa) {
+        int dst = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                for (int r = 0; r < MR; r++) {
+                    if (r >= mr) { pa[dst++] = 0.; continue; }
+                    int i = ic + ir + r, l = pc + p;
+                    pa[dst++] = transA ? A[aOff + l * lda + i] : A[aOff + i * lda + l];
+                }
+            }
+        }
+    }
+
+    // op(B)[pc:pc+kc, jc:jc+nc] as consecutive NR-column panels, each stored k-major and zero padded to NR columns
+    private static void packB(boolean transB, int kc, int nc, double[] B, int bOff, int ldb, int pc, int jc, double[] pb) {
+        int dst = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                for (int c = 0; c < NR; c++) {
+                    if (c >= nr) { pb[dst++] = 0.; continue; }
+                    int l = pc + p, j = jc + jr + c;
+                    pb[dst++] = transB ? B[bOff + j * ldb + l] : B[bOff + l * ldb + j];
+                }
+            }
+        }
+    }
+
+    private static void packA(boolean transA, int mc, int kc, DoubleBuffer A, int aOff, int lda, int ic, int pc,
+                              double[] pa) {
+        int dst = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                for (int r = 0; r < MR; r++) {
+                    if (r >= mr) { pa[dst++] = 0.; continue; }
+                    int i = ic + ir + r, l = pc + p;
+                    pa[dst++] = transA ? A.get(aOff + l * lda + i) : A.get(aOff + i * lda + l);
+                }
+            }
+        }
+    }
+
+    private static void packB(boolean transB, int kc, int nc, DoubleBuffer B, int bOff, int ldb, int pc, int jc,
+                              double[] pb) {
+        int dst = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                for (int c = 0; c < NR; c++) {
+                    if (c >= nr) { pb[dst++] = 0.; continue; }
+                    int l = pc + p, j = jc + jr + c;
+                    pb[dst++] = transB ? B.get(bOff + j * ldb + l) : B.get(bOff + l * ldb + j);
+                }
+            }
+        }
+    }
+
+    // 4 x 4 tile of C += alpha * panelA * panelB kept in registers for the whole depth kc
+    private static void kernel(int kc, double alpha, double[] pa, int ia, double[] pb, int ib,
+                               double[] C, int c, int ldc, int mr, int nr) {
+        double c00 = 0., c01 = 0., c02 = 0., c03 = 0.;
+        double c10 = 0., c11 = 0., c12 = 0., c13 = 0.;
+        double c20 = 0., c21 = 0., c22 = 0., c23 = 0.;
+        double c30 = 0., c31 = 0., c32 = 0., c33 = 0.;
+        for (int p = 0; p < kc; p++) {
+            double a0 = pa[ia], a1 = pa[ia + 1], a2 = pa[ia + 2], a3 = pa[ia + 3];
+            double b0 = pb[ib], b1 = pb[ib + 1], b2 = pb[ib + 2], b3 = pb[ib + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+            ia += MR;
+            ib += NR;
+        }
+        store(C, c, nr, alpha, c00, c01, c02, c03);
+        if (mr > 1) store(C, c + ldc, nr, alpha, c10, c11, c12, c13);
+        if (mr > 2) store(C, c + 2 * ldc, nr, alpha, c20, c21, c22, c23);
+        if (mr > 3) store(C, c + 3 * ldc, nr, alpha, c30, c31, c32, c33);
+    }
+
+    private static void store(double[] C, int c, int nr, double alpha, double v0, double v1, double v2, double v3) {
+        C[c] += alpha * v0;
+        if (nr > 1) C[c + 1] += alpha * v1;
+        if (nr > 2) C[c + 2] += alpha * v2;
+        if (nr > 3) C[c + 3] += alpha * v3;
+    }
+
+    private static void naive(boolean transA, boolean transB, int m, int n, int k, double alpha,
+                              double[] A, int aOff, int lda, double[] B, int bOff, int ldb,
+                              double[] C, int cOff, int ldc) {
+        for (int i = 0; i < m; i++) {
+            int cRow = cOff + i * ldc;
+            for (int l = 0; l < k; l++) {
+                double a_ = alpha * (transA ? A[aOff + l * lda + i] : A[aOff + i * lda + l]);
+                if (a_ == 0.) continue;
+                if (transB) { for (int j = 0; j < n; j++) C[cRow + j] += a_ * B[bOff + j * ldb + l]; }
+                else {
+                    int bRow = bOff + l * ldb;
+                    for (int j = 0; j < n; j++) C[cRow + j] += a_ * B[bRow + j];
+                }
+            }
+        }
+    }
+
+    /** Single precision */
+    public static void gemm(boolean transA, boolean transB, int m, int n, int k, float alpha,
+                            float[] A, int aOff, int lda, float[] B, int bOff, int ldb,
+                            float beta, float[] C, int cOff, int ldc, boolean accumulateDouble) {
+        if (m == 0 || n == 0) return;
+        scale(m, n, beta, C, cOff, ldc);
+        if (k == 0 || alpha == 0f) return;
+        if ((long) m * n * k < SMALL) {
+            naive(transA, transB, m, n, k, alpha, A, aOff, lda, B, bOff, ldb, C, cOff, ldc, accumulateDouble);
+            return;
+        }
+        float[] pa = packedAf.get(), pb = packedBf.get();
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                packB(transB, kc, nc, B, bOff, ldb, pc, jc, pb);
+                for (int ic = 0; ic < m; ic += MC) {
+                    int mc = Math.min(MC, m - ic);
+                    packA(transA, mc, kc, A, aOff, lda, ic, pc, pa);
+                    for (int jr = 0; jr < nc; jr += NR) {
+                        int nr = Math.min(NR, nc - jr);
+                        for (int ir = 0; ir < mc; ir += MR) {
+                            int mr = Math.min(MR, mc - ir);
+                            int c = cOff + (ic + ir) * ldc + jc + jr;
+                            if (accumulateDouble) kernelD(kc, alpha, pa, ir * kc, pb, jr * kc, C, c, ldc, mr, nr);
+                            else kernel(kc, alpha, pa, ir * kc, pb, jr * kc, C, c, ldc, mr, nr);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void scale(int m, int n, float beta, float[] C, int cOff, int ldc) {
+        if (beta == 1f) return;
+        for (int i = 0; i < m; i++) {
+            int row = cOff + i * ldc;
+            if (beta == 0f) { for (int j = 0; j < n; j++) C[row + j] = 0f; }
+            else { for (int j = 0; j < n; j++) C[row + j] *= beta; }
+        }
+    }
+
+    private static void packA(boolean transA, int mc, int kc, float[] A, int aOff, int lda, int ic, int pc, float[] pa) {
+        int dst = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                for (int r = 0; r < MR; r++) {
+                    if (r >= mr) { pa[dst++] = 0f; continue; }
+                    int i = ic + ir + r, l = pc + p;
+                    pa[dst++] = transA ? A[aOff + l * lda + i] : A[aOff + i * lda + l];
+                }
+            }
+        }
+    }
+
+    private static void packB(boolean transB, int kc, int nc, float[] B, int bOff, int ldb, int pc, int jc, float[] pb) {
+        int dst = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                for (int c = 0; c < NR; c++) {
+                    if (c >= nr) { pb[dst++] = 0f; continue; }
+                    int l = pc + p, j = jc + jr + c;
+                    pb[dst++] = transB ? B[bOff + j * ldb + l] : B[bOff + l * ldb + j];
+                }
+            }
+        }
+    }
+
+    private static void kernel(int kc, float alpha, float[] pa, int ia, float[] pb, int ib,
+                               float[] C, int c, int ldc, int mr, int nr) {
+        float c00 = 0f, c01 = 0f, c02 = 0f, c03 = 0f;
+        float c10 = 0f, c11 = 0f, c12 = 0f, c13 = 0f;
+        float c20 = 0f, c21 = 0f, c22 = 0f, c23 = 0f;
+        float c30 = 0f, c31 = 0f, c32 = 0f, c33 = 0f;
+        for (int p = 0; p < kc; p++) {
+            float a0 = pa[ia], a1 = pa[ia + 1], a2 = pa[ia + 2], a3 = pa[ia + 3];
+            float b0 = pb[ib], b1 = pb[ib + 1], b2 = pb[ib + 2], b3 = pb[ib + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+            ia += MR;
+            ib += NR;
+        }
+        store(C, c, nr, alpha, c00, c01, c02, c03);
+        if (mr > 1) store(C, c + ldc, nr, alpha, c10, c11, c12, c13);
+        if (mr > 2) store(C, c + 2 * ldc, nr, alpha, c20, c21, c22, c23);
+        if (mr > 3) store(C, c + 3 * ldc, nr, alpha, c30, c31, c32, c33);
+    }
+
+    // float panels, double accumulators
+    private static void kernelD(int kc, float alpha, float[] pa, int ia, float[] pb, int ib,
+                                float[] C, int c, int ldc, int mr, int nr) {
+        double c00 = 0., c01 = 0., c02 = 0., c03 = 0.;
+        double c10 = 0., c11 = 0., c12 = 0., c13 = 0.;
+        double c20 = 0., c21 = 0., c22 = 0., c23 = 0.;
+        double c30 = 0., c31 = 0., c32 = 0., c33 = 0.;
+        for (int p = 0; p < kc; p++) {
+            double a0 = pa[ia], a1 = pa[ia + 1], a2 = pa[ia + 2], a3 = pa[ia + 3];
+            double b0 = pb[ib], b1 = pb[ib + 1], b2 = pb[ib + 2], b3 = pb[ib + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+            ia += MR;
+            ib += NR;
+        }
+        store(C, c, nr, alpha, (float) c00, (float) c01, (float) c02, (float) c03);
+        if (mr > 1) store(C, c + ldc, nr, alpha, (float) c10, (float) c11, (float) c12, (float) c13);
+        if (mr > 2) store(C, c + 2 * ldc, nr, alpha, (float) c20, (float) c21, (float) c22, (float) c23);
+        if (mr > 3) store(C, c + 3 * ldc, nr, alpha, (float) c30, (float) c31, (float) c32, (float) c33);
+    }
+
+    private static void store(float[] C, int c, int nr, float alpha, float v0, float v1, float v2, float v3) {
+        C[c] += alpha * v0;
+        if (nr > 1) C[c + 1] += alpha * v1;
+        if (nr > 2) C[c + 2] += alpha * v2;
+        if (nr > 3) C[c + 3] += alpha * v3;
+    }
+
+    // inner-product form, so that the whole depth is summed in the requested precision before touching C
+    private static void naive(boolean transA, boolean transB, int m, int n, int k, float alpha,
+                              float[] A, int aOff, int lda, float[] B, int bOff, int ldb,
+                              float[] C, int cOff, int ldc, boolean accumulateDouble) {
+        int aI = transA ? 1 : lda, aL = transA ? lda : 1, bL = transB ? 1 : ldb, bJ = transB ? ldb : 1;
+        for (int i = 0; i < m; i++) {
+            int cRow = cOff + i * ldc;
+            for (int j = 0; j < n; j++) {
+                int a = aOff + i * aI, b = bOff + j * bJ;
+                if (accumulateDouble) {
+                    double s = 0.;
+                    for (int l = 0; l < k; l++) s += (double) A[a + l * aL] * B[b + l * bL];
+                    C[cRow + j] += alpha * (float) s;
+                } else {
+                    float s = 0f;
+                    for (int l = 0; l < k; l++) s += A[a + l * aL] * B[b + l * bL];
+                    C[cRow + j] += alpha * s;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.isaac.utils;
+
+/**
+ * Lowering of valid, unit-stride convolutions to matrix products. im2col copies every kernel-sized patch of a
+ * [channel, height, width] image into one column of a [channel * kh * kw, oh * ow] matrix, so that the convolution
+ * with kernels [nKernel, channel * kh * kw] becomes a single GEMM. col2im is its adjoint and scatters such a matrix
+ * back onto the image, accumulating overlapping patches.
+ */
+public final class Im2col {
+
+    private Im2col() {}
+
+    public static void im2col(double[] x, int xOff, int channel, int height, int width, int kh, int kw, double[] cols) {
+        int oh = height - kh + 1, ow = width - kw + 1, p = oh * ow;
+        int row = 0;
+        for (int c = 0; c < channel; c++) {
+            for (int s = 0; s < kh; s++) {
+                for (int t = 0; t < kw; t++) {
+                    int dst = row * p;
+                    for (int i = 0; i < oh; i++) {
+                        System.arraycopy(x, xOff + (c * height + i + s) * width + t, cols, dst, ow);
+                        dst += ow;
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+
+    public static void col2im(double[] cols, int channel, int height, int width, int kh, int kw, double[] x, int xOff) {
+        int oh = height - kh + 1, ow = width - kw + 1, p = oh * ow;
+        int row = 0;
+        for (int c = 0; c < channel; c++) {
+            for (int s = 0; s < kh; s++) {
+                for (int t = 0; t < kw; t++) {
+                    int src = row * p;
+                    for (int i = 0; i < oh; i++) {
+                        int dst = xOff + (c * height + i + s) * width + t;
+                        for (int j = 0; j < ow; j++) x[dst + j] += cols[src + j];
+                        src += ow;
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.isaac.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The transformed training set of one layer during greedy layer-wise pre-training, [batches, minibatchSize, width].
+ * It is written once, minibatch by minibatch, after the layers below are trained, and read back in every epoch of the
+ * layer above, so the frozen layers below are not run again per epoch. Up to memoryLimit bytes it is held on the heap,
+ * larger sets are spilled to a temporary file mapped into memory, so the page cache holds what fits and the rest is
+ * streamed from disk. close unmaps the file where the JDK allows it, i.e. through Unsafe.invokeCleaner on JDK 9 and
+ * later, and deletes it; on JDK 8 close only drops the mappings, which stay until a GC collects them.
+ */
+@SuppressWarnings("unused")
+public final class LayerCache implements AutoCloseable {
+    private static final Object UNSAFE; // sun.misc.Unsafe and its invokeCleaner, null where unmapping is not possible
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final int batches;
+    private final int minibatchSize;
+    private final int width;
+    private final Tensor memory; // [batches, minibatchSize, width] when held on the heap, else null
+    private MappedByteBuffer[] mappings; // runs of whole minibatches, each below 2 GB, null once closed
+    private DoubleBuffer[] segments; // the mappings as doubles
+    private final int batchesPerSegment;
+    private final Tensor buffer; // [minibatchSize, width] the last minibatch read from the file
+    private final File file;
+
+    public LayerCache(int batches, int minibatchSize, int width, long memoryLimit) {
+        this.batches = batches;
+        this.minibatchSize = minibatchSize;
+        this.width = width;
+        long batchBytes = 8L * minibatchSize * width;
+        if (batchBytes * batches <= memoryLimit) {
+            this.memory = new Tensor(batches, minibatchSize, width);
+            this.mappings = null;
+            this.segments = null;
+            this.batchesPerSegment = 0;
+            this.buffer = null;
+            this.file = null;
+            return;
+        }
+        if (batchBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Given minibatch un-supported, a cached minibatch must be below 2 GB");
+        this.memory = null;
+        this.batchesPerSegment = (int) (Integer.MAX_VALUE / batchBytes);
+        this.mappings = new MappedByteBuffer[(batches + batchesPerSegment - 1) / batchesPerSegment];
+        this.segments = new DoubleBuffer[mappings.length];
+        this.buffer = new Tensor(minibatchSize, width);
+        try {
+            this.file = File.createTempFile("layer-cache", ".bin");
+            file.deleteOnExit();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                FileChannel channel = raf.getChannel();
+                for (int s = 0; s < segments.length; s++) {
+                    int n = Math.min(batchesPerSegment, batches - s * batchesPerSegment);
+                    mappings[s] = channel.map(FileChannel.MapMode.READ_WRITE, s * batchesPerSegment * batchBytes,
+                            n * batchBytes); // the mapping outlives the channel
+                    segments[s] = mappings[s].asDoubleBuffer();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // stores the minibatch Y [minibatchSize, width] as minibatch `batch`
+    public void put(int batch, Tensor Y) {
+        int n = minibatchSize * width;
+        if (memory != null) {
+            System.arraycopy(Y.data(), Y.offset(), memory.data(), batch * n, n);
+            return;
+        }
+        DoubleBuffer segment = segments[batch / batchesPerSegment];
+        segment.position(batch % batchesPerSegment * n);
+        segment.put(Y.data(), Y.offset(), n);
+    }
+
+    // minibatch `batch` [minibatchSize, width]; a spilled cache reads it into one buffer, valid until the next call
+    public Tensor get(int batch) {
+        if (memory != null) return memory.slice(batch);
+        int n = minibatchSize * width;
+        DoubleBuffer segment = segments[batch / batchesPerSegment];
+        segment.position(batch % batchesPerSegment * n);
+        segment.get(buffer.data(), 0, n);
+        return buffer;
+    }
+
+    // a spilled cache must not be read or written once closed, its mappings are gone
+    @Override
+    public void close() {
+        if (mappings != null) {
+            MappedByteBuffer[] mappings = this.mappings;
+            this.mappings = null;
+            this.segments = null;
+            for (MappedByteBuffer mapping : mappings) unmap(mapping);
+        }
+        if (file != null && !file.delete()) file.deleteOnExit();
+    }
+
+    private static void unmap(MappedByteBuffer mapping) {
+        if (INVOKE_CLEANER == null || mapping == null) return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, mapping);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the GC
+        }
+    }
+
+    /** Getters */
+    public int getBatches() { return batches; }
+    public int getMinibatchSize() { return minibatchSize; }
+    public int getWidth() { return width; }
+    public boolean isSpilled() { return memory == null; }
+}
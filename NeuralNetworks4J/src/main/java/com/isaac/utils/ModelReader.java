@@ -0,0 +1,153 @@
+package com.isaac.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reader of the binary model format written by {@link ModelWriter}. The file is read through a channel into a 64 KB
+ * window, and the values of a block are aligned doubles in the byte order of the common platforms: reading a block into
+ * the parameters of a layer is a bulk copy out of the window, with no parsing, and nothing of the file is held once the
+ * reader is closed. A mapped reader maps the whole file read-only instead, and {@link #map} hands out the weight blocks
+ * as read-only tensors over the mapping: nothing is copied, the pages are loaded on first use, and every process
+ * mapping the same model shares them through the page cache for as long as it holds the tensors. Items are read back
+ * in the order the model wrote them.
+ */
+@SuppressWarnings("unused")
+public final class ModelReader implements Closeable {
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer; // the window, or the whole file when it is mapped
+    private final boolean mapped;
+    private final long size;
+    private long consumed; // bytes of the file before the window
+
+    // checks the magic number, the version and that the file holds the given model
+    public ModelReader(File file, String model) throws IOException {
+        this(file, model, false);
+    }
+
+    // a mapped reader needs a file of less than 2 GB
+    public ModelReader(File file, String model, boolean mapped) throws IOException {
+        this.file = file;
+        this.mapped = mapped;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            if (mapped && size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Given model file un-supported for mapping, it exceeds 2 GB: " +
+                        file);
+            this.buffer = mapped ? channel.map(MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN)
+                    : ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            if (!mapped) buffer.flip();
+            if (size < 8 || readInt() != ModelWriter.MAGIC)
+                throw new IllegalArgumentException("Given model file not found or un-supported: " + file);
+            int version = readInt();
+            if (version < 1 || version > ModelWriter.VERSION)
+                throw new IllegalArgumentException("Given model file version " + version + " un-supported: " + file);
+            String model_ = readString();
+            if (!model_.equals(model))
+                throw new IllegalArgumentException("Given model file holds a " + model_ + ", not a " + model + ": " +
+                        file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        fill(4);
+        return buffer.getInt();
+    }
+
+    public int[] readInts() throws IOException {
+        int[] values = new int[readInt()];
+        require(4L * values.length);
+        for (int i = 0; i < values.length; i++) {
+            fill(4);
+            values[i] = buffer.getInt();
+        }
+        return values;
+    }
+
+    public String readString() throws IOException {
+        byte[] bytes = new byte[readInt()];
+        require(bytes.length);
+        for (int i = 0; i < bytes.length; ) {
+            fill(1);
+            int n = Math.min(bytes.length - i, buffer.remaining());
+            buffer.get(bytes, i, n);
+            i += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // the next block into X, whose shape must be the one written; float tensors are rounded
+    public Tensor read(Tensor X) throws IOException {
+        header(X);
+        for (int i = 0, n = X.length(); i < n; ) {
+            fill(8);
+            int m = Math.min(n - i, buffer.remaining() / 8);
+            if (X.isFloat()) {
+                for (int j = 0; j < m; j++) X.floats()[X.offset() + i + j] = (float) buffer.getDouble();
+            } else {
+                buffer.asDoubleBuffer().get(X.data(), X.offset() + i, m);
+                buffer.position(buffer.position() + 8 * m);
+            }
+            i += m;
+        }
+        return X;
+    }
+
+    // the next block as a read-only tensor over the mapped file, in place of the parameters X of the same shape; a
+    // reader that is not mapped reads the block into X, and so does a mapped one for float X
+    public Tensor map(Tensor X) throws IOException {
+        if (!mapped || X.isFloat()) return read(X);
+        header(X);
+        Tensor view = Tensor.map(buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer(), X.getShape());
+        buffer.position(buffer.position() + 8 * X.length());
+        return view;
+    }
+
+    // the shape of the next block, checked against X, and the padding up to its first value
+    private void header(Tensor X) throws IOException {
+        int[] shape = readInts();
+        if (!Arrays.equals(shape, X.getShape()))
+            throw new IllegalArgumentException("Given model block " + Arrays.toString(shape) + " does not fit " + X);
+        int padding = (int) (-position() & 7);
+        require(padding + 8L * X.length());
+        fill(padding);
+        buffer.position(buffer.position() + padding);
+    }
+
+    public boolean isMapped() { return mapped; }
+
+    private long position() { return consumed + buffer.position(); }
+
+    private void require(long bytes) {
+        if (bytes < 0 || size - position() < bytes)
+            throw new IllegalArgumentException("Given model file un-supported, it is truncated: " + file);
+    }
+
+    // at least the given bytes in the window, which require has checked the file holds; a mapped window holds them all
+    private void fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        consumed += buffer.position();
+        buffer.compact();
+        while (buffer.position() < bytes && channel.read(buffer) >= 0) continue;
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
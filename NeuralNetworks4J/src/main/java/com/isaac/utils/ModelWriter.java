@@ -0,0 +1,96 @@
+package com.isaac.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writer of the binary model format read by {@link ModelReader}. A file starts with the magic number, the format
+ * version and the name of the model, followed by what the model writes: its architecture as ints and strings, then its
+ * parameters as blocks of doubles. A block is its shape followed by its values, which start on an 8 byte boundary of
+ * the file, so a reader sees every block as an aligned run of doubles. Everything is little endian.
+ */
+@SuppressWarnings("unused")
+public final class ModelWriter implements Closeable {
+    public static final int MAGIC = 0x544C4E4E; // "NNLT" in little endian
+    public static final int VERSION = 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private long written; // bytes flushed to the channel
+
+    public ModelWriter(File file, String model) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writeInt(MAGIC);
+        writeInt(VERSION);
+        writeString(model);
+    }
+
+    public void writeInt(int value) throws IOException {
+        reserve(4);
+        buffer.putInt(value);
+    }
+
+    // the length, then the values
+    public void writeInts(int[] values) throws IOException {
+        writeInt(values.length);
+        for (int v : values) writeInt(v);
+    }
+
+    // the length in bytes, then the UTF-8 bytes
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        for (int i = 0; i < bytes.length; ) {
+            if (!buffer.hasRemaining()) flush();
+            int n = Math.min(bytes.length - i, buffer.remaining());
+            buffer.put(bytes, i, n);
+            i += n;
+        }
+    }
+
+    // a block: the shape of X, padding up to 8 bytes, then the values of X as doubles, float tensors are widened
+    public void write(Tensor X) throws IOException {
+        writeInts(X.getShape());
+        while ((written + buffer.position()) % 8 != 0) {
+            reserve(1);
+            buffer.put((byte) 0);
+        }
+        for (int i = 0, n = X.length(); i < n; ) {
+            if (buffer.remaining() < 8) flush();
+            int m = Math.min(n - i, buffer.remaining() / 8);
+            if (X.isFloat()) {
+                for (int j = 0; j < m; j++) buffer.putDouble(X.floats()[X.offset() + i + j]);
+            } else {
+                buffer.asDoubleBuffer().put(X.data(), X.offset() + i, m);
+                buffer.position(buffer.position() + 8 * m);
+            }
+            i += m;
+        }
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) written += channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.isaac.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Data-parallel execution on a dedicated ForkJoinPool. Work over n items is cut into a number of contiguous chunks
+ * that only depends on n and the thread count, and partial results are combined by a fixed pairwise tree, so results
+ * are bit-reproducible for a given number of threads. A {@code null} Parallelism means single threaded execution.
+ */
+@SuppressWarnings("unused")
+public final class Parallelism {
+    private static final int REDUCE_GRAIN = 4096; // minimum elements per chunk when reducing
+
+    private final int threads;
+    private final ForkJoinPool pool;
+
+    public Parallelism(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive.");
+        this.threads = threads;
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    @FunctionalInterface
+    public interface RangeTask {
+        // processes items [from, to) as chunk number `chunk`
+        void run(int chunk, int from, int to);
+    }
+
+    public static int chunks(Parallelism p, int n) { return chunks(p, n, 1); }
+
+    public static int chunks(Parallelism p, int n, int grain) {
+        if (p == null || p.threads == 1) return 1;
+        return Math.max(1, Math.min(p.threads, (n + grain - 1) / grain));
+    }
+
+    public static void forEach(Parallelism p, int n, RangeTask task) { forEach(p, n, 1, task); }
+
+    public static void forEach(Parallelism p, int n, int grain, RangeTask task) {
+        int chunks = chunks(p, n, grain);
+        if (chunks == 1) task.run(0, 0, n);
+        else p.pool.invoke(new Chunks(task, n, chunks, 0, chunks));
+    }
+
+    // sums partials[0 .. chunks) into partials[0] along a fixed binary tree: (0 + 1) + (2 + 3), ...
+    public static void reduce(Parallelism p, double[][] partials, int chunks, int length) {
+        if (chunks < 2) return;
+        forEach(p, length, REDUCE_GRAIN, (chunk, from, to) -> {
+            for (int s = 1; s < chunks; s <<= 1) {
+                for (int i = 0; i + s < chunks; i += s << 1) {
+                    double[] dst = partials[i], src = partials[i + s];
+                    for (int j = from; j < to; j++) dst[j] += src[j];
+                }
+            }
+        });
+    }
+
+    public static void reduce(Parallelism p, float[][] partials, int chunks, int length) {
+        if (chunks < 2) return;
+        forEach(p, length, REDUCE_GRAIN, (chunk, from, to) -> {
+            for (int s = 1; s < chunks; s <<= 1) {
+                for (int i = 0; i + s < chunks; i += s << 1) {
+                    float[] dst = partials[i], src = partials[i + s];
+                    for (int j = from; j < to; j++) dst[j] += src[j];
+                }
+            }
+        });
+    }
+
+    private static final class Chunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask task;
+        private final int n, chunks, lo, hi;
+
+        Chunks(RangeTask task, int n, int chunks, int lo, int hi) {
+            this.task = task;
+            this.n = n;
+            this.chunks = chunks;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                task.run(lo, (int) ((long) n * lo / chunks), (int) ((long) n * (lo + 1) / chunks));
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Chunks(task, n, chunks, lo, mid), new Chunks(task, n, chunks, mid, hi));
+        }
+    }
+
+    /** Getters */
+    public int getThreads() { return threads; }
+}
@@ -0,0 +1,149 @@
+package com.isaac.utils;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Unsynchronized random stream on a {@link SplittableRandom}, with bulk fills for the sampling hot loops. A stream
+ * belongs to one layer or one worker: layers derive their own stream from the {@link Random} they are built with, and
+ * split one child stream per parallel chunk, so every draw is deterministic for a given seed and thread count without
+ * sharing an atomically updated seed. Gaussians come from the 128-block ziggurat of Marsaglia and Tsang in the form
+ * given by Doornik, which costs one 64-bit draw for the vast majority of samples.
+ */
+@SuppressWarnings("unused")
+public final class RandomStream {
+    private static final int ZIGGURAT_BLOCKS = 128;
+    private static final double ZIGGURAT_R = 3.442619855899; // start of the tail
+    private static final double ZIGGURAT_V = 9.91256303526217e-3; // area of every block
+    private static final double[] X = new double[ZIGGURAT_BLOCKS + 1]; // right edges of the blocks
+    private static final double[] R = new double[ZIGGURAT_BLOCKS]; // X[i + 1] / X[i]
+
+    static {
+        double f = Math.exp(-.5 * ZIGGURAT_R * ZIGGURAT_R);
+        X[0] = ZIGGURAT_V / f; // the bottom block, with the tail beyond R
+        X[1] = ZIGGURAT_R;
+        X[ZIGGURAT_BLOCKS] = 0.;
+        for (int i = 2; i < ZIGGURAT_BLOCKS; i++) {
+            X[i] = Math.sqrt(-2. * Math.log(ZIGGURAT_V / X[i - 1] + f));
+            f = Math.exp(-.5 * X[i] * X[i]);
+        }
+        for (int i = 0; i < ZIGGURAT_BLOCKS; i++) R[i] = X[i + 1] / X[i];
+    }
+
+    private final SplittableRandom rng;
+
+    public RandomStream(long seed) {
+        this(new SplittableRandom(seed));
+    }
+
+    private RandomStream(SplittableRandom rng) {
+        this.rng = rng;
+    }
+
+    // a stream seeded from the next draw of rng, so streams created in a fixed order from one Random are reproducible
+    public static RandomStream of(Random rng) {
+        return new RandomStream(rng == null ? 1234 : rng.nextLong());
+    }
+
+    // an independent child stream, e.g. for one worker
+    public RandomStream split() { return new RandomStream(rng.split()); }
+
+    // child streams of parent for chunks 0 .. chunks - 1, the given ones are kept and missing ones split in chunk order
+    public static RandomStream[] split(RandomStream parent, RandomStream[] streams, int chunks) {
+        if (streams != null && streams.length >= chunks) return streams;
+        RandomStream[] streams_ = new RandomStream[chunks];
+        int kept = streams == null ? 0 : streams.length;
+        if (kept > 0) System.arraycopy(streams, 0, streams_, 0, kept);
+        for (int c = kept; c < chunks; c++) streams_[c] = parent.split();
+        return streams_;
+    }
+
+    public double nextDouble() { return rng.nextDouble(); }
+
+    public long nextLong() { return rng.nextLong(); }
+
+    public double uniform(double min, double max) { return rng.nextDouble() * (max - min) + min; }
+
+    // x[off, off + n) ~ U(min, max)
+    public void uniform(double[] x, int off, int n, double min, double max) {
+        double range = max - min;
+        for (int i = 0; i < n; i++) x[off + i] = rng.nextDouble() * range + min;
+    }
+
+    // s[sOff, sOff + n) ~ Bernoulli(p[pOff, pOff + n)), s may be p itself; probabilities outside [0, 1] give 0
+    public void bernoulli(double[] p, int pOff, double[] s, int sOff, int n) {
+        for (int i = 0; i < n; i++) {
+            double p_ = p[pOff + i];
+            s[sOff + i] = p_ >= 0 && p_ <= 1 && rng.nextDouble() < p_ ? 1. : 0.;
+        }
+    }
+
+    public void bernoulli(float[] p, int pOff, float[] s, int sOff, int n) {
+        for (int i = 0; i < n; i++) {
+            float p_ = p[pOff + i];
+            s[sOff + i] = p_ >= 0 && p_ <= 1 && rng.nextDouble() < p_ ? 1f : 0f;
+        }
+    }
+
+    // n bits ~ Bernoulli(p[pOff, pOff + n)) packed into the words s[sOff, ...), bits past n in the last word are cleared
+    public void bernoulli(double[] p, int pOff, long[] s, int sOff, int n) {
+        for (int c0 = 0; c0 < n; c0 += 64) {
+            long word = 0L;
+            int m = Math.min(64, n - c0);
+            for (int c = 0; c < m; c++) {
+                double p_ = p[pOff + c0 + c];
+                if (p_ >= 0 && p_ <= 1 && rng.nextDouble() < p_) word |= 1L << c;
+            }
+            s[sOff++] = word;
+        }
+    }
+
+    // s[sOff, sOff + n) ~ Bernoulli(p) with one probability, e.g. a dropout or corruption mask
+    public void bernoulli(double p, double[] s, int sOff, int n) {
+        for (int i = 0; i < n; i++) s[sOff + i] = rng.nextDouble() < p ? 1. : 0.;
+    }
+
+    public void bernoulli(double p, float[] s, int sOff, int n) {
+        for (int i = 0; i < n; i++) s[sOff + i] = rng.nextDouble() < p ? 1f : 0f;
+    }
+
+    public void bernoulli(double p, long[] s, int sOff, int n) {
+        for (int c0 = 0; c0 < n; c0 += 64) {
+            long word = 0L;
+            int m = Math.min(64, n - c0);
+            for (int c = 0; c < m; c++) if (rng.nextDouble() < p) word |= 1L << c;
+            s[sOff++] = word;
+        }
+    }
+
+    // x[off, off + n) ~ N(mean, std^2)
+    public void gaussian(double[] x, int off, int n, double mean, double std) {
+        for (int i = 0; i < n; i++) x[off + i] = nextGaussian() * std + mean;
+    }
+
+    // standard normal by the ziggurat: a uniform point in a random block, accepted at once inside its rectangle
+    public double nextGaussian() {
+        while (true) {
+            long r = rng.nextLong();
+            double u = 2. * ((r >>> 11) * 0x1.0p-53) - 1.; // top 53 bits, U(-1, 1)
+            int i = (int) r & (ZIGGURAT_BLOCKS - 1); // low 7 bits, the block
+            if (Math.abs(u) < R[i]) return u * X[i];
+            if (i == 0) return tail(u < 0);
+            // the wedge between the rectangle and the density
+            double x = u * X[i];
+            double f0 = Math.exp(-.5 * (X[i] * X[i] - x * x));
+            double f1 = Math.exp(-.5 * (X[i + 1] * X[i + 1] - x * x));
+            if (f1 + rng.nextDouble() * (f0 - f1) < 1.) return x;
+        }
+    }
+
+    // beyond R, Marsaglia's exponential rejection
+    private double tail(boolean negative) {
+        double x, y;
+        do {
+            x = Math.log(1. - rng.nextDouble()) / ZIGGURAT_R;
+            y = Math.log(1. - rng.nextDouble());
+        } while (-2. * y < x * x);
+        return negative ? x - ZIGGURAT_R : ZIGGURAT_R - x;
+    }
+}
@@ -0,0 +1,232 @@
+package com.isaac.utils;
+
+import com.isaac.initialization.Precision;
+
+import java.nio.DoubleBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+
+/**
+ * Row-major tensor of primitive doubles, or of floats in single precision: a shape and its strides over one contiguous
+ * {@code double[]} or {@code float[]}. Slices along the first dimension and reshapes are views sharing the same storage,
+ * so no copy is made when a minibatch is split into samples or a feature map is flattened. A mapped tensor reads the
+ * doubles of a read-only buffer instead, e.g. the weights of a model file mapped by {@link ModelReader}: it has no
+ * {@code double[]}, and every write to it throws a {@link ReadOnlyBufferException}.
+ */
+@SuppressWarnings("unused")
+public class Tensor {
+    private final double[] data; // null for float tensors
+    private final float[] floats; // null for double tensors
+    private final DoubleBuffer buffer; // read-only storage of a mapped tensor, null on the heap
+    private final int offset;
+    private final int[] shape;
+    private final int[] strides;
+    private final int length;
+
+    public Tensor(int... shape) {
+        this(new double[product(shape)], 0, shape);
+    }
+
+    public Tensor(Precision precision, int... shape) {
+        this(precision.isFloat() ? null : new double[product(shape)],
+                precision.isFloat() ? new float[product(shape)] : null, null, 0, shape);
+    }
+
+    public Tensor(double[] data, int offset, int... shape) {
+        this(data, null, null, offset, shape);
+    }
+
+    public Tensor(float[] floats, int offset, int... shape) {
+        this(null, floats, null, offset, shape);
+    }
+
+    private Tensor(double[] data, float[] floats, DoubleBuffer buffer, int offset, int[] shape) {
+        int length = product(shape);
+        int capacity = data != null ? data.length : floats != null ? floats.length : buffer.capacity();
+        if (offset < 0 || offset + length > capacity)
+            throw new IllegalArgumentException("Shape " + Arrays.toString(shape) + " does not fit in the given data");
+        this.data = data;
+        this.floats = floats;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.shape = shape.clone();
+        this.strides = new int[shape.length];
+        this.length = length;
+        int stride = 1;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            strides[d] = stride;
+            stride *= shape[d];
+        }
+    }
+
+    /** Factories */
+    public static Tensor zeros(int... shape) { return new Tensor(shape); }
+
+    public static Tensor wrap(double[] x) { return new Tensor(x, 0, x.length); }
+
+    // a read-only view of the doubles of the buffer from its index 0, nothing is copied
+    public static Tensor map(DoubleBuffer buffer, int... shape) {
+        return new Tensor(null, null, buffer.asReadOnlyBuffer(), 0, shape);
+    }
+
+    public static Tensor of(double[] x) { return new Tensor(x.clone(), 0, x.length); }
+
+    public static Tensor of(double[][] x) {
+        int cols = x.length == 0 ? 0 : x[0].length;
+        Tensor t = new Tensor(x.length, cols);
+        for (int i = 0; i < x.length; i++) System.arraycopy(x[i], 0, t.data, i * cols, cols);
+        return t;
+    }
+
+    public static Tensor of(int[][] x) {
+        int cols = x.length == 0 ? 0 : x[0].length;
+        Tensor t = new Tensor(x.length, cols);
+        for (int i = 0; i < x.length; i++) {
+            for (int j = 0; j < cols; j++) t.data[i * cols + j] = x[i][j];
+        }
+        return t;
+    }
+
+    public static Tensor of(double[][][] x) {
+        Tensor t = new Tensor(x.length, x[0].length, x[0][0].length);
+        for (int i = 0; i < x.length; i++) t.slice(i).copyFrom(of(x[i]));
+        return t;
+    }
+
+    public static Tensor of(int[][][] x) {
+        Tensor t = new Tensor(x.length, x[0].length, x[0][0].length);
+        for (int i = 0; i < x.length; i++) t.slice(i).copyFrom(of(x[i]));
+        return t;
+    }
+
+    public static Tensor of(double[][][][] x) {
+        Tensor t = new Tensor(x.length, x[0].length, x[0][0].length, x[0][0][0].length);
+        for (int i = 0; i < x.length; i++) t.slice(i).copyFrom(of(x[i]));
+        return t;
+    }
+
+    public static Tensor of(double[][][][][] x) {
+        Tensor t = new Tensor(x.length, x[0].length, x[0][0].length, x[0][0][0].length, x[0][0][0][0].length);
+        for (int i = 0; i < x.length; i++) t.slice(i).copyFrom(of(x[i]));
+        return t;
+    }
+
+    /** Views */
+    // i-th sub-tensor along the first dimension, e.g. one sample of a minibatch
+    public Tensor slice(int i) {
+        if (i < 0 || i >= shape[0]) throw new IndexOutOfBoundsException("Slice " + i + " out of " + shape[0]);
+        return new Tensor(data, floats, buffer, offset + i * strides[0], Arrays.copyOfRange(shape, 1, shape.length));
+    }
+
+    // sub-tensors [from, to) along the first dimension
+    public Tensor slice(int from, int to) {
+        if (from < 0 || to > shape[0] || from > to)
+            throw new IndexOutOfBoundsException("Slice [" + from + ", " + to + ") out of " + shape[0]);
+        int[] shape_ = shape.clone();
+        shape_[0] = to - from;
+        return new Tensor(data, floats, buffer, offset + from * strides[0], shape_);
+    }
+
+    public Tensor reshape(int... shape) {
+        if (product(shape) != length)
+            throw new IllegalArgumentException("Cannot reshape " + Arrays.toString(this.shape) + " to " + Arrays.toString(shape));
+        return new Tensor(data, floats, buffer, offset, shape);
+    }
+
+    /** Element access */
+    public int index(int i, int j) { return offset + i * strides[0] + j; }
+    public int index(int i, int j, int k) { return offset + i * strides[0] + j * strides[1] + k; }
+    public int index(int i, int j, int k, int l) { return offset + i * strides[0] + j * strides[1] + k * strides[2] + l; }
+
+    public double get(int i) { return at(offset + i); }
+    public double get(int i, int j) { return at(index(i, j)); }
+    public double get(int i, int j, int k) { return at(index(i, j, k)); }
+    public double get(int i, int j, int k, int l) { return at(index(i, j, k, l)); }
+    public void set(int i, double v) { put(offset + i, v); }
+    public void set(int i, int j, double v) { put(index(i, j), v); }
+    public void set(int i, int j, int k, double v) { put(index(i, j, k), v); }
+    public void set(int i, int j, int k, int l, double v) { put(index(i, j, k, l), v); }
+
+    private double at(int index) {
+        return data != null ? data[index] : floats != null ? floats[index] : buffer.get(index);
+    }
+    private void put(int index, double v) {
+        if (data != null) data[index] = v;
+        else if (floats != null) floats[index] = (float) v;
+        else throw new ReadOnlyBufferException();
+    }
+
+    /** Bulk operations */
+    public Tensor fill(double value) {
+        if (data != null) Arrays.fill(data, offset, offset + length, value);
+        else if (floats != null) Arrays.fill(floats, offset, offset + length, (float) value);
+        else throw new ReadOnlyBufferException();
+        return this;
+    }
+
+    // copies src into this tensor, rounding or widening the values when the precisions differ
+    public Tensor copyFrom(Tensor src) {
+        if (src.length != length) throw new IllegalArgumentException("Size mismatch: " + src.length + " vs " + length);
+        if (buffer != null) throw new ReadOnlyBufferException();
+        if (src.buffer != null) { for (int i = 0; i < length; i++) put(offset + i, src.buffer.get(src.offset + i)); }
+        else if (data != null && src.data != null) System.arraycopy(src.data, src.offset, data, offset, length);
+        else if (floats != null && src.floats != null) System.arraycopy(src.floats, src.offset, floats, offset, length);
+        else if (data != null) { for (int i = 0; i < length; i++) data[offset + i] = src.floats[src.offset + i]; }
+        else { for (int i = 0; i < length; i++) floats[offset + i] = (float) src.data[src.offset + i]; }
+        return this;
+    }
+
+    public Tensor copy() { return new Tensor(precision(), shape).copyFrom(this); }
+
+    // this tensor if it is already stored in the given precision, a converted copy otherwise
+    public Tensor to(Precision precision) {
+        return precision.isFloat() == isFloat() ? this : new Tensor(precision, shape).copyFrom(this);
+    }
+
+    public double[] toArray() {
+        if (data != null) return Arrays.copyOfRange(data, offset, offset + length);
+        double[] x = new double[length];
+        for (int i = 0; i < length; i++) x[i] = at(offset + i);
+        return x;
+    }
+
+    public double[][] toArray2D() {
+        double[][] x = new double[shape[0]][];
+        for (int i = 0; i < shape[0]; i++) x[i] = slice(i).toArray();
+        return x;
+    }
+
+    private static int product(int[] shape) {
+        int n = 1;
+        for (int d : shape) {
+            if (d < 0) throw new IllegalArgumentException("Negative dimension in shape " + Arrays.toString(shape));
+            n *= d;
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return (isFloat() ? "FloatTensor" : isMapped() ? "MappedTensor" : "Tensor") + Arrays.toString(shape);
+    }
+
+    /** Getters */
+    // the values of a double tensor on the heap, null for float tensors; a mapped tensor has none to write into
+    public double[] data() {
+        if (buffer != null) throw new ReadOnlyBufferException();
+        return data;
+    }
+    public float[] floats() { return floats; }
+    // the read-only storage of a mapped tensor, indexed as data() would be, null on the heap
+    public DoubleBuffer buffer() { return buffer; }
+    public boolean isFloat() { return floats != null; }
+    public boolean isMapped() { return buffer != null; }
+    public Precision precision() { return floats != null ? Precision.FLOAT : Precision.DOUBLE; }
+    public int offset() { return offset; }
+    public int rank() { return shape.length; }
+    public int size(int dim) { return shape[dim]; }
+    public int stride(int dim) { return strides[dim]; }
+    public int length() { return length; }
+    public int[] getShape() { return shape.clone(); }
+    public int[] getStrides() { return strides.clone(); }
+}
@@ -0,0 +1,182 @@
+package com.isaac.utils;
+
+/**
+ * Winograd minimal filtering F(m x m, 3 x 3) for unit-stride 3x3 convolutions. An m x m output tile is computed from an
+ * (m + 2) x (m + 2) input tile d as A^T [(G g G^T) .* (B^T d B)] A, so the multiplies of a tile drop from 9 m^2 to
+ * (m + 2)^2 per kernel and channel: 2.25x fewer for m = 2, 4x fewer for m = 4. Summed over the input channels, every
+ * one of the (m + 2)^2 transformed positions is a single [nOut, nIn] x [nIn, tiles] GEMM. The larger tile amplifies
+ * rounding more, which double precision absorbs. The kernel transforms are kept until the next call of kernels.
+ */
+@SuppressWarnings("unused")
+public final class Winograd {
+    private static final double[][] G2 = {{1, 0, 0}, {.5, .5, .5}, {.5, -.5, .5}, {0, 0, 1}};
+    private static final double[][] G4 = {{1. / 4, 0, 0}, {-1. / 6, -1. / 6, -1. / 6}, {-1. / 6, 1. / 6, -1. / 6},
+            {1. / 24, 1. / 12, 1. / 6}, {1. / 24, -1. / 12, 1. / 6}, {0, 0, 1}};
+
+    private final int m; // output tile
+    private final int a; // input tile, m + 2
+    private final double[][] G; // kernel transform, B^T and A^T are unrolled in inputTransform and outputTransform
+    private final Winograd shared; // owner of the kernel transforms, this one when null
+    private double[] U; // [a * a, nOut, nIn] transformed kernels
+    private int nOut, nIn;
+    private double[] V; // [a * a, nIn, tiles] transformed input tiles
+    private double[] M; // [a * a, nOut, tiles] their products with the kernels
+    private final double[] d, tmp;
+
+    public Winograd(int m) {
+        this(m, null);
+    }
+
+    private Winograd(int m, Winograd shared) {
+        switch (m) {
+            case 2: G = G2; break;
+            case 4: G = G4; break;
+            default: throw new IllegalArgumentException("Given Winograd tile size not found or un-supported");
+        }
+        this.m = m;
+        this.a = m + 2;
+        this.shared = shared;
+        this.d = new double[a * a];
+        this.tmp = new double[a * a];
+    }
+
+    // an instance reading the kernel transforms of this one with buffers of its own, e.g. one per thread
+    public Winograd share() { return new Winograd(m, this); }
+
+    public static boolean supports(int[] kernelSize) { return kernelSize[0] == 3 && kernelSize[1] == 3; }
+
+    // U = G g G^T of every kernel g of w [nOut, nIn, 3, 3]; transposed reads w as [nIn, nOut, 3, 3] and rotates every
+    // kernel by 180 degrees, which gives the kernels of the input gradient
+    public void kernels(double[] w, int wOff, int nOut, int nIn, boolean transposed) {
+        int aa = a * a, n = nOut * nIn;
+        if (U == null || U.length != aa * n) U = new double[aa * n];
+        this.nOut = nOut;
+        this.nIn = nIn;
+        for (int o = 0; o < nOut; o++) {
+            for (int i = 0; i < nIn; i++) {
+                int g_ = wOff + (transposed ? i * nOut + o : o * nIn + i) * 9;
+                // tmp [a, 3] = G g
+                for (int r = 0; r < a; r++) {
+                    for (int t = 0; t < 3; t++) {
+                        double s_ = 0.;
+                        for (int s = 0; s < 3; s++) {
+                            s_ += G[r][s] * (transposed ? w[g_ + (2 - s) * 3 + 2 - t] : w[g_ + s * 3 + t]);
+                        }
+                        tmp[r * 3 + t] = s_;
+                    }
+                }
+                // U [a, a] = tmp G^T
+                for (int r = 0; r < a; r++) {
+                    for (int q = 0; q < a; q++) {
+                        double s_ = 0.;
+                        for (int t = 0; t < 3; t++) s_ += tmp[r * 3 + t] * G[q][t];
+                        U[(r * a + q) * n + o * nIn + i] = s_;
+                    }
+                }
+            }
+        }
+    }
+
+    // y [nOut, oh, ow] = x [nIn, height, width] zero-padded by pad on every side and correlated with the kernels, where
+    // oh = height + 2 pad - 2 and ow = width + 2 pad - 2
+    public void convolve(double[] x, int xOff, int height, int width, int pad, double[] y, int yOff) {
+        Winograd k_ = shared == null ? this : shared;
+        int nOut = k_.nOut, nIn = k_.nIn;
+        int oh = height + 2 * pad - 2, ow = width + 2 * pad - 2;
+        int th = (oh + m - 1) / m, tw = (ow + m - 1) / m, tiles = th * tw, aa = a * a;
+        if (V == null || V.length != aa * nIn * tiles) V = new double[aa * nIn * tiles];
+        if (M == null || M.length != aa * nOut * tiles) M = new double[aa * nOut * tiles];
+        // input transform V = B^T d B of every tile of every channel, border tiles are read through a zero-padded copy
+        int vs = nIn * tiles; // stride between transformed positions
+        for (int c = 0; c < nIn; c++) {
+            for (int ti = 0; ti < th; ti++) {
+                for (int tj = 0; tj < tw; tj++) {
+                    int r0 = ti * m - pad, q0 = tj * m - pad;
+                    double[] src = x;
+                    int sOff = xOff + (c * height + r0) * width + q0, sStride = width;
+                    if (r0 < 0 || q0 < 0 || r0 + a > height || q0 + a > width) {
+                        for (int u = 0; u < a; u++) {
+                            int r = r0 + u;
+                            for (int v = 0; v < a; v++) {
+                                int q = q0 + v;
+                                boolean in_ = r >= 0 && r < height && q >= 0 && q < width;
+                                d[u * a + v] = in_ ? x[xOff + (c * height + r) * width + q] : 0.;
+                            }
+                        }
+                        src = d;
+                        sOff = 0;
+                        sStride = a;
+                    }
+                    for (int v = 0; v < a; v++) inputTransform(src, sOff + v, sStride, tmp, v, a); // columns
+                    int vOff = c * tiles + ti * tw + tj;
+                    for (int u = 0; u < a; u++) inputTransform(tmp, u * a, 1, V, vOff + u * a * vs, vs); // rows
+                }
+            }
+        }
+        // M_e [nOut, tiles] = U_e [nOut, nIn] * V_e [nIn, tiles] at every transformed position e
+        for (int e = 0; e < aa; e++) {
+            Gemm.gemm(false, false, nOut, tiles, nIn, 1., k_.U, e * nOut * nIn, nIn, V, e * vs, tiles, 0.,
+                    M, e * nOut * tiles, tiles);
+        }
+        // output transform A^T M A, border tiles are clipped
+        int ms = nOut * tiles;
+        for (int o = 0; o < nOut; o++) {
+            for (int ti = 0; ti < th; ti++) {
+                for (int tj = 0; tj < tw; tj++) {
+                    int mOff = o * tiles + ti * tw + tj;
+                    for (int v = 0; v < a; v++) outputTransform(M, mOff + v * ms, a * ms, tmp, v, a); // columns
+                    int rows = Math.min(m, oh - ti * m), cols = Math.min(m, ow - tj * m);
+                    int yRow = yOff + (o * oh + ti * m) * ow + tj * m;
+                    for (int u = 0; u < rows; u++) {
+                        if (cols == m) {
+                            outputTransform(tmp, u * a, 1, y, yRow + u * ow, 1); // rows
+                            continue;
+                        }
+                        outputTransform(tmp, u * a, 1, d, 0, 1);
+                        System.arraycopy(d, 0, y, yRow + u * ow, cols);
+                    }
+                }
+            }
+        }
+    }
+
+    // B^T of the a values s[o + l * st] into d[dO + l * dSt]
+    private void inputTransform(double[] s, int o, int st, double[] d, int dO, int dSt) {
+        if (m == 2) {
+            double d0 = s[o], d1 = s[o + st], d2 = s[o + 2 * st], d3 = s[o + 3 * st];
+            d[dO] = d0 - d2;
+            d[dO + dSt] = d1 + d2;
+            d[dO + 2 * dSt] = d2 - d1;
+            d[dO + 3 * dSt] = d1 - d3;
+            return;
+        }
+        double d0 = s[o], d1 = s[o + st], d2 = s[o + 2 * st], d3 = s[o + 3 * st], d4 = s[o + 4 * st];
+        double d5 = s[o + 5 * st];
+        d[dO] = 4 * d0 - 5 * d2 + d4;
+        d[dO + dSt] = -4 * (d1 + d2) + d3 + d4;
+        d[dO + 2 * dSt] = 4 * (d1 - d2) - d3 + d4;
+        d[dO + 3 * dSt] = 2 * (d3 - d1) - d2 + d4;
+        d[dO + 4 * dSt] = 2 * (d1 - d3) - d2 + d4;
+        d[dO + 5 * dSt] = 4 * d1 - 5 * d3 + d5;
+    }
+
+    // A^T of the a values s[o + l * st] into the m values d[dO + l * dSt]
+    private void outputTransform(double[] s, int o, int st, double[] d, int dO, int dSt) {
+        if (m == 2) {
+            double m0 = s[o], m1 = s[o + st], m2 = s[o + 2 * st], m3 = s[o + 3 * st];
+            d[dO] = m0 + m1 + m2;
+            d[dO + dSt] = m1 - m2 - m3;
+            return;
+        }
+        double m0 = s[o], m1 = s[o + st], m2 = s[o + 2 * st], m3 = s[o + 3 * st], m4 = s[o + 4 * st];
+        double m5 = s[o + 5 * st];
+        double p12 = m1 + m2, n12 = m1 - m2, p34 = m3 + m4, n34 = m3 - m4;
+        d[dO] = m0 + p12 + p34;
+        d[dO + dSt] = n12 + 2 * n34;
+        d[dO + 2 * dSt] = p12 + 4 * p34;
+        d[dO + 3 * dSt] = n12 + 8 * n34 + m5;
+    }
+
+    /** Getters */
+    public int getTileSize() { return m; }
+}
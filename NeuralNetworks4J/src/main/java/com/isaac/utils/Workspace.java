@@ -0,0 +1,50 @@
+package com.isaac.utils;
+
+import com.isaac.initialization.Precision;
+
+/**
+ * Numbered scratch tensors reused across training steps. A network gives each of its per-step buffers a fixed slot;
+ * the first step allocates the tensor of every slot and later steps get the very same tensor back, so a steady-state
+ * step does not allocate. A slot is only re-allocated when the requested shape changes, e.g. for a different
+ * minibatch size. Returned tensors keep the values of the previous step, callers overwrite them.
+ */
+@SuppressWarnings("unused")
+public final class Workspace {
+    private final Tensor[] buffers;
+
+    public Workspace(int slots) {
+        this.buffers = new Tensor[slots];
+    }
+
+    public Tensor get(int slot, int d0, int d1) { return get(slot, Precision.DOUBLE, d0, d1); }
+
+    public Tensor get(int slot, int d0, int d1, int d2) { return get(slot, Precision.DOUBLE, d0, d1, d2); }
+
+    public Tensor get(int slot, int d0, int d1, int d2, int d3) { return get(slot, Precision.DOUBLE, d0, d1, d2, d3); }
+
+    public Tensor get(int slot, Precision precision, int d0, int d1) {
+        Tensor t = buffers[slot];
+        if (t == null || t.isFloat() != precision.isFloat() || t.rank() != 2 || t.size(0) != d0 || t.size(1) != d1)
+            t = buffers[slot] = new Tensor(precision, d0, d1);
+        return t;
+    }
+
+    public Tensor get(int slot, Precision precision, int d0, int d1, int d2) {
+        Tensor t = buffers[slot];
+        if (t == null || t.isFloat() != precision.isFloat() || t.rank() != 3 || t.size(0) != d0 || t.size(1) != d1
+                || t.size(2) != d2)
+            t = buffers[slot] = new Tensor(precision, d0, d1, d2);
+        return t;
+    }
+
+    public Tensor get(int slot, Precision precision, int d0, int d1, int d2, int d3) {
+        Tensor t = buffers[slot];
+        if (t == null || t.isFloat() != precision.isFloat() || t.rank() != 4 || t.size(0) != d0 || t.size(1) != d1
+                || t.size(2) != d2 || t.size(3) != d3)
+            t = buffers[slot] = new Tensor(precision, d0, d1, d2, d3);
+        return t;
+    }
+
+    /** Getters */
+    public int getSlots() { return buffers.length; }
+}
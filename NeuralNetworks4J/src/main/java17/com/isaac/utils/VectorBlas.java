@@ -0,0 +1,57 @@
+package com.isaac.utils;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The double kernels of {@link Blas} on the SIMD lanes of the Vector API, in the widest shape the CPU has, e.g. 4
+ * doubles with AVX2 and 8 with AVX-512. Reductions keep two vector accumulators, so two lane-wise additions are in
+ * flight at once, and fold them lane by lane at the end; the tail shorter than a vector runs scalar. Compiled for Java
+ * 17 against jdk.incubator.vector by the vector profile of the build, and only ever loaded by Blas through reflection.
+ */
+final class VectorBlas implements Blas.Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double dot(int n, double[] x, int xOff, double[] y, int yOff) {
+        int lanes = SPECIES.length(), bound = SPECIES.loopBound(n), i = 0;
+        DoubleVector s0 = DoubleVector.zero(SPECIES), s1 = DoubleVector.zero(SPECIES);
+        for (; i + 2 * lanes <= bound; i += 2 * lanes) {
+            s0 = DoubleVector.fromArray(SPECIES, x, xOff + i).mul(DoubleVector.fromArray(SPECIES, y, yOff + i)).add(s0);
+            s1 = DoubleVector.fromArray(SPECIES, x, xOff + i + lanes)
+                    .mul(DoubleVector.fromArray(SPECIES, y, yOff + i + lanes)).add(s1);
+        }
+        for (; i < bound; i += lanes) {
+            s0 = DoubleVector.fromArray(SPECIES, x, xOff + i).mul(DoubleVector.fromArray(SPECIES, y, yOff + i)).add(s0);
+        }
+        double s = s0.add(s1).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) s += x[xOff + i] * y[yOff + i];
+        return s;
+    }
+
+    @Override
+    public void axpy(int n, double a, double[] x, int xOff, double[] y, int yOff) {
+        int lanes = SPECIES.length(), bound = SPECIES.loopBound(n), i = 0;
+        DoubleVector a_ = DoubleVector.broadcast(SPECIES, a);
+        for (; i < bound; i += lanes) {
+            DoubleVector.fromArray(SPECIES, x, xOff + i).mul(a_).add(DoubleVector.fromArray(SPECIES, y, yOff + i))
+                    .intoArray(y, yOff + i);
+        }
+        for (; i < n; i++) y[yOff + i] += a * x[xOff + i];
+    }
+
+    @Override
+    public double sum(int n, double[] x, int xOff) {
+        int lanes = SPECIES.length(), bound = SPECIES.loopBound(n), i = 0;
+        DoubleVector s0 = DoubleVector.zero(SPECIES), s1 = DoubleVector.zero(SPECIES);
+        for (; i + 2 * lanes <= bound; i += 2 * lanes) {
+            s0 = s0.add(DoubleVector.fromArray(SPECIES, x, xOff + i));
+            s1 = s1.add(DoubleVector.fromArray(SPECIES, x, xOff + i + lanes));
+        }
+        for (; i < bound; i += lanes) s0 = s0.add(DoubleVector.fromArray(SPECIES, x, xOff + i));
+        double s = s0.add(s1).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) s += x[xOff + i];
+        return s;
+    }
+}
@@ -4,6 +4,7 @@ import com.isaac.initialization.Activation;
 import com.isaac.neuralnetworks.ConvolutionalNeuralNetworks;
 import com.isaac.utils.Evaluation;
 import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.Tensor;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -100,6 +101,9 @@ public class ConvolutionalNeuralNetworksExample {
         // Build Convolutional Neural Networks model
         System.out.print("Building the model...");
         ConvolutionalNeuralNetworks classifier = new ConvolutionalNeuralNetworks(imageSize, channel, nKernels, kernelSizes, poolSizes, nHidden, patterns, rng, Activation.ReLU);
+        Tensor trainX = Tensor.of(trainSetMinibatch);
+        Tensor trainT = Tensor.of(trainLabelMinibatch);
+        Tensor testX = Tensor.of(testSet);
         System.out.println("done.");
         // train the model
         System.out.print("Training the model...");
@@ -107,14 +111,14 @@ public class ConvolutionalNeuralNetworksExample {
         for (int epoch = 0; epoch < epochs; epoch++) {
             if ((epoch + 1) % 50 == 0) System.out.println("\titer = " + (epoch + 1) + " / " + epochs);
             for (int batch = 0; batch < minibatchNumber; batch++) {
-                classifier.train(trainSetMinibatch[batch], trainLabelMinibatch[batch], minibatchSize, learningRate);
+                classifier.train(trainX.slice(batch), trainT.slice(batch), minibatchSize, learningRate);
             }
             learningRate *= 0.999;
         }
         System.out.println("done.");
         // test
         for (int i = 0; i < testSetSize; i++) {
-            predictLabel[i] = classifier.predict(testSet[i]);
+            predictLabel[i] = classifier.predict(testX.slice(i));
         }
 
         // Evaluate the model
@@ -3,6 +3,7 @@ package com.isaac.examples;
 import com.isaac.initialization.Activation;
 import com.isaac.layers.DenoisingAutoencoder;
 import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.Tensor;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -83,16 +84,17 @@ public class DenoisingAutoencoderExample {
         // construct DA
         DenoisingAutoencoder nn = new DenoisingAutoencoder(nVisible, nHidden, null, null, null, rng,
                 Activation.Sigmoid);
+        Tensor trainX = Tensor.of(trainSetMinibatch);
 
         // train
         for (int epoch = 0; epoch < epochs; epoch++) {
             for (int batch = 0; batch < minibatchNumber; batch++) {
-                nn.train(trainSetMinibatch[batch], minibatchSize, learningRate, corruptionLevel);
+                nn.train(trainX.slice(batch), minibatchSize, learningRate, corruptionLevel);
             }
         }
 
         // test (reconstruct noised data)
-        for (int i = 0; i < testSetSize; i++) reconstructedSet[i] = nn.reconstruct(testSet[i]);
+        for (int i = 0; i < testSetSize; i++) reconstructedSet[i] = nn.reconstruct(Tensor.wrap(testSet[i])).toArray();
 
         // evaluation
         System.out.println("-----------------------------------");
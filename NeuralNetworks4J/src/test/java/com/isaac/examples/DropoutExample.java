@@ -4,6 +4,7 @@ import com.isaac.initialization.Activation;
 import com.isaac.neuralnetworks.DropoutNetworks;
 import com.isaac.utils.Evaluation;
 import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.Tensor;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -36,7 +37,7 @@ public class DropoutExample {
         Integer[][] predictLabels = new Integer[testSetsSize][patterns];
 
         int epochs = 5000;
-        double learningRate = 0.2;
+        double learningRate = 0.1;
         int minibatchSize = 50;
         final int minibatchNumber = trainSetsSize / minibatchSize;
 
@@ -91,25 +92,22 @@ public class DropoutExample {
         // Build Dropout model
         System.out.print("Building the model...");
         DropoutNetworks classifier = new DropoutNetworks(nIn, hiddenLayerSizes, patterns, rng, Activation.ReLU);
+        Tensor trainX = Tensor.of(trainSetMinibatch);
+        Tensor trainT = Tensor.of(trainLabelMinibatch);
         System.out.println("done.");
 
         // train the model
         System.out.print("Training the model...");
         for (int epoch = 0; epoch < epochs; epoch++) {
             for (int batch = 0; batch < minibatchNumber; batch++) {
-                classifier.train(trainSetMinibatch[batch], trainLabelMinibatch[batch], minibatchSize, learningRate, pDropout);
+                classifier.train(trainX.slice(batch), trainT.slice(batch), minibatchSize, learningRate, pDropout);
             }
             learningRate *= 0.999;
         }
         System.out.println("done.");
 
-        // adjust the weight for testing
-        System.out.print("Optimizing weights before testing...");
-        classifier.pretest(pDropout);
-        System.out.println("done.");
-
         // test
-        for (int i = 0; i < testSetsSize; i++) predictLabels[i] = classifier.predict(testSets[i]);
+        for (int i = 0; i < testSetsSize; i++) predictLabels[i] = classifier.predict(Tensor.wrap(testSets[i]));
 
         // Evaluate the model
         Evaluation evaluation = new Evaluation(predictLabels, testLabels).fit();
@@ -3,6 +3,7 @@ package com.isaac.examples;
 import com.isaac.layers.LogisticLayer;
 import com.isaac.utils.Evaluation;
 import com.isaac.utils.GaussianDistribution;
+import com.isaac.utils.Tensor;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -95,17 +96,19 @@ public class LogisticRegressionExample {
 
 		// Build Logistic Regression model
 		LogisticLayer classifier = new LogisticLayer(nIn, patterns); // construct logistic regression
+		Tensor trainX = Tensor.of(trainSetMinibatch);
+		Tensor trainT = Tensor.of(trainLabelMinibatch);
 
 		// train
 		for (int epoch = 0; epoch < epochs; epoch++) {
 			for (int batch = 0; batch < minibatchNumber; batch++) {
-				classifier.train(trainSetMinibatch[batch], trainLabelMinibatch[batch], minibatchSize, learningRate);
+				classifier.train(trainX.slice(batch), trainT.slice(batch), minibatchSize, learningRate);
 			}
 			learningRate *= 0.95;
 		}
 
 		// test
-		for (int i = 0; i < testLabelSize; i++) predictLabel[i] = classifier.predict(testSet[i]);
+		for (int i = 0; i < testLabelSize; i++) predictLabel[i] = classifier.predict(Tensor.wrap(testSet[i]));
 
 		//Evaluate the model
 		Evaluation evaluation = new Evaluation(predictLabel, testLabel).fit();
@@ -1,6 +1,7 @@
 package com.isaac.examples;
 
 import com.isaac.layers.LogisticLayer;
+import com.isaac.utils.Tensor;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -56,17 +57,19 @@ public class LogisticRegressionXORExample {
 
 		// Build Logistic Regression model
 		LogisticLayer classifier = new LogisticLayer(nIn, patterns); // construct logistic regression
+		Tensor trainX = Tensor.of(train_X_minibatch);
+		Tensor trainT = Tensor.of(train_T_minibatch);
 
 		// train
 		for (int epoch = 0; epoch < epochs; epoch++) {
 			for (int batch = 0; batch < minibatchNumber; batch++) {
-				classifier.train(train_X_minibatch[batch], train_T_minibatch[batch], minibatchSize, learningRate);
+				classifier.train(trainX.slice(batch), trainT.slice(batch), minibatchSize, learningRate);
 			}
 			learningRate *= 0.95;
 		}
 
 		// test
-		for (int i = 0; i < testSetSize; i++) predictLabel[i] = classifier.predict(testSet[i]);
+		for (int i = 0; i < testSetSize; i++) predictLabel[i] = classifier.predict(Tensor.wrap(testSet[i]));
 
 		// output
 		for (int i = 0; i < testSetSize; i++) {
@@ -3,6 +3,7 @@ package com.isaac.examples;
 import com.isaac.initialization.Activation;
 import com.isaac.neuralnetworks.MultiLayerPerceptron;
 import com.isaac.utils.Evaluation;
+import com.isaac.utils.Tensor;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -56,16 +57,18 @@ public class MultiLayerPerceptronExample {
 
 		// Build Multi-Layer Perceptrons model
 		MultiLayerPerceptron classifier = new MultiLayerPerceptron(nIn, nHidden, patterns, rng, Activation.Tanh);
+		Tensor trainX = Tensor.of(trainSetMinibatch);
+		Tensor trainT = Tensor.of(trainLabelMinibatch);
 
 		// train
 		for (int epoch = 0; epoch < epochs; epoch++) {
 			for (int batch = 0; batch < minibatchNumber; batch++) {
-				classifier.train(trainSetMinibatch[batch], trainLabelMinibatch[batch], minibatchSize, learningRate);
+				classifier.train(trainX.slice(batch), trainT.slice(batch), minibatchSize, learningRate);
 			}
 		}
 
 		// test
-		for (int i = 0; i < testSetSize; i++) predictLabel[i] = classifier.predict(testSet[i]);
+		for (int i = 0; i < testSetSize; i++) predictLabel[i] = classifier.predict(Tensor.wrap(testSet[i]));
 
 		// Evaluate the model
 		Evaluation evaluation = new Evaluation(predictLabel, testLabel).fit();
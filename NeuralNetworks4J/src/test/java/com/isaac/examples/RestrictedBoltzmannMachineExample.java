@@ -3,6 +3,7 @@ package com.isaac.examples;
 import com.isaac.initialization.Activation;
 import com.isaac.layers.RestrictedBoltzmannMachine;
 import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.Tensor;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -83,17 +84,19 @@ public class RestrictedBoltzmannMachineExample {
         // Build Restricted Boltzmann Machines model
         RestrictedBoltzmannMachine nn = new RestrictedBoltzmannMachine(nVisible, nHidden, null, null, null, rng,
                 Activation.Sigmoid);
+        Tensor trainX = Tensor.of(train_X_minibatch);
+        Tensor testX = Tensor.of(test_X);
         
         // train with contrastive divergence
         for (int epoch = 0; epoch < epochs; epoch++) {
         	for (int batch = 0; batch < minibatch_N; batch++)
-        	    nn.contrastiveDivergence(train_X_minibatch[batch], minibatchSize, learningRate, k);
+        	    nn.contrastiveDivergence(trainX.slice(batch), minibatchSize, learningRate, k);
         	learningRate *= 0.995; // update learningRate
         }
         
         // test (reconstruct noised data)
         for (int i = 0; i < test_N; i++) {
-            reconstructed_X[i] = nn.reconstruct(test_X[i]);
+            reconstructed_X[i] = nn.reconstruct(testX.slice(i)).toArray();
         }
         
         // evaluation
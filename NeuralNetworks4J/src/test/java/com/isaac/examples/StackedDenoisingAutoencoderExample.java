@@ -3,6 +3,7 @@ package com.isaac.examples;
 import com.isaac.neuralnetworks.StackedDenoisingAutoencoder;
 import com.isaac.utils.Evaluation;
 import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.Tensor;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -116,12 +117,15 @@ public class StackedDenoisingAutoencoderExample {
         // Build Stacked Denoising AutoEncoder model
         System.out.print("Building the model...");
         StackedDenoisingAutoencoder classifier = new StackedDenoisingAutoencoder(nIn, hiddenLayerSizes, patterns, rng);
+        Tensor trainX = Tensor.of(trainSetMinibatch);
+        Tensor validateX = Tensor.of(validateSetMinibatch);
+        Tensor validateT = Tensor.of(validateLabelMinibatch);
         System.out.println(" done.");
 
 
         // pre-training the model
         System.out.print("Pre-training the model...");
-        classifier.pretrain(trainSetMinibatch, minibatchSize, trainSetMinibatchNumber, pretrainEpochs, pretrainLearningRate,
+        classifier.pretrain(trainX, minibatchSize, trainSetMinibatchNumber, pretrainEpochs, pretrainLearningRate,
                 corruptionLevel);
         System.out.println("done.");
 
@@ -130,7 +134,7 @@ public class StackedDenoisingAutoencoderExample {
         System.out.print("Fine-tuning the model...");
         for (int epoch = 0; epoch < finetuneEpochs; epoch++) {
             for (int batch = 0; batch < validateSetMinibatchNumber; batch++) {
-                classifier.finetune(validateSetMinibatch[batch], validateLabelMinibatch[batch], minibatchSize,
+                classifier.finetune(validateX.slice(batch), validateT.slice(batch), minibatchSize,
                         finetuneLearningRate);
             }
             finetuneLearningRate *= 0.98;
@@ -139,7 +143,7 @@ public class StackedDenoisingAutoencoderExample {
 
 
         // test
-        for (int i = 0; i < testSetSize; i++) predictLabel[i] = classifier.predict(testSet[i]);
+        for (int i = 0; i < testSetSize; i++) predictLabel[i] = classifier.predict(Tensor.wrap(testSet[i]));
 
         // Evaluate the model
         Evaluation evaluation = new Evaluation(predictLabel, testLabel).fit();
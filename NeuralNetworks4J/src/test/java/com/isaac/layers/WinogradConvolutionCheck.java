@@ -0,0 +1,74 @@
+package com.isaac.layers;
+
+import com.isaac.initialization.Activation;
+import com.isaac.initialization.ConvolutionMode;
+import com.isaac.utils.Tensor;
+
+import java.util.Random;
+
+/**
+ * Runs one training step of the same seeded convolution + pooling layer with the direct loop and with the Winograd
+ * engine and checks that the pooled outputs, the delta of the input and the updated kernels agree. 3x3 kernels on a
+ * convolved map of at least 8x8 take the F(4x4, 3x3) tiles, smaller maps the F(2x2, 3x3) ones; both image sizes leave
+ * ragged tiles at the borders. Exits with status 1 on a mismatch.
+ */
+public class WinogradConvolutionCheck {
+	// largest difference allowed, relative to the magnitude of the direct result when it exceeds 1
+	private static final double TOLERANCE = 1e-9;
+
+	public static void main(String[] args) {
+		boolean passed = check(new int[]{13, 11}) // convolved 11x9, F(4x4, 3x3) tiles
+				& check(new int[]{9, 8}); // convolved 7x6, F(2x2, 3x3) tiles
+		System.out.println(passed ? "Winograd convolution matches the direct loop" : "Winograd convolution mismatch");
+		if (!passed) System.exit(1);
+	}
+
+	private static boolean check(int[] imageSize) {
+		int channel = 2, nKernel = 3, minibatchSize = 4;
+		int[] kernelSize = {3, 3}, poolSize = {2, 2};
+		int[] convolvedSize = {imageSize[0] - kernelSize[0] + 1, imageSize[1] - kernelSize[1] + 1};
+		int[] pooledSize = {convolvedSize[0] / poolSize[0], convolvedSize[1] / poolSize[1]};
+		ConvolutionPoolingLayer direct = new ConvolutionPoolingLayer(imageSize, channel, nKernel, kernelSize, poolSize,
+				convolvedSize, pooledSize, new Random(1234), Activation.Sigmoid, ConvolutionMode.DIRECT);
+		ConvolutionPoolingLayer winograd = new ConvolutionPoolingLayer(imageSize, channel, nKernel, kernelSize,
+				poolSize, convolvedSize, pooledSize, new Random(1234), Activation.Sigmoid, ConvolutionMode.WINOGRAD);
+
+		Random rng = new Random(42);
+		Tensor X = random(rng, minibatchSize, channel, imageSize[0], imageSize[1]);
+		Tensor dY = random(rng, minibatchSize, nKernel, pooledSize[0], pooledSize[1]);
+		Tensor[] expected = step(direct, X, dY, minibatchSize);
+		Tensor[] actual = step(winograd, X, dY, minibatchSize);
+
+		String at = imageSize[0] + "x" + imageSize[1];
+		return compare(at + " pooled outputs", expected[0], actual[0])
+				& compare(at + " dX", expected[1], actual[1])
+				& compare(at + " updated W", expected[2], actual[2]);
+	}
+
+	// forward and backward of one minibatch, returns the pooled outputs, the delta of the input and the updated W
+	private static Tensor[] step(ConvolutionPoolingLayer layer, Tensor X, Tensor dY, int minibatchSize) {
+		int[] pooledSize = layer.getPooledSize(), imageSize = layer.getImageSize();
+		Tensor Y = new Tensor(minibatchSize, layer.getnKernel(), pooledSize[0], pooledSize[1]);
+		Tensor dX = new Tensor(minibatchSize, layer.getChannel(), imageSize[0], imageSize[1]);
+		layer.forward(X, Y, minibatchSize);
+		layer.backward(X, Y, dY, dX, minibatchSize, 0.1);
+		return new Tensor[]{Y, dX, layer.getW()};
+	}
+
+	private static boolean compare(String what, Tensor expected, Tensor actual) {
+		double worst = 0.;
+		for (int i = 0; i < expected.length(); i++) {
+			double e = expected.get(i);
+			worst = Math.max(worst, Math.abs(e - actual.get(i)) / Math.max(1., Math.abs(e)));
+		}
+		boolean passed = worst <= TOLERANCE;
+		System.out.printf("%s: max difference %.3e %s%n", what, worst, passed ? "ok" : "> " + TOLERANCE);
+		return passed;
+	}
+
+	private static Tensor random(Random rng, int... shape) {
+		Tensor t = new Tensor(shape);
+		for (int i = 0; i < t.length(); i++) t.set(i, rng.nextDouble() * 2. - 1.);
+		return t;
+	}
+}
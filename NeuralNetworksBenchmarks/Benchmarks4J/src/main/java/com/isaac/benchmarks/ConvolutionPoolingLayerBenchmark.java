@@ -0,0 +1,78 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.initialization.ConvolutionMode;
+import com.isaac.initialization.Precision;
+import com.isaac.layers.ConvolutionPoolingLayer;
+import com.isaac.utils.Tensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// NeuralNetworksND4J has no convolution layer, this kernel is measured on NeuralNetworks4J only
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConvolutionPoolingLayerBenchmark {
+    @Param({"28"})
+    private int imageSize;
+    @Param({"1", "16"})
+    private int channel;
+    @Param({"16", "32"})
+    private int nKernel;
+    @Param({"3", "5"})
+    private int kernelSize;
+    @Param({"2"})
+    private int poolSize;
+    @Param({"1", "50"})
+    private int minibatchSize;
+    // -p convolutionMode=DIRECT,IM2COL,WINOGRAD compares the engines, WINOGRAD takes 3x3 kernels only
+    @Param({"AUTO"})
+    private ConvolutionMode convolutionMode;
+    @Param({"1"})
+    private int threads;
+
+    private ConvolutionPoolingLayer layer;
+    private Tensor X, Y, dY, dX;
+
+    @Setup
+    public void setup() {
+        Random rng = new Random(Inputs.SEED);
+        int convolved = imageSize - kernelSize + 1, pooled = convolved / poolSize;
+        layer = new ConvolutionPoolingLayer(new int[]{imageSize, imageSize}, channel, nKernel,
+                new int[]{kernelSize, kernelSize}, new int[]{poolSize, poolSize}, new int[]{convolved, convolved},
+                new int[]{pooled, pooled}, rng, Activation.ReLU, convolutionMode);
+        layer.setParallelism(Inputs.parallelism(threads));
+        X = Inputs.uniform(rng, Precision.DOUBLE, 0., 1., minibatchSize, channel, imageSize, imageSize);
+        Y = new Tensor(minibatchSize, nKernel, pooled, pooled);
+        dY = Inputs.uniform(rng, Precision.DOUBLE, -0.1, 0.1, minibatchSize, nKernel, pooled, pooled);
+        dX = new Tensor(minibatchSize, channel, imageSize, imageSize);
+        layer.forward(X, Y, minibatchSize);
+    }
+
+    // convolution, max pooling and activation, keeping the position of every max
+    @Benchmark
+    public Tensor forward() {
+        return layer.forward(X, Y, minibatchSize);
+    }
+
+    // the gradients of the kernels and the bias, their update and the delta of X
+    @Benchmark
+    public Tensor backward() {
+        return layer.backward(X, Y, dY, dX, minibatchSize, 0.01);
+    }
+}
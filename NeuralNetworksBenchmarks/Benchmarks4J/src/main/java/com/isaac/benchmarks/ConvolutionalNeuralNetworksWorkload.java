@@ -0,0 +1,37 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.initialization.ConvolutionMode;
+import com.isaac.initialization.Precision;
+import com.isaac.neuralnetworks.ConvolutionalNeuralNetworks;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+
+import java.util.Random;
+
+// ConvolutionalNeuralNetworksExample: 12x12 images of 3 striped patterns, two ReLU convolution + pooling layers of 10
+// 3x3 and 20 2x2 kernels and a hidden layer of 20 units
+final class ConvolutionalNeuralNetworksWorkload extends SupervisedWorkload {
+    private final ConvolutionalNeuralNetworks network;
+
+    ConvolutionalNeuralNetworksWorkload(Precision precision, Parallelism parallelism) {
+        this(new Random(Inputs.SEED), precision, parallelism);
+    }
+
+    private ConvolutionalNeuralNetworksWorkload(Random rng, Precision precision, Parallelism parallelism) {
+        super(Samples.images(rng, 3, 50, 1, 12, 0.05).shuffle(rng), Samples.images(rng, 3, 10, 1, 12, 0.10), 25, 500,
+                0.1, 0.999, 1, 12, 12);
+        network = new ConvolutionalNeuralNetworks(new int[]{12, 12}, 1, new int[]{10, 20},
+                new int[][]{{3, 3}, {2, 2}}, new int[][]{{2, 2}, {2, 2}}, 20, 3, rng, Activation.ReLU,
+                ConvolutionMode.AUTO, precision);
+        network.setParallelism(parallelism);
+    }
+
+    @Override
+    void train(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        network.train(X, T, minibatchSize, learningRate);
+    }
+
+    @Override
+    int[] classify(Tensor X) { return network.predictClasses(X); }
+}
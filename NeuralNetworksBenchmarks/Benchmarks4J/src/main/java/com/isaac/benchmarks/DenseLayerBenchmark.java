@@ -0,0 +1,68 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.initialization.Precision;
+import com.isaac.layers.DenseLayer;
+import com.isaac.utils.Tensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DenseLayerBenchmark {
+    @Param({"256", "784"})
+    private int nIn;
+    @Param({"64", "500"})
+    private int nOut;
+    @Param({"1", "50", "256"})
+    private int minibatchSize;
+    @Param({"DOUBLE", "FLOAT", "MIXED"})
+    private Precision precision;
+    @Param({"1"})
+    private int threads;
+
+    private DenseLayer layer;
+    private Tensor X, Y, dY, dX;
+    private Tensor delta; // the delta of Y every backward starts from, dY is overwritten by a backward pass
+
+    @Setup
+    public void setup() {
+        Random rng = new Random(Inputs.SEED);
+        layer = new DenseLayer(nIn, nOut, null, null, rng, Activation.Sigmoid, precision);
+        layer.setParallelism(Inputs.parallelism(threads));
+        X = Inputs.uniform(rng, precision, 0., 1., minibatchSize, nIn);
+        Y = new Tensor(precision, minibatchSize, nOut);
+        dY = new Tensor(precision, minibatchSize, nOut);
+        dX = new Tensor(precision, minibatchSize, nIn);
+        delta = Inputs.uniform(rng, precision, -0.1, 0.1, minibatchSize, nOut);
+        layer.forward(X, Y, minibatchSize);
+    }
+
+    @Benchmark
+    public Tensor forward() {
+        return layer.forward(X, Y, minibatchSize);
+    }
+
+    // the gradients, the update of W and b, and the delta of X
+    @Benchmark
+    public Tensor backward() {
+        dY.copyFrom(delta);
+        return layer.backward(X, Y, dY, dX, minibatchSize, 0.01);
+    }
+}
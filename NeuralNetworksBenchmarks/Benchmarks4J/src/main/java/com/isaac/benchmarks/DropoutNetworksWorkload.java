@@ -0,0 +1,34 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.initialization.Precision;
+import com.isaac.neuralnetworks.DropoutNetworks;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+
+import java.util.Random;
+
+// DropoutExample: 3 noisy patterns of 60 units, ReLU layers of 100 and 80 units trained with dropout
+final class DropoutNetworksWorkload extends SupervisedWorkload {
+    private static final double P_DROPOUT = 0.5;
+    private final DropoutNetworks network;
+
+    DropoutNetworksWorkload(Precision precision, Parallelism parallelism) {
+        this(new Random(Inputs.SEED), precision, parallelism);
+    }
+
+    private DropoutNetworksWorkload(Random rng, Precision precision, Parallelism parallelism) {
+        super(Samples.patterns(rng, 3, 300, 20, 0.2, false).shuffle(rng), Samples.patterns(rng, 3, 50, 20, 0.25, false),
+                50, 5000, 0.1, 0.999, 60);
+        network = new DropoutNetworks(60, new int[]{100, 80}, 3, rng, Activation.ReLU, precision);
+        network.setParallelism(parallelism);
+    }
+
+    @Override
+    void train(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        network.train(X, T, minibatchSize, learningRate, P_DROPOUT);
+    }
+
+    @Override
+    int[] classify(Tensor X) { return network.predictClasses(X); }
+}
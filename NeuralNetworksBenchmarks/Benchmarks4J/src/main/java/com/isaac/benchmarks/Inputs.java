@@ -0,0 +1,63 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Precision;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+
+import java.util.Random;
+
+// seeded inputs of the benchmarks, every trial of a given configuration sees the same data
+final class Inputs {
+    static final long SEED = 1234;
+
+    private Inputs() {}
+
+    static Tensor uniform(Random rng, Precision precision, double min, double max, int... shape) {
+        Tensor x = new Tensor(precision, shape);
+        for (int i = 0; i < x.length(); i++) x.set(i, min + (max - min) * rng.nextDouble());
+        return x;
+    }
+
+    // binary units {0, 1}, as the Boltzmann machines and the autoencoders are fed
+    static Tensor binary(Random rng, int... shape) {
+        Tensor x = new Tensor(shape);
+        for (int i = 0; i < x.length(); i++) x.set(i, rng.nextBoolean() ? 1. : 0.);
+        return x;
+    }
+
+    // [minibatchSize, nOut] one-hot labels
+    static Tensor oneHot(Random rng, Precision precision, int minibatchSize, int nOut) {
+        Tensor t = new Tensor(precision, minibatchSize, nOut);
+        for (int n = 0; n < minibatchSize; n++) t.set(n, rng.nextInt(nOut), 1.);
+        return t;
+    }
+
+    // [N, sample shape] the samples of a data set in their order
+    static Tensor inputs(Samples samples, int... shape) {
+        return new Tensor(samples.flatInputs(), 0, prepend(samples.size(), shape));
+    }
+
+    // [N / minibatchSize, minibatchSize, sample shape] minibatches of the samples in their order, the samples left
+    // over by the last full minibatch are not trained on
+    static Tensor minibatches(Samples samples, int minibatchSize, int... shape) {
+        int[] shape_ = prepend(samples.size() / minibatchSize, prepend(minibatchSize, shape));
+        return new Tensor(samples.flatInputs(), 0, shape_);
+    }
+
+    // [N / minibatchSize, minibatchSize, nOut] the one-hot labels of the minibatches
+    static Tensor targets(Samples samples, int minibatchSize) {
+        return new Tensor(samples.flatTargets(), 0, samples.size() / minibatchSize, minibatchSize, samples.getnOut());
+    }
+
+    // null for single threaded execution, as the layers expect it
+    static Parallelism parallelism(int threads) {
+        return threads > 1 ? new Parallelism(threads) : null;
+    }
+
+    private static int[] prepend(int size, int[] shape) {
+        int[] shape_ = new int[shape.length + 1];
+        shape_[0] = size;
+        System.arraycopy(shape, 0, shape_, 1, shape.length);
+        return shape_;
+    }
+}
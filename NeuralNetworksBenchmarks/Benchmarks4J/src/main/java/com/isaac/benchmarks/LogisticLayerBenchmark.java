@@ -0,0 +1,57 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Precision;
+import com.isaac.layers.LogisticLayer;
+import com.isaac.utils.Tensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogisticLayerBenchmark {
+    @Param({"64", "500"})
+    private int nIn;
+    @Param({"10", "100"})
+    private int nOut;
+    @Param({"1", "50", "256"})
+    private int minibatchSize;
+    @Param({"DOUBLE", "FLOAT", "MIXED"})
+    private Precision precision;
+    @Param({"1"})
+    private int threads;
+
+    private LogisticLayer layer;
+    private Tensor X, T, dY;
+
+    @Setup
+    public void setup() {
+        Random rng = new Random(Inputs.SEED);
+        layer = new LogisticLayer(nIn, nOut, precision);
+        layer.setParallelism(Inputs.parallelism(threads));
+        X = Inputs.uniform(rng, precision, 0., 1., minibatchSize, nIn);
+        T = Inputs.oneHot(rng, Precision.DOUBLE, minibatchSize, nOut);
+        dY = new Tensor(precision, minibatchSize, nOut);
+    }
+
+    // softmax output, cross-entropy delta and the update of W and b
+    @Benchmark
+    public Tensor train() {
+        return layer.train(X, T, dY, minibatchSize, 0.01);
+    }
+}
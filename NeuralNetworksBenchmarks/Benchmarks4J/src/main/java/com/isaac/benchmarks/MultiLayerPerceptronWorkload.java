@@ -0,0 +1,28 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.initialization.Precision;
+import com.isaac.neuralnetworks.MultiLayerPerceptron;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+
+import java.util.Random;
+
+// MultiLayerPerceptronExample: XOR learned on-line by a tanh hidden layer of 3 units
+final class MultiLayerPerceptronWorkload extends SupervisedWorkload {
+    private final MultiLayerPerceptron network;
+
+    MultiLayerPerceptronWorkload(Precision precision, Parallelism parallelism) {
+        super(Samples.xor().shuffle(new Random(123)), Samples.xor(), 1, 5000, 0.1, 1., 2);
+        network = new MultiLayerPerceptron(2, 3, 2, new Random(123), Activation.Tanh, precision);
+        network.setParallelism(parallelism);
+    }
+
+    @Override
+    void train(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        network.train(X, T, minibatchSize, learningRate);
+    }
+
+    @Override
+    int[] classify(Tensor X) { return network.predictClasses(X); }
+}
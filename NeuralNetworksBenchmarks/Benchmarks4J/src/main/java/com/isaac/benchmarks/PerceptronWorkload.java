@@ -0,0 +1,42 @@
+package com.isaac.benchmarks;
+
+import com.isaac.neuralnetworks.Perceptron;
+
+import java.util.Random;
+
+// PerceptronExample: two gaussian clouds, trained sample by sample until the whole training set is classified
+final class PerceptronWorkload implements Workload {
+    private final Samples train, test;
+    private final Perceptron perceptron = new Perceptron(2);
+    private boolean converged;
+
+    PerceptronWorkload() {
+        Random rng = new Random(Inputs.SEED);
+        train = Samples.gaussians(rng, 1000);
+        test = Samples.gaussians(rng, 200);
+    }
+
+    @Override
+    public int epochs() { return 2000; }
+
+    @Override
+    public long epoch(int epoch) {
+        int classified = 0;
+        for (int n = 0; n < train.size(); n++) classified += perceptron.train(train.sample(n), sign(train.label(n)), 1.);
+        converged = classified == train.size();
+        return train.size();
+    }
+
+    @Override
+    public boolean converged() { return converged; }
+
+    @Override
+    public double accuracy() {
+        int[] predicted = new int[test.size()];
+        for (int n = 0; n < test.size(); n++) predicted[n] = perceptron.predict(test.sample(n)) > 0 ? 0 : 1;
+        return test.accuracy(predicted);
+    }
+
+    // class 0 is the positive one
+    private static int sign(int label) { return label == 0 ? 1 : -1; }
+}
@@ -0,0 +1,53 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.initialization.Precision;
+import com.isaac.utils.Tensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SoftmaxBenchmark {
+    @Param({"10", "100", "1000"})
+    private int nOut;
+    @Param({"1", "50", "256"})
+    private int minibatchSize;
+    @Param({"DOUBLE", "FLOAT"})
+    private Precision precision;
+
+    private Tensor X, Y;
+
+    @Setup
+    public void setup() {
+        X = Inputs.uniform(new Random(Inputs.SEED), precision, -5., 5., minibatchSize, nOut);
+        Y = new Tensor(precision, minibatchSize, nOut);
+    }
+
+    // the rows of the minibatch in place, from the same pre-activations at every call
+    @Benchmark
+    public Tensor softmax() {
+        Y.copyFrom(X);
+        for (int n = 0; n < minibatchSize; n++) {
+            if (Y.isFloat()) Activation.softmax(Y.floats(), Y.offset() + n * nOut, nOut);
+            else Activation.softmax(Y.data(), Y.offset() + n * nOut, nOut);
+        }
+        return Y;
+    }
+}
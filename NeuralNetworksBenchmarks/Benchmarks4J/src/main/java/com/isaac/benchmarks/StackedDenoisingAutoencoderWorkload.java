@@ -0,0 +1,46 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Precision;
+import com.isaac.neuralnetworks.StackedDenoisingAutoencoder;
+import com.isaac.utils.Parallelism;
+import com.isaac.utils.Tensor;
+
+import java.util.Random;
+
+// StackedDenoisingAutoencoderExample: 3 noisy patterns of 60 real units, two denoising autoencoders of 20 hidden units
+// pre-trained on inputs corrupted at 30%, then fine-tuned on a second labelled set
+final class StackedDenoisingAutoencoderWorkload extends SupervisedWorkload {
+    private static final int MINIBATCH_SIZE = 50, PRETRAIN_EPOCHS = 1000;
+    private static final double PRETRAIN_LEARNING_RATE = 0.2, CORRUPTION_LEVEL = 0.3;
+    private static final int[] HIDDEN_LAYER_SIZES = {20, 20};
+    private final StackedDenoisingAutoencoder network;
+    private final Tensor pretrainX;
+
+    StackedDenoisingAutoencoderWorkload(Precision precision, Parallelism parallelism) {
+        this(new Random(Inputs.SEED), precision, parallelism);
+    }
+
+    private StackedDenoisingAutoencoderWorkload(Random rng, Precision precision, Parallelism parallelism) {
+        super(Samples.patterns(rng, 3, 200, 20, 0.2, false).shuffle(rng), Samples.patterns(rng, 3, 50, 20, 0.25, false),
+                MINIBATCH_SIZE, 1000, 0.15, 0.98, 60);
+        pretrainX = Inputs.minibatches(Samples.patterns(rng, 3, 200, 20, 0.2, false).shuffle(rng), MINIBATCH_SIZE, 60);
+        network = new StackedDenoisingAutoencoder(60, HIDDEN_LAYER_SIZES, 3, rng, precision);
+        network.setParallelism(parallelism);
+    }
+
+    @Override
+    public long pretrain() {
+        int minibatchNumber = pretrainX.size(0);
+        network.pretrain(pretrainX, MINIBATCH_SIZE, minibatchNumber, PRETRAIN_EPOCHS, PRETRAIN_LEARNING_RATE,
+                CORRUPTION_LEVEL);
+        return (long) HIDDEN_LAYER_SIZES.length * PRETRAIN_EPOCHS * minibatchNumber * MINIBATCH_SIZE;
+    }
+
+    @Override
+    void train(Tensor X, Tensor T, int minibatchSize, double learningRate) {
+        network.finetune(X, T, minibatchSize, learningRate);
+    }
+
+    @Override
+    int[] classify(Tensor X) { return network.predictClasses(X); }
+}
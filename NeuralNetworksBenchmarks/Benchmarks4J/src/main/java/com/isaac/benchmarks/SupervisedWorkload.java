@@ -0,0 +1,48 @@
+package com.isaac.benchmarks;
+
+import com.isaac.utils.Tensor;
+
+// a classifier trained by back-propagation on the minibatches of a labelled set, with a learning rate decaying after
+// every epoch, and evaluated on a test set
+abstract class SupervisedWorkload implements Workload {
+    private final Tensor X; // [minibatchNumber, minibatchSize, sample shape]
+    private final Tensor T; // [minibatchNumber, minibatchSize, nOut]
+    private final Tensor testX; // [N, sample shape]
+    private final Samples test;
+    private final int minibatchSize, minibatchNumber, epochs;
+    private final double decay;
+    private double learningRate;
+
+    SupervisedWorkload(Samples train, Samples test, int minibatchSize, int epochs, double learningRate, double decay,
+                       int... shape) {
+        this.X = Inputs.minibatches(train, minibatchSize, shape);
+        this.T = Inputs.targets(train, minibatchSize);
+        this.testX = Inputs.inputs(test, shape);
+        this.test = test;
+        this.minibatchSize = minibatchSize;
+        this.minibatchNumber = train.size() / minibatchSize;
+        this.epochs = epochs;
+        this.learningRate = learningRate;
+        this.decay = decay;
+    }
+
+    abstract void train(Tensor X, Tensor T, int minibatchSize, double learningRate);
+
+    // X: [N, sample shape], the index of the most probable class of every sample
+    abstract int[] classify(Tensor X);
+
+    @Override
+    public int epochs() { return epochs; }
+
+    @Override
+    public long epoch(int epoch) {
+        for (int batch = 0; batch < minibatchNumber; batch++) {
+            train(X.slice(batch), T.slice(batch), minibatchSize, learningRate);
+        }
+        learningRate *= decay;
+        return (long) minibatchNumber * minibatchSize;
+    }
+
+    @Override
+    public double accuracy() { return test.accuracy(classify(testX)); }
+}
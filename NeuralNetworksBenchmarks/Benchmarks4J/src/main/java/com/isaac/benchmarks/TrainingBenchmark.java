@@ -0,0 +1,30 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Precision;
+import com.isaac.utils.Parallelism;
+
+import java.io.IOException;
+
+/**
+ * End-to-end training benchmark of the networks of NeuralNetworks4J, see {@link TrainingRunner} for the options. The
+ * options of this backend are --threads n, the parallelism of the networks (1 by default), and --precision, one of
+ * DOUBLE (default), FLOAT or MIXED.
+ */
+public class TrainingBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        TrainingRunner runner = new TrainingRunner("NeuralNetworks4J", args);
+        int threads = runner.option("threads", 1);
+        Precision precision = Precision.valueOf(runner.option("precision", Precision.DOUBLE.name()));
+        runner.setConfiguration("threads=" + threads + " precision=" + precision);
+        // one pool shared by the runs, its threads stay alive across the epochs that are metered
+        Parallelism parallelism = Inputs.parallelism(threads);
+        runner.add("Perceptron", PerceptronWorkload::new);
+        runner.add("MLP", () -> new MultiLayerPerceptronWorkload(precision, parallelism));
+        runner.add("Dropout", () -> new DropoutNetworksWorkload(precision, parallelism));
+        runner.add("CNN", () -> new ConvolutionalNeuralNetworksWorkload(precision, parallelism));
+        runner.add("DBN", () -> new DeepBeliefNetsWorkload(precision, parallelism));
+        runner.add("SdA", () -> new StackedDenoisingAutoencoderWorkload(precision, parallelism));
+        System.exit(runner.run());
+    }
+}
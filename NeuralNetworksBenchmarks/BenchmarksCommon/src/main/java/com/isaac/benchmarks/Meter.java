@@ -0,0 +1,60 @@
+package com.isaac.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+
+// wall time and heap allocation summed over the timed sections of a run, and the peak heap of the whole run
+final class Meter {
+    private final com.sun.management.ThreadMXBean threads; // null where the JVM does not count allocations
+    private long nanos, bytes;
+    private long startNanos, startBytes;
+
+    Meter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean)
+                .isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else threads = null;
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    void start() {
+        startBytes = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    void stop() {
+        nanos += System.nanoTime() - startNanos;
+        bytes += allocatedBytes() - startBytes;
+    }
+
+    long nanos() { return nanos; }
+
+    // -1 if unknown
+    long allocatedBytesTotal() { return threads == null ? -1 : bytes; }
+
+    // sum of the peaks of the heap pools since the meter was created
+    static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    // allocations of every live thread, the worker threads of a parallelism included
+    private long allocatedBytes() {
+        if (threads == null) return 0;
+        long sum = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) sum += allocated;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,113 @@
+package com.isaac.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+
+// the measurements of one training run, a line of a results file
+@SuppressWarnings("unused")
+public final class Result {
+    static final String HEADER = "backend,configuration,model,epochs,samples,pretrainMillis,trainMillis,epochMillis," +
+            "samplesPerSecond,timeToAccuracyMillis,peakHeapMB,allocationMBPerSecond,accuracy";
+
+    private final String backend;
+    private final String configuration; // backend options of the run, e.g. "threads=1 precision=DOUBLE"
+    private final String model;
+    private final int epochs; // epochs run, fewer than configured if the model converged
+    private final long samples; // samples trained on, pre-training included
+    private final double pretrainMillis;
+    private final double trainMillis; // pre-training and epochs, evaluation excluded
+    private final double epochMillis; // mean time of an epoch
+    private final double samplesPerSecond;
+    private final double timeToAccuracyMillis; // training time until the target accuracy was first seen, -1 if never
+    private final double peakHeapMB;
+    private final double allocationMBPerSecond; // -1 if the JVM does not count allocations
+    private final double accuracy;
+
+    Result(String backend, String configuration, String model, int epochs, long samples, double pretrainMillis,
+           double trainMillis, double epochMillis, double samplesPerSecond, double timeToAccuracyMillis,
+           double peakHeapMB, double allocationMBPerSecond, double accuracy) {
+        this.backend = backend;
+        this.configuration = configuration;
+        this.model = model;
+        this.epochs = epochs;
+        this.samples = samples;
+        this.pretrainMillis = pretrainMillis;
+        this.trainMillis = trainMillis;
+        this.epochMillis = epochMillis;
+        this.samplesPerSecond = samplesPerSecond;
+        this.timeToAccuracyMillis = timeToAccuracyMillis;
+        this.peakHeapMB = peakHeapMB;
+        this.allocationMBPerSecond = allocationMBPerSecond;
+        this.accuracy = accuracy;
+    }
+
+    String toCsv() {
+        return String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%.3f,%.3f,%.3f,%.1f,%.3f,%.1f,%.1f,%.4f", backend,
+                configuration, model, epochs, samples, pretrainMillis, trainMillis, epochMillis, samplesPerSecond,
+                timeToAccuracyMillis, peakHeapMB, allocationMBPerSecond, accuracy);
+    }
+
+    static Result fromCsv(String line) {
+        String[] v = line.split(",", -1);
+        if (v.length != 13) throw new IllegalArgumentException("Given results line not found or un-supported: " + line);
+        return new Result(v[0], v[1], v[2], Integer.parseInt(v[3]), Long.parseLong(v[4]), Double.parseDouble(v[5]),
+                Double.parseDouble(v[6]), Double.parseDouble(v[7]), Double.parseDouble(v[8]), Double.parseDouble(v[9]),
+                Double.parseDouble(v[10]), Double.parseDouble(v[11]), Double.parseDouble(v[12]));
+    }
+
+    // the median of every measurement of repeated runs of one model, so that a single noisy run does not move them
+    static Result median(List<Result> runs) {
+        Result first = runs.get(0);
+        return new Result(first.backend, first.configuration, first.model, first.epochs, first.samples,
+                median(runs, r -> r.pretrainMillis), median(runs, r -> r.trainMillis), median(runs, r -> r.epochMillis),
+                median(runs, r -> r.samplesPerSecond), median(runs, r -> r.timeToAccuracyMillis),
+                median(runs, r -> r.peakHeapMB), median(runs, r -> r.allocationMBPerSecond),
+                median(runs, r -> r.accuracy));
+    }
+
+    // the lower median of an even count, a measured value rather than a mean, e.g. of -1 and a time to accuracy
+    private static double median(List<Result> runs, ToDoubleFunction<Result> metric) {
+        double[] values = runs.stream().mapToDouble(metric).sorted().toArray();
+        return values[(values.length - 1) / 2];
+    }
+
+    static void write(Path file, List<Result> results) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println(HEADER);
+            for (Result result : results) out.println(result.toCsv());
+        }
+    }
+
+    static List<Result> read(Path file) throws IOException {
+        List<Result> results = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.equals(HEADER)) continue;
+            results.add(fromCsv(line));
+        }
+        return results;
+    }
+
+    /** Getters */
+    public String getBackend() { return backend; }
+    public String getConfiguration() { return configuration; }
+    public String getModel() { return model; }
+    public int getEpochs() { return epochs; }
+    public long getSamples() { return samples; }
+    public double getPretrainMillis() { return pretrainMillis; }
+    public double getTrainMillis() { return trainMillis; }
+    public double getEpochMillis() { return epochMillis; }
+    public double getSamplesPerSecond() { return samplesPerSecond; }
+    public double getTimeToAccuracyMillis() { return timeToAccuracyMillis; }
+    public double getPeakHeapMB() { return peakHeapMB; }
+    public double getAllocationMBPerSecond() { return allocationMBPerSecond; }
+    public double getAccuracy() { return accuracy; }
+}
@@ -0,0 +1,125 @@
+package com.isaac.benchmarks;
+
+import java.util.Random;
+
+/**
+ * A labelled synthetic data set, generated from a seed like the data of the examples of both backends: the XOR
+ * table, two gaussian clouds, noisy binary patterns and noisy striped images. Every sample is flattened, images
+ * included, and the backends turn the samples into their own arrays.
+ */
+@SuppressWarnings("unused")
+public final class Samples {
+    private final double[][] x; // [N, sample size]
+    private final int[] labels; // class of every sample, in [0, nOut)
+    private final int nOut;
+
+    private Samples(double[][] x, int[] labels, int nOut) {
+        this.x = x;
+        this.labels = labels;
+        this.nOut = nOut;
+    }
+
+    // class 0: [0, 0], [1, 1], class 1: [0, 1], [1, 0]
+    public static Samples xor() {
+        return new Samples(new double[][] { { 0., 0. }, { 0., 1. }, { 1., 0. }, { 1., 1. } }, new int[] { 0, 1, 1, 0 }, 2);
+    }
+
+    // class 0: x ~ N(-2, 1), y ~ N(+2, 1), class 1: x ~ N(+2, 1), y ~ N(-2, 1), half of the samples each
+    public static Samples gaussians(Random rng, int size) {
+        double[][] x = new double[size][2];
+        int[] labels = new int[size];
+        for (int n = 0; n < size; n++) {
+            labels[n] = n < size / 2 ? 0 : 1;
+            double sign = labels[n] == 0 ? 1. : -1.;
+            x[n][0] = -2. * sign + rng.nextGaussian();
+            x[n][1] = 2. * sign + rng.nextGaussian();
+        }
+        return new Samples(x, labels, 2);
+    }
+
+    // sizeEach samples of each of the patterns: the units [nInEach * pattern, nInEach * (pattern + 1)) of a sample
+    // are on with probability 1 - pNoise, the others with probability pNoise. Binary units are {0, 1}, the others
+    // are drawn in [0.5, 1) when on and are 0.5 when off
+    public static Samples patterns(Random rng, int patterns, int sizeEach, int nInEach, double pNoise, boolean binary) {
+        double[][] x = new double[patterns * sizeEach][patterns * nInEach];
+        int[] labels = new int[x.length];
+        for (int pattern = 0; pattern < patterns; pattern++) {
+            for (int n = pattern * sizeEach; n < (pattern + 1) * sizeEach; n++) {
+                labels[n] = pattern;
+                for (int i = 0; i < x[n].length; i++) {
+                    double p = i / nInEach == pattern ? 1. - pNoise : pNoise;
+                    double on = rng.nextDouble() < p ? 1. : 0.;
+                    x[n][i] = binary ? on : on * rng.nextDouble() * .5 + .5;
+                }
+            }
+        }
+        return new Samples(x, labels, patterns);
+    }
+
+    // sizeEach images [channel, imageSize, imageSize] of each of the patterns: the rows of the pattern-th horizontal
+    // band are bright, in [0.5, 1), and the others dark. A pixel flips with probability pNoise
+    public static Samples images(Random rng, int patterns, int sizeEach, int channel, int imageSize, double pNoise) {
+        int band = imageSize / patterns, pixels = imageSize * imageSize;
+        double[][] x = new double[patterns * sizeEach][channel * pixels];
+        int[] labels = new int[x.length];
+        for (int pattern = 0; pattern < patterns; pattern++) {
+            for (int n = pattern * sizeEach; n < (pattern + 1) * sizeEach; n++) {
+                labels[n] = pattern;
+                for (int i = 0; i < x[n].length; i++) {
+                    int row = i % pixels / imageSize;
+                    boolean bright = row >= pattern * band && row < (pattern + 1) * band;
+                    if (bright) x[n][i] = rng.nextDouble() < 1. - pNoise ? (128. * rng.nextDouble() + 128.) / 256. : 0.;
+                    else x[n][i] = rng.nextDouble() < pNoise ? .5 : 0.;
+                }
+            }
+        }
+        return new Samples(x, labels, patterns);
+    }
+
+    // the samples in a random order, for minibatches that mix the classes
+    public Samples shuffle(Random rng) {
+        int[] order = new int[x.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1), swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        double[][] x_ = new double[x.length][];
+        int[] labels_ = new int[labels.length];
+        for (int i = 0; i < order.length; i++) {
+            x_[i] = x[order[i]];
+            labels_[i] = labels[order[i]];
+        }
+        return new Samples(x_, labels_, nOut);
+    }
+
+    // [N * sample size] row-major
+    public double[] flatInputs() {
+        int size = sampleSize();
+        double[] flat = new double[x.length * size];
+        for (int n = 0; n < x.length; n++) System.arraycopy(x[n], 0, flat, n * size, size);
+        return flat;
+    }
+
+    // [N * nOut] one-hot row-major
+    public double[] flatTargets() {
+        double[] flat = new double[labels.length * nOut];
+        for (int n = 0; n < labels.length; n++) flat[n * nOut + labels[n]] = 1.;
+        return flat;
+    }
+
+    // share of the predicted classes equal to the labels
+    public double accuracy(int[] predicted) {
+        int right = 0;
+        for (int n = 0; n < labels.length; n++) if (predicted[n] == labels[n]) right++;
+        return (double) right / labels.length;
+    }
+
+    /** Getters */
+    public int size() { return x.length; }
+    public int sampleSize() { return x[0].length; }
+    public int getnOut() { return nOut; }
+    public double[] sample(int n) { return x[n]; }
+    public int label(int n) { return labels[n]; }
+}
@@ -0,0 +1,226 @@
+package com.isaac.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * End-to-end training benchmark: trains every registered model from scratch, records its throughput, epoch time,
+ * time-to-accuracy, peak heap, allocation rate and final accuracy into a CSV results file, and compares the run with a
+ * stored baseline of the same backend. Options, all optional:
+ * <pre>
+ *   --models MLP,DBN        models to run, all by default
+ *   --results file          results file, results/&lt;backend&gt;.csv by default
+ *   --baseline file         baseline to compare with, baselines/&lt;backend&gt;.csv by default, skipped if missing
+ *   --save-baseline         write the results over the baseline as well
+ *   --target 0.95           accuracy the time-to-accuracy is measured to
+ *   --checkpoints 20        evaluations of the accuracy during training, evenly spaced over the epochs
+ *   --warmup 1              untimed trainings of every model before the timed ones, for a compiled steady state
+ *   --min-millis 1000       shortest timed section of a measurement: a model is trained again and again until its
+ *                           trainings add up to it, and then until its times to accuracy do, every metric per training
+ *   --repeats 3             measurements of every model, the median of each metric is recorded
+ *   --tolerance 0.10        slowdown of the throughput and the time-to-accuracy accepted before a regression
+ *   --accuracy-tolerance 0.01  drop of the final accuracy accepted before a regression
+ * </pre>
+ * plus the options of the backend, e.g. --threads. The exit status of {@link #run()} is 1 if a model regressed.
+ */
+public final class TrainingRunner {
+    private final String backend;
+    private final Map<String, String> options = new HashMap<>();
+    private final Map<String, Supplier<Workload>> workloads = new LinkedHashMap<>();
+    private String configuration = "";
+
+    public TrainingRunner(String backend, String[] args) {
+        this.backend = backend;
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Given option not found or un-supported: " + args[i]);
+            String name = args[i].substring(2);
+            boolean flag = i + 1 == args.length || args[i + 1].startsWith("--");
+            options.put(name, flag ? "true" : args[++i]);
+        }
+    }
+
+    public String option(String name, String defaultValue) { return options.getOrDefault(name, defaultValue); }
+
+    public int option(String name, int defaultValue) {
+        return Integer.parseInt(option(name, Integer.toString(defaultValue)));
+    }
+
+    public double option(String name, double defaultValue) {
+        return Double.parseDouble(option(name, Double.toString(defaultValue)));
+    }
+
+    // the backend options a run depends on, recorded with the results so that runs of different settings are told apart
+    public void setConfiguration(String configuration) { this.configuration = configuration.replace(',', ';'); }
+
+    // a fresh, seeded workload for every training of the model
+    public void add(String model, Supplier<Workload> workload) { workloads.put(model, workload); }
+
+    public int run() throws IOException {
+        List<String> models = new ArrayList<>(workloads.keySet());
+        if (options.containsKey("models")) models = Arrays.asList(option("models", "").split(","));
+        for (String model : models) {
+            if (!workloads.containsKey(model))
+                throw new IllegalArgumentException("Given model not found or un-supported: " + model);
+        }
+        List<Result> results = new ArrayList<>();
+        for (String model : models) {
+            for (int i = 0; i < option("warmup", 1); i++) train(workloads.get(model).get(), new Meter(), false);
+            List<Result> runs = new ArrayList<>();
+            int repeats = Math.max(1, option("repeats", 3));
+            for (int i = 0; i < repeats; i++) runs.add(measure(model));
+            Result result = Result.median(runs);
+            System.out.println(result.toCsv());
+            results.add(result);
+        }
+        Path resultsFile = Paths.get(option("results", "results/" + backend + ".csv"));
+        Result.write(resultsFile, results);
+        System.out.println("Results written to " + resultsFile);
+        Path baselineFile = Paths.get(option("baseline", "baselines/" + backend + ".csv"));
+        int status = 0;
+        if (Files.exists(baselineFile)) status = compare(results, Result.read(baselineFile));
+        else System.out.println("No baseline at " + baselineFile + ", nothing to compare with");
+        if (options.containsKey("save-baseline")) {
+            Result.write(baselineFile, results);
+            System.out.println("Baseline written to " + baselineFile);
+        }
+        return status;
+    }
+
+    // one measurement of a model on one meter: full trainings of fresh workloads until they add up to min-millis, then
+    // trainings stopped at the target accuracy until the times to accuracy do too, so that no metric is timed over a
+    // section short enough for the timer and the scheduler to swamp it. Every metric is normalised per training
+    private Result measure(String model) {
+        long minNanos = (long) (option("min-millis", 1000.) * 1e6);
+        Meter meter = new Meter();
+        int trainings = 0, epochs = 0, epochsTotal = 0;
+        long samples = 0, pretrainNanos = 0, timeToAccuracy = 0;
+        boolean reached = true;
+        double accuracy = 0.;
+        do {
+            Training training = train(workloads.get(model).get(), meter, false);
+            trainings++;
+            epochs = training.epochs;
+            epochsTotal += training.epochs;
+            samples += training.samples;
+            pretrainNanos += training.pretrainNanos;
+            accuracy += training.accuracy;
+            reached &= training.timeToAccuracy >= 0;
+            timeToAccuracy += training.timeToAccuracy;
+        } while (meter.nanos() < minNanos);
+        long trainNanos = meter.nanos(), allocated = meter.allocatedBytesTotal();
+        int timed = trainings; // trainings the time to accuracy is averaged over
+        while (reached && timeToAccuracy < minNanos) {
+            Training training = train(workloads.get(model).get(), meter, true);
+            reached = training.timeToAccuracy >= 0;
+            timeToAccuracy += training.timeToAccuracy;
+            timed++;
+        }
+        System.out.println(String.format(Locale.ROOT, "%s: %d trainings timed, %d to the target accuracy", model,
+                trainings, reached ? timed : 0));
+        double seconds = trainNanos / 1e9;
+        return new Result(backend, configuration, model, epochs, samples / trainings, pretrainNanos / 1e6 / trainings,
+                trainNanos / 1e6 / trainings, (trainNanos - pretrainNanos) / 1e6 / Math.max(1, epochsTotal),
+                samples / seconds, reached ? timeToAccuracy / 1e6 / timed : -1, Meter.peakHeapBytes() / 1048576.,
+                allocated < 0 ? -1 : allocated / 1048576. / seconds, accuracy / trainings);
+    }
+
+    // one training of a workload, its timed sections added to the meter; untilTarget stops it at the target accuracy
+    private Training train(Workload workload, Meter meter, boolean untilTarget) {
+        double target = option("target", 0.95);
+        int checkpoints = option("checkpoints", 20);
+        long start = meter.nanos();
+        meter.start();
+        long samples = workload.pretrain();
+        meter.stop();
+        long pretrainNanos = meter.nanos() - start;
+        int epochs = workload.epochs(), every = Math.max(1, epochs / Math.max(1, checkpoints));
+        long timeToAccuracy = -1;
+        int epoch = 0;
+        while (epoch < epochs) {
+            meter.start();
+            samples += workload.epoch(epoch++);
+            meter.stop();
+            boolean last = epoch == epochs || workload.converged();
+            if (timeToAccuracy < 0 && (epoch % every == 0 || last) && workload.accuracy() >= target) {
+                timeToAccuracy = meter.nanos() - start;
+                if (untilTarget) break;
+            }
+            if (last) break;
+        }
+        return new Training(epoch, samples, pretrainNanos, timeToAccuracy, workload.accuracy());
+    }
+
+    private static final class Training {
+        private final int epochs;
+        private final long samples;
+        private final long pretrainNanos;
+        private final long timeToAccuracy; // -1 if the target accuracy was never seen
+        private final double accuracy;
+
+        private Training(int epochs, long samples, long pretrainNanos, long timeToAccuracy, double accuracy) {
+            this.epochs = epochs;
+            this.samples = samples;
+            this.pretrainNanos = pretrainNanos;
+            this.timeToAccuracy = timeToAccuracy;
+            this.accuracy = accuracy;
+        }
+    }
+
+    // prints the change of every metric from the baseline, and whether the model regressed
+    private int compare(List<Result> results, List<Result> baseline) {
+        double tolerance = option("tolerance", 0.10), accuracyTolerance = option("accuracy-tolerance", 0.01);
+        Map<String, Result> previous = new HashMap<>();
+        for (Result result : baseline) previous.put(result.getModel(), result);
+        int status = 0;
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-12s %-22s %14s %14s %9s", "model", "metric", "baseline",
+                "current", "change"));
+        for (Result current : results) {
+            Result base = previous.get(current.getModel());
+            if (base == null) {
+                System.out.println(String.format(Locale.ROOT, "%-12s not in the baseline", current.getModel()));
+                continue;
+            }
+            if (!base.getConfiguration().equals(current.getConfiguration())) {
+                System.out.println(String.format(Locale.ROOT, "%-12s baseline ran with [%s], this run with [%s]",
+                        current.getModel(), base.getConfiguration(), current.getConfiguration()));
+            }
+            boolean regressed = false;
+            regressed |= row(current, "samplesPerSecond", base.getSamplesPerSecond(), current.getSamplesPerSecond(),
+                    current.getSamplesPerSecond() < base.getSamplesPerSecond() * (1. - tolerance));
+            regressed |= row(current, "timeToAccuracyMillis", base.getTimeToAccuracyMillis(),
+                    current.getTimeToAccuracyMillis(), base.getTimeToAccuracyMillis() >= 0 &&
+                            (current.getTimeToAccuracyMillis() < 0 ||
+                                    current.getTimeToAccuracyMillis() > base.getTimeToAccuracyMillis() * (1. + tolerance)));
+            regressed |= row(current, "accuracy", base.getAccuracy(), current.getAccuracy(),
+                    current.getAccuracy() < base.getAccuracy() - accuracyTolerance);
+            // memory is reported but not judged, the collector decides how much of it a run holds
+            row(current, "epochMillis", base.getEpochMillis(), current.getEpochMillis(), false);
+            row(current, "peakHeapMB", base.getPeakHeapMB(), current.getPeakHeapMB(), false);
+            row(current, "allocationMBPerSecond", base.getAllocationMBPerSecond(), current.getAllocationMBPerSecond(),
+                    false);
+            if (regressed) status = 1;
+        }
+        System.out.println(status == 0 ? "No regression from the baseline" : "REGRESSION from the baseline");
+        return status;
+    }
+
+    private static boolean row(Result result, String metric, double baseline, double current, boolean regressed) {
+        String change = baseline > 0 && current >= 0 ?
+                String.format(Locale.ROOT, "%+.1f%%", (current / baseline - 1.) * 100) : "n/a";
+        System.out.println(String.format(Locale.ROOT, "%-12s %-22s %14.3f %14.3f %9s%s", result.getModel(), metric,
+                baseline, current, change, regressed ? "  REGRESSED" : ""));
+        return regressed;
+    }
+}
@@ -0,0 +1,23 @@
+package com.isaac.benchmarks;
+
+/**
+ * One reference model trained from scratch on a fixed-seed synthetic data set, as run by {@link TrainingRunner}. A
+ * workload is built for a single run: the runner times {@link #pretrain()} and every {@link #epoch(int)}, and calls
+ * {@link #accuracy()} between epochs outside of the timed sections.
+ */
+public interface Workload {
+    // the unsupervised pre-training of the layers before the epochs, returns the number of samples it went through
+    // (every layer counts), 0 for the models trained by back-propagation only
+    default long pretrain() { return 0; }
+
+    int epochs();
+
+    // one epoch of training, returns the number of samples trained on
+    long epoch(int epoch);
+
+    // whether the model stopped learning early, e.g. a perceptron that classifies the whole training set
+    default boolean converged() { return false; }
+
+    // share of the test set classified right, in [0, 1]
+    double accuracy();
+}
@@ -0,0 +1,43 @@
+package com.isaac.benchmarks;
+
+import com.isaac.neuralnetworks.DeepBeliefNets;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.List;
+import java.util.Random;
+
+// DeepBeliefNetsExample: 3 binary noisy patterns of 60 units, two RBMs of 20 hidden units pre-trained by CD-1, then
+// fine-tuned on a second labelled set
+final class DeepBeliefNetsWorkload extends SupervisedWorkload {
+    private static final int MINIBATCH_SIZE = 50, PRETRAIN_EPOCHS = 1000, K = 1;
+    private static final double PRETRAIN_LEARNING_RATE = 0.2;
+    private static final int[] HIDDEN_LAYER_SIZES = {20, 20};
+    private final DeepBeliefNets network;
+    private final List<INDArray> pretrainX;
+
+    DeepBeliefNetsWorkload() {
+        this(new Random(Inputs.SEED));
+    }
+
+    private DeepBeliefNetsWorkload(Random rng) {
+        super(Samples.patterns(rng, 3, 200, 20, 0.2, true).shuffle(rng), Samples.patterns(rng, 3, 50, 20, 0.25, true),
+                MINIBATCH_SIZE, 1000, 0.15, 0.98);
+        pretrainX = Inputs.minibatches(Inputs.inputs(Samples.patterns(rng, 3, 200, 20, 0.2, true).shuffle(rng)),
+                MINIBATCH_SIZE);
+        network = new DeepBeliefNets(60, HIDDEN_LAYER_SIZES, 3, rng);
+    }
+
+    @Override
+    public long pretrain() {
+        network.pretrain(pretrainX, MINIBATCH_SIZE, pretrainX.size(), PRETRAIN_EPOCHS, PRETRAIN_LEARNING_RATE, K);
+        return (long) HIDDEN_LAYER_SIZES.length * PRETRAIN_EPOCHS * pretrainX.size() * MINIBATCH_SIZE;
+    }
+
+    @Override
+    void train(INDArray X, INDArray T, int minibatchSize, double learningRate) {
+        network.finetune(X, T, minibatchSize, learningRate);
+    }
+
+    @Override
+    INDArray predict(INDArray X) { return network.predict(X); }
+}
@@ -0,0 +1,62 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.layers.DenseLayer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DenseLayerBenchmark {
+    @Param({"256", "784"})
+    private int nIn;
+    @Param({"64", "500"})
+    private int nOut;
+    @Param({"1", "50", "256"})
+    private int minibatchSize;
+    @Param({"DOUBLE", "FLOAT"})
+    private String precision;
+
+    private DenseLayer layer;
+    private INDArray X, Z, dY, Wprev;
+
+    @Setup
+    public void setup() {
+        Inputs.precision(precision);
+        Random rng = new Random(Inputs.SEED);
+        layer = new DenseLayer(nIn, nOut, null, null, rng, Activation.Sigmoid);
+        X = Inputs.uniform(rng, 0., 1., minibatchSize, nIn);
+        // the backward pass takes the delta of the layer above through its weights. That layer is nIn wide, so the
+        // product costs what the delta of X costs in NeuralNetworks4J and both backends do the same work
+        dY = Inputs.uniform(rng, -0.1, 0.1, minibatchSize, nIn);
+        Wprev = Inputs.uniform(rng, -0.1, 0.1, nIn, nOut);
+        Z = layer.forward(X);
+    }
+
+    @Benchmark
+    public INDArray forward() {
+        return layer.forward(X);
+    }
+
+    @Benchmark
+    public INDArray backward() {
+        return layer.backward(X, Z, dY, Wprev, minibatchSize, 0.01);
+    }
+}
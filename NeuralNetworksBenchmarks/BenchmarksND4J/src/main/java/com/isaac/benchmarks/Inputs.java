@@ -0,0 +1,74 @@
+package com.isaac.benchmarks;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// the inputs of the benchmarks as INDArrays, seeded and drawn like those of Benchmarks4J
+final class Inputs {
+    static final long SEED = 1234;
+
+    private Inputs() {}
+
+    // DOUBLE or FLOAT, the data type of every array created afterwards. JMH forks a JVM per configuration, so it has
+    // to be set first thing in the setup of a benchmark
+    static void precision(String precision) {
+        Nd4j.setDataType(DataBuffer.Type.valueOf(precision));
+    }
+
+    static INDArray uniform(Random rng, double min, double max, int rows, int columns) {
+        double[] x = new double[rows * columns];
+        for (int i = 0; i < x.length; i++) x[i] = min + (max - min) * rng.nextDouble();
+        return Nd4j.create(x, new int[] { rows, columns });
+    }
+
+    // binary units {0, 1}, as the Boltzmann machines and the autoencoders are fed
+    static INDArray binary(Random rng, int rows, int columns) {
+        double[] x = new double[rows * columns];
+        for (int i = 0; i < x.length; i++) x[i] = rng.nextBoolean() ? 1. : 0.;
+        return Nd4j.create(x, new int[] { rows, columns });
+    }
+
+    // [minibatchSize, nOut] one-hot labels
+    static INDArray oneHot(Random rng, int minibatchSize, int nOut) {
+        double[] t = new double[minibatchSize * nOut];
+        for (int n = 0; n < minibatchSize; n++) t[n * nOut + rng.nextInt(nOut)] = 1.;
+        return Nd4j.create(t, new int[] { minibatchSize, nOut });
+    }
+
+    // [N, sample size] the samples of a data set in their order
+    static INDArray inputs(Samples samples) {
+        return Nd4j.create(samples.flatInputs(), new int[] { samples.size(), samples.sampleSize() });
+    }
+
+    // [N, nOut] their one-hot labels
+    static INDArray targets(Samples samples) {
+        return Nd4j.create(samples.flatTargets(), new int[] { samples.size(), samples.getnOut() });
+    }
+
+    // the [minibatchSize, sample size] or [minibatchSize, nOut] minibatches of the rows of X in their order, the rows
+    // left over by the last full minibatch are not trained on
+    static List<INDArray> minibatches(INDArray X, int minibatchSize) {
+        List<INDArray> minibatches = new ArrayList<>();
+        for (int i = 0; i + minibatchSize <= X.rows(); i += minibatchSize) {
+            INDArray minibatch = Nd4j.create(new double[minibatchSize * X.columns()],
+                    new int[] { minibatchSize, X.columns() });
+            for (int j = 0; j < minibatchSize; j++) minibatch.putRow(j, X.getRow(i + j));
+            minibatches.add(minibatch);
+        }
+        return minibatches;
+    }
+
+    // the index of the 1 of every row of the one-hot predictions of a network
+    static int[] classes(INDArray predicted) {
+        int[] classes = new int[predicted.rows()];
+        for (int i = 0; i < classes.length; i++) {
+            for (int j = 0; j < predicted.columns(); j++) if (predicted.getDouble(i, j) > 0.5) classes[i] = j;
+        }
+        return classes;
+    }
+}
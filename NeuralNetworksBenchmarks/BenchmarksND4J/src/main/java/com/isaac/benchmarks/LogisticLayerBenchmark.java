@@ -0,0 +1,56 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.initialization.WeightInit;
+import com.isaac.layers.OutputLayer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// the softmax OutputLayer of NeuralNetworksND4J, named after its NeuralNetworks4J counterpart to line the results up
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogisticLayerBenchmark {
+    @Param({"64", "500"})
+    private int nIn;
+    @Param({"10", "100"})
+    private int nOut;
+    @Param({"1", "50", "256"})
+    private int minibatchSize;
+    @Param({"DOUBLE", "FLOAT"})
+    private String precision;
+
+    private OutputLayer layer;
+    private INDArray X, T;
+
+    @Setup
+    public void setup() {
+        Inputs.precision(precision);
+        Random rng = new Random(Inputs.SEED);
+        layer = new OutputLayer(nIn, nOut, WeightInit.UNIFORM, rng, Activation.Softmax);
+        X = Inputs.uniform(rng, 0., 1., minibatchSize, nIn);
+        T = Inputs.oneHot(rng, minibatchSize, nOut);
+    }
+
+    // softmax output, cross-entropy delta and the update of W and b
+    @Benchmark
+    public INDArray train() {
+        return layer.train(X, T, minibatchSize, 0.01);
+    }
+}
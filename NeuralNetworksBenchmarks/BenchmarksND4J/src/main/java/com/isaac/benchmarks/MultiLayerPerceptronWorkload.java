@@ -0,0 +1,24 @@
+package com.isaac.benchmarks;
+
+import com.isaac.neuralnetworks.MultiLayerPerceptron;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Random;
+
+// MultiLayerPerceptronExample: XOR learned on-line by a tanh hidden layer of 3 units
+final class MultiLayerPerceptronWorkload extends SupervisedWorkload {
+    private final MultiLayerPerceptron network;
+
+    MultiLayerPerceptronWorkload() {
+        super(Samples.xor().shuffle(new Random(123)), Samples.xor(), 1, 5000, 0.1, 1.);
+        network = new MultiLayerPerceptron(2, 3, 2, new Random(123));
+    }
+
+    @Override
+    void train(INDArray X, INDArray T, int minibatchSize, double learningRate) {
+        network.train(X, T, minibatchSize, learningRate);
+    }
+
+    @Override
+    INDArray predict(INDArray X) { return network.predict(X); }
+}
@@ -0,0 +1,49 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.WeightInit;
+import com.isaac.neuralnetworks.Perceptron;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Random;
+
+// PerceptronExample: two gaussian clouds, trained sample by sample until the whole training set is classified
+final class PerceptronWorkload implements Workload {
+    private final Samples train, test;
+    private final INDArray trainX, trainT, testX; // trainT: [N, 1] labels +1 for class 0 and -1 for class 1
+    private final Perceptron perceptron = new Perceptron(2, WeightInit.ZERO);
+    private boolean converged;
+
+    PerceptronWorkload() {
+        Random rng = new Random(Inputs.SEED);
+        train = Samples.gaussians(rng, 1000);
+        test = Samples.gaussians(rng, 200);
+        trainX = Inputs.inputs(train);
+        testX = Inputs.inputs(test);
+        double[] t = new double[train.size()];
+        for (int n = 0; n < t.length; n++) t[n] = train.label(n) == 0 ? 1. : -1.;
+        trainT = Nd4j.create(t, new int[] { t.length, 1 });
+    }
+
+    @Override
+    public int epochs() { return 2001; }
+
+    @Override
+    public long epoch(int epoch) {
+        int classified = 0;
+        for (int n = 0; n < train.size(); n++) classified += perceptron.train(trainX.getRow(n), trainT.getRow(n), 1.);
+        converged = classified == train.size();
+        return train.size();
+    }
+
+    @Override
+    public boolean converged() { return converged; }
+
+    @Override
+    public double accuracy() {
+        INDArray y = perceptron.predict(testX);
+        int[] predicted = new int[test.size()];
+        for (int n = 0; n < predicted.length; n++) predicted[n] = y.getDouble(n) > 0 ? 0 : 1;
+        return test.accuracy(predicted);
+    }
+}
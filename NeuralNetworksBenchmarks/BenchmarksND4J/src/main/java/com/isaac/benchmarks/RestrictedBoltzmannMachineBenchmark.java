@@ -0,0 +1,56 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import com.isaac.layers.RestrictedBoltzmannMachine;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RestrictedBoltzmannMachineBenchmark {
+    @Param({"64", "784"})
+    private int nVisible;
+    @Param({"32", "500"})
+    private int nHidden;
+    @Param({"1", "50", "256"})
+    private int minibatchSize;
+    @Param({"1"})
+    private int k;
+    @Param({"DOUBLE", "FLOAT"})
+    private String precision;
+
+    private RestrictedBoltzmannMachine rbm;
+    private INDArray X;
+
+    @Setup
+    public void setup() {
+        Inputs.precision(precision);
+        Random rng = new Random(Inputs.SEED);
+        rbm = new RestrictedBoltzmannMachine(nVisible, nHidden, null, null, null, rng, Activation.Sigmoid);
+        X = Inputs.binary(rng, minibatchSize, nVisible);
+    }
+
+    // k steps of Gibbs sampling and the update of W, hbias and vbias
+    @Benchmark
+    public RestrictedBoltzmannMachine contrastiveDivergence() {
+        rbm.contrastiveDivergence(X, minibatchSize, 0.1, k);
+        return rbm;
+    }
+}
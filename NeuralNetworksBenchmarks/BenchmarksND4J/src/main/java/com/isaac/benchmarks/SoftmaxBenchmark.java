@@ -0,0 +1,51 @@
+package com.isaac.benchmarks;
+
+import com.isaac.initialization.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SoftmaxBenchmark {
+    @Param({"10", "100", "1000"})
+    private int nOut;
+    @Param({"1", "50", "256"})
+    private int minibatchSize;
+    @Param({"DOUBLE", "FLOAT"})
+    private String precision;
+
+    private Function<INDArray, INDArray> softmax;
+    private INDArray X, Y;
+
+    @Setup
+    public void setup() {
+        Inputs.precision(precision);
+        softmax = Activation.active(Activation.Softmax);
+        X = Inputs.uniform(new Random(Inputs.SEED), -5., 5., minibatchSize, nOut);
+        Y = X.dup();
+    }
+
+    // the rows of the minibatch in place, from the same pre-activations at every call
+    @Benchmark
+    public INDArray softmax() {
+        return softmax.apply(Y.assign(X));
+    }
+}
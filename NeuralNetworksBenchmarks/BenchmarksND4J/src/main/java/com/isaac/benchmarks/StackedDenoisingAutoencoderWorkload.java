@@ -0,0 +1,44 @@
+package com.isaac.benchmarks;
+
+import com.isaac.neuralnetworks.StackedDenoisingAutoencoder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.List;
+import java.util.Random;
+
+// StackedDenoisingAutoencoderExample: 3 noisy patterns of 60 real units, two denoising autoencoders of 20 hidden units
+// pre-trained on inputs corrupted at 30%, then fine-tuned on a second labelled set
+final class StackedDenoisingAutoencoderWorkload extends SupervisedWorkload {
+    private static final int MINIBATCH_SIZE = 50, PRETRAIN_EPOCHS = 1000;
+    private static final double PRETRAIN_LEARNING_RATE = 0.2, CORRUPTION_LEVEL = 0.3;
+    private static final int[] HIDDEN_LAYER_SIZES = {20, 20};
+    private final StackedDenoisingAutoencoder network;
+    private final List<INDArray> pretrainX;
+
+    StackedDenoisingAutoencoderWorkload() {
+        this(new Random(Inputs.SEED));
+    }
+
+    private StackedDenoisingAutoencoderWorkload(Random rng) {
+        super(Samples.patterns(rng, 3, 200, 20, 0.2, false).shuffle(rng), Samples.patterns(rng, 3, 50, 20, 0.25, false),
+                MINIBATCH_SIZE, 1000, 0.15, 0.98);
+        pretrainX = Inputs.minibatches(Inputs.inputs(Samples.patterns(rng, 3, 200, 20, 0.2, false).shuffle(rng)),
+                MINIBATCH_SIZE);
+        network = new StackedDenoisingAutoencoder(60, HIDDEN_LAYER_SIZES, 3, rng);
+    }
+
+    @Override
+    public long pretrain() {
+        network.preTrain(pretrainX, MINIBATCH_SIZE, pretrainX.size(), PRETRAIN_EPOCHS, PRETRAIN_LEARNING_RATE,
+                CORRUPTION_LEVEL);
+        return (long) HIDDEN_LAYER_SIZES.length * PRETRAIN_EPOCHS * pretrainX.size() * MINIBATCH_SIZE;
+    }
+
+    @Override
+    void train(INDArray X, INDArray T, int minibatchSize, double learningRate) {
+        network.finetune(X, T, minibatchSize, learningRate);
+    }
+
+    @Override
+    INDArray predict(INDArray X) { return network.predict(X); }
+}
@@ -0,0 +1,46 @@
+package com.isaac.benchmarks;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.List;
+
+// a classifier trained by back-propagation on the minibatches of a labelled set, with a learning rate decaying after
+// every epoch, and evaluated on a test set
+abstract class SupervisedWorkload implements Workload {
+    private final List<INDArray> X; // minibatches [minibatchSize, nIn]
+    private final List<INDArray> T; // minibatches [minibatchSize, nOut]
+    private final INDArray testX; // [N, nIn]
+    private final Samples test;
+    private final int minibatchSize, epochs;
+    private final double decay;
+    private double learningRate;
+
+    SupervisedWorkload(Samples train, Samples test, int minibatchSize, int epochs, double learningRate, double decay) {
+        this.X = Inputs.minibatches(Inputs.inputs(train), minibatchSize);
+        this.T = Inputs.minibatches(Inputs.targets(train), minibatchSize);
+        this.testX = Inputs.inputs(test);
+        this.test = test;
+        this.minibatchSize = minibatchSize;
+        this.epochs = epochs;
+        this.learningRate = learningRate;
+        this.decay = decay;
+    }
+
+    abstract void train(INDArray X, INDArray T, int minibatchSize, double learningRate);
+
+    // X: [N, nIn], the one-hot predictions [N, nOut]
+    abstract INDArray predict(INDArray X);
+
+    @Override
+    public int epochs() { return epochs; }
+
+    @Override
+    public long epoch(int epoch) {
+        for (int batch = 0; batch < X.size(); batch++) train(X.get(batch), T.get(batch), minibatchSize, learningRate);
+        learningRate *= decay;
+        return (long) X.size() * minibatchSize;
+    }
+
+    @Override
+    public double accuracy() { return test.accuracy(Inputs.classes(predict(testX))); }
+}
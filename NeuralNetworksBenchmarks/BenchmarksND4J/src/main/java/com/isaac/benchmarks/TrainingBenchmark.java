@@ -0,0 +1,23 @@
+package com.isaac.benchmarks;
+
+import java.io.IOException;
+
+/**
+ * End-to-end training benchmark of the networks of NeuralNetworksND4J, see {@link TrainingRunner} for the options.
+ * The option of this backend is --precision, the data type of the arrays: DOUBLE (default) or FLOAT. The backend has
+ * no dropout or convolutional network, and runs on the threads of its native BLAS.
+ */
+public class TrainingBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        TrainingRunner runner = new TrainingRunner("NeuralNetworksND4J", args);
+        String precision = runner.option("precision", "DOUBLE");
+        Inputs.precision(precision);
+        runner.setConfiguration("precision=" + precision);
+        runner.add("Perceptron", PerceptronWorkload::new);
+        runner.add("MLP", MultiLayerPerceptronWorkload::new);
+        runner.add("DBN", DeepBeliefNetsWorkload::new);
+        runner.add("SdA", StackedDenoisingAutoencoderWorkload::new);
+        System.exit(runner.run());
+    }
+}
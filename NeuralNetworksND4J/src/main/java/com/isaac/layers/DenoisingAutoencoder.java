@@ -3,6 +3,7 @@ package com.isaac.layers;
 import com.isaac.initialization.Activation;
 import com.isaac.initialization.BiasInit;
 import com.isaac.initialization.WeightInit;
+import com.isaac.utils.UpdateRecorder;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
@@ -17,6 +18,7 @@ public class DenoisingAutoencoder {
     private INDArray hbias;
     private Random rng;
     private Function<INDArray, INDArray> activation; // normally, use Sigmoid
+    private UpdateRecorder updates = new UpdateRecorder(); // of the parameters, for the metrics of training
 
     public DenoisingAutoencoder(int nVisible, int nHidden, INDArray W, INDArray hbias, INDArray vbias, Random rng,
                                 Activation activationMethod) {
@@ -37,14 +39,18 @@ public class DenoisingAutoencoder {
         // 3. decode
         INDArray y = getReconstructedInput(z);
         // calculate gradients
-        // update vbias
         INDArray v_ = X.sub(y);
-        vbias.addi(v_.sum(0).transpose().mul(Nd4j.scalar(learningRate / minibatchSize)));
-        // update hbias
         INDArray h_ = v_.mmul(W.transpose()).mul(z).mul(z.sub(Nd4j.scalar(1)).mul(Nd4j.scalar(-1.0)));
-        hbias.addi(h_.sum(0).transpose().mul(Nd4j.scalar(learningRate / minibatchSize)));
+        INDArray gv = v_.sum(0).transpose(), gh = h_.sum(0).transpose();
+        INDArray gW = h_.transpose().mmul(corruptedInput).add(z.transpose().mmul(v_));
+        long start = updates.start();
+        // update vbias
+        vbias.addi(gv.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        // update hbias
+        hbias.addi(gh.mul(Nd4j.scalar(learningRate / minibatchSize)));
         // update W
-        W.addi(h_.transpose().mmul(corruptedInput).add(z.transpose().mmul(v_)).mul(Nd4j.scalar(learningRate / minibatchSize)));
+        W.addi(gW.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        updates.stop(start, minibatchSize, gW, gh, gv);
     }
 
     private INDArray getCorruptedInput(INDArray x, double corruptionLevel) {
@@ -79,4 +85,5 @@ public class DenoisingAutoencoder {
     public void setHbias(INDArray hbias) { this.hbias = hbias; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public UpdateRecorder getUpdateRecorder() { return updates; }
 }
@@ -4,6 +4,7 @@ import com.isaac.initialization.Activation;
 import com.isaac.initialization.BiasInit;
 import com.isaac.initialization.WeightInit;
 import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.UpdateRecorder;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
@@ -19,6 +20,7 @@ public class DenseLayer {
     private Random rng;
     private Function<INDArray, INDArray> activation;
     private Function<INDArray, INDArray> dactivation;
+    private UpdateRecorder updates = new UpdateRecorder(); // of the parameters, for the metrics of training
 
     public DenseLayer(int nIn, int nOut, INDArray W, INDArray b, Random rng, Activation activationMethod) {
         this.nIn = nIn;
@@ -39,8 +41,11 @@ public class DenseLayer {
     // backward
     public INDArray backward (INDArray X, INDArray Z, INDArray dY, INDArray Wprev, int minibatchSize, double learningRate) {
         INDArray dZ = dY.mmul(Wprev).mul(dactivation.apply(Z));
-        W.subi(dZ.transpose().mmul(X).mul(Nd4j.scalar(learningRate / minibatchSize)));
-        b.subi(dZ.sum(0).transpose().mul(Nd4j.scalar(learningRate / minibatchSize)));
+        INDArray gW = dZ.transpose().mmul(X), gb = dZ.sum(0).transpose();
+        long start = updates.start();
+        W.subi(gW.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        b.subi(gb.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        updates.stop(start, minibatchSize, gW, gb);
         return dZ;
     }
 
@@ -73,4 +78,5 @@ public class DenseLayer {
     public void setB(INDArray b) { this.b = b; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public UpdateRecorder getUpdateRecorder() { return updates; }
 }
@@ -3,6 +3,7 @@ package com.isaac.layers;
 import com.isaac.initialization.Activation;
 import com.isaac.initialization.BiasInit;
 import com.isaac.initialization.WeightInit;
+import com.isaac.utils.UpdateRecorder;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
@@ -17,6 +18,7 @@ public class OutputLayer {
     private INDArray b;
     private Random rng;
     private Function<INDArray, INDArray> activation;
+    private UpdateRecorder updates = new UpdateRecorder(); // of the parameters, for the metrics of training
 
     public OutputLayer (int nIn, int nOut, WeightInit weight, Random rng, Activation activationMethod) {
         this.nIn = nIn;
@@ -32,9 +34,12 @@ public class OutputLayer {
     public INDArray train(INDArray X, INDArray T, int minibatchSize, double learningRate) {
         // 1. Calculate the gradient of W and b using the data from the mini-batch
         INDArray dY = output(X).sub(T);
+        INDArray gW = dY.transpose().mmul(X), gb = dY.sum(0).transpose();
         // 2. Update W and b with the gradients
-        W.subi(dY.transpose().mmul(X).mul(Nd4j.scalar(learningRate / minibatchSize)));
-        b.subi(dY.sum(0).transpose().mul(Nd4j.scalar(learningRate / minibatchSize)));
+        long start = updates.start();
+        W.subi(gW.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        b.subi(gb.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        updates.stop(start, minibatchSize, gW, gb);
         return dY;
     }
 
@@ -71,4 +76,5 @@ public class OutputLayer {
     public void setB(INDArray b) { this.b = b; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public UpdateRecorder getUpdateRecorder() { return updates; }
 }
@@ -3,7 +3,9 @@ package com.isaac.layers;
 import com.isaac.initialization.Activation;
 import com.isaac.initialization.BiasInit;
 import com.isaac.initialization.WeightInit;
+import com.isaac.utils.FlightEvents;
 import com.isaac.utils.RandomGenerator;
+import com.isaac.utils.UpdateRecorder;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
@@ -19,6 +21,7 @@ public class RestrictedBoltzmannMachine {
     private INDArray vbias;
     public Random rng;
     private Function<INDArray, INDArray> activation;
+    private UpdateRecorder updates = new UpdateRecorder(); // of the parameters, for the metrics of training
 
     private INDArray phMean_;
     private INDArray phSample_;
@@ -45,6 +48,7 @@ public class RestrictedBoltzmannMachine {
         this.nvSamples_ = Nd4j.create(new double[minibatchSize * nVisible], new int[] { minibatchSize, nVisible });
         this.nhMeans_ = Nd4j.create(new double[minibatchSize * nHidden], new int[] { minibatchSize, nHidden });
         this.nhSamples_ = Nd4j.create(new double[minibatchSize * nHidden], new int[] { minibatchSize, nHidden });
+        FlightEvents.Sampling sampling = FlightEvents.sampling(); // null unless recorded
         // sample H given V
         this.phMean_ = propup(X);
         this.phSample_ = binomial(this.phMean_, rng);
@@ -59,11 +63,18 @@ public class RestrictedBoltzmannMachine {
                 sampleHgivenV(this.nvSamples_);
             }
         }
+        if (sampling != null) {
+            sampling.end(getClass().getSimpleName(), minibatchSize, FlightEvents.shape(nVisible, nHidden), k, false);
+        }
         // update parameters
-        W.addi(phMean_.transpose().mmul(X).sub(nhMeans_.transpose().mmul(nvSamples_))
-                .mul(Nd4j.scalar(learningRate / minibatchSize)));
-        hbias.addi(phMean_.sum(0).sub(nhMeans_.sum(0)).transpose().mul(Nd4j.scalar(learningRate / minibatchSize)));
-        vbias.addi(X.sum(0).sub(nvSamples_.sum(0)).transpose().mul(Nd4j.scalar(learningRate / minibatchSize)));
+        INDArray gW = phMean_.transpose().mmul(X).sub(nhMeans_.transpose().mmul(nvSamples_));
+        INDArray gh = phMean_.sum(0).sub(nhMeans_.sum(0)).transpose();
+        INDArray gv = X.sum(0).sub(nvSamples_.sum(0)).transpose();
+        long start = updates.start();
+        W.addi(gW.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        hbias.addi(gh.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        vbias.addi(gv.mul(Nd4j.scalar(learningRate / minibatchSize)));
+        updates.stop(start, minibatchSize, gW, gh, gv);
     }
 
     private void sampleHgivenV(INDArray v0Sample) {
@@ -110,4 +121,5 @@ public class RestrictedBoltzmannMachine {
     public void setVbias(INDArray vbias) { this.vbias = vbias; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public UpdateRecorder getUpdateRecorder() { return updates; }
 }
@@ -4,6 +4,7 @@ import com.isaac.initialization.Activation;
 import com.isaac.initialization.WeightInit;
 import com.isaac.layers.DenseLayer;
 import com.isaac.layers.OutputLayer;
+import com.isaac.utils.FlightEvents;
 import com.isaac.layers.RestrictedBoltzmannMachine;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
@@ -21,6 +22,9 @@ public class DeepBeliefNets {
     private RestrictedBoltzmannMachine[] rbmLayers;
     private DenseLayer[] hiddenLayers;
     private OutputLayer outputLayer;
+    private String[] names; // of the layers in the metrics of a training step and in the flight recorder events
+    private String[] shapes; // of a sample through every layer, in the flight recorder events
+    private IterationMetrics metrics; // null when no listener is set
     public Random rng;
 
     public DeepBeliefNets (int nIn, int[] hiddenLayerSizes, int nOut, Random rng) {
@@ -38,12 +42,28 @@ public class DeepBeliefNets {
                     null, this.rng, Activation.Sigmoid);
         }
         this.outputLayer = new OutputLayer(hiddenLayerSizes[nLayers - 1], nOut, WeightInit.ZERO, this.rng, Activation.Softmax);
+        this.names = new String[nLayers + 1];
+        for (int i = 0; i < nLayers; i++) names[i] = IterationMetrics.name(hiddenLayers[i], i);
+        names[nLayers] = IterationMetrics.name(outputLayer, nLayers);
+        this.shapes = new String[nLayers + 1];
+        for (int i = 0; i <= nLayers; i++) {
+            shapes[i] = FlightEvents.shape(i == 0 ? nIn : hiddenLayerSizes[i - 1],
+                    i < nLayers ? hiddenLayerSizes[i] : nOut);
+        }
     }
 
     public void pretrain(List<INDArray> X, int minibatchSize, int minibatch_N, int epochs, double learningRate, int k) {
         for (int layer = 0; layer < nLayers; layer++) {  // pre-train layer-wise
+            String[] names = { IterationMetrics.name(rbmLayers[layer], layer) };
+            String shape = shapes[layer];
             for (int epoch = 0; epoch < epochs; epoch++) {
                 for (int batch = 0; batch < minibatch_N; batch++) {
+                    long start = 0L;
+                    FlightEvents.Step step = FlightEvents.step(); // null unless recorded
+                    if (metrics != null) {
+                        metrics.begin(IterationMetrics.PRETRAIN, names, minibatchSize);
+                        start = System.nanoTime();
+                    }
                     INDArray X_ = Nd4j.create(new double[minibatchSize * nIn], new int[] {minibatchSize, nIn});
                     INDArray prevLayerX_;
                     // Set input data for current layer
@@ -53,13 +73,30 @@ public class DeepBeliefNets {
                         prevLayerX_ = X_;
                         X_ = hiddenLayers[layer-1].outputBinomial(prevLayerX_);
                     }
+                    if (metrics != null) {
+                        metrics.forward(0, start);
+                        start = metrics.beginBackward(rbmLayers[layer].getUpdateRecorder());
+                    }
+                    FlightEvents.Pass pass = FlightEvents.pass();
                     rbmLayers[layer].contrastiveDivergence(X_, minibatchSize, learningRate, k);
+                    if (pass != null) pass.end(names[0], FlightEvents.BACKWARD, minibatchSize, shape);
+                    if (step != null) step.end(getClass().getSimpleName(), FlightEvents.PRETRAIN, minibatchSize, shape);
+                    if (metrics != null) {
+                        metrics.backward(0, start);
+                        metrics.end();
+                    }
                 }
             }
         }
     }
 
     public void finetune(INDArray X, INDArray T, int minibatchSize, double learningRate) {
+        IterationMetrics metrics = this.metrics;
+        long start = 0L;
+        if (metrics != null) metrics.begin(IterationMetrics.TRAIN, names, minibatchSize);
+        // the events are null unless a flight recording has them enabled
+        FlightEvents.Step step = FlightEvents.step();
+        FlightEvents.Pass pass;
         List<INDArray> layerInputs = new ArrayList<>(nLayers + 1);
         layerInputs.add(X);
         INDArray Z = X.dup();
@@ -72,12 +109,23 @@ public class DeepBeliefNets {
                 x_ = X;
             else
                 x_ = Z;
+            if (metrics != null) start = System.nanoTime();
+            pass = FlightEvents.pass();
             Z_ = hiddenLayers[layer].forward(x_);
+            if (pass != null) pass.end(names[layer], FlightEvents.FORWARD, minibatchSize, shapes[layer]);
+            if (metrics != null) metrics.forward(layer, start);
             Z = Z_;
             layerInputs.add(Z.dup());
         }
         // forward & backward output layer
+        if (metrics != null) start = metrics.beginBackward(outputLayer.getUpdateRecorder());
+        pass = FlightEvents.pass();
         dY = outputLayer.train(Z, T, minibatchSize, learningRate);
+        if (pass != null) pass.end(names[nLayers], FlightEvents.BACKWARD, minibatchSize, shapes[nLayers]);
+        if (metrics != null) {
+            metrics.backward(nLayers, start);
+            metrics.setLoss(IterationMetrics.loss(dY, T));
+        }
         // backward hidden layers
         INDArray Wprev;
         INDArray dZ = Z.dup();
@@ -88,20 +136,35 @@ public class DeepBeliefNets {
                 Wprev = hiddenLayers[layer + 1].getW();
                 dY = dZ.dup();
             }
+            if (metrics != null) start = metrics.beginBackward(hiddenLayers[layer].getUpdateRecorder());
+            pass = FlightEvents.pass();
             dZ = hiddenLayers[layer].backward(layerInputs.get(layer), layerInputs.get(layer+1),
                     dY, Wprev, minibatchSize, learningRate);
+            if (pass != null) pass.end(names[layer], FlightEvents.BACKWARD, minibatchSize, shapes[layer]);
+            if (metrics != null) metrics.backward(layer, start);
         }
+        if (step != null) step.end(getClass().getSimpleName(), FlightEvents.TRAIN, minibatchSize,
+                FlightEvents.shape(nIn, nOut));
+        if (metrics != null) metrics.end();
     }
 
     public INDArray predict(INDArray x) {
+        FlightEvents.Predict predict = FlightEvents.predict(); // null unless recorded
+        FlightEvents.Pass pass;
         INDArray z = x.dup();
         for (int layer = 0; layer < nLayers; layer++) {
             INDArray x_;
             if (layer == 0) x_ = x;
             else x_ = z.dup();
+            pass = FlightEvents.pass();
             z = hiddenLayers[layer].forward(x_);
+            if (pass != null) pass.end(names[layer], FlightEvents.FORWARD, x.rows(), shapes[layer]);
         }
-        return outputLayer.predict(z);
+        pass = FlightEvents.pass();
+        INDArray y = outputLayer.predict(z);
+        if (pass != null) pass.end(names[nLayers], FlightEvents.FORWARD, x.rows(), shapes[nLayers]);
+        if (predict != null) predict.end(getClass().getSimpleName(), x.rows(), FlightEvents.shape(nIn, nOut));
+        return y;
     }
 
     /** Getters and Setters */
@@ -115,4 +178,9 @@ public class DeepBeliefNets {
     public void setnLayers(int nLayers) { this.nLayers = nLayers; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public TrainingListener getListener() { return metrics == null ? null : metrics.getListener(); }
+    // reports every minibatch of pretrain and finetune to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        metrics = listener == null ? null : new IterationMetrics(getClass().getSimpleName(), listener);
+    }
 }
@@ -0,0 +1,135 @@
+package com.isaac.neuralnetworks;
+
+import com.isaac.utils.UpdateRecorder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The metrics of one training iteration of a network, handed to its {@link TrainingListener}: the loss, the wall time
+ * and throughput of the iteration, and for every layer it ran through the time of its forward pass, of its backward
+ * pass, of the parameter updates within the backward pass, and the L2 norm of the averaged gradient it descended.
+ * The output layer computes its forward and backward passes in one sweep, which is timed as its backward pass. An
+ * iteration of pre-training runs through the one layer being trained: its forward pass is the preparation of its
+ * input from the frozen layers below, its backward pass the contrastive divergence or denoising step.
+ */
+@SuppressWarnings("unused")
+public final class IterationMetrics {
+    public static final String PRETRAIN = "pretrain"; // layer-wise pre-training
+    public static final String TRAIN = "train"; // supervised training, finetuning included
+
+    private final String model;
+    private final TrainingListener listener;
+    private long iteration; // from 1, pre-training and training of the network alike
+    private String phase;
+    private String[] layers; // names of the layers of the iteration
+    private int minibatchSize;
+    private double loss; // NaN if the iteration computes none, e.g. in pre-training
+    private long start, nanos;
+    private long[] forwardNanos = new long[0], backwardNanos, updateNanos;
+    private double[] gradientNorms;
+    private UpdateRecorder recording; // of the layer whose backward pass is being timed
+
+    IterationMetrics(String model, TrainingListener listener) {
+        this.model = model;
+        this.listener = listener;
+    }
+
+    // the name of layer l of a network in the metrics, e.g. DenseLayer#0
+    static String name(Object layer, int l) { return layer.getClass().getSimpleName() + "#" + l; }
+
+    // mean cross-entropy of a minibatch, from the delta Y - T of a softmax output layer
+    static double loss(INDArray dY, INDArray T) {
+        double sum = 0.;
+        for (int n = 0; n < T.rows(); n++) {
+            for (int j = 0; j < T.columns(); j++) {
+                double t = T.getDouble(n, j);
+                if (t > 0.) sum -= t * Math.log(Math.max(dY.getDouble(n, j) + t, Double.MIN_NORMAL));
+            }
+        }
+        return sum / T.rows();
+    }
+
+    // starts an iteration of a minibatch through the given layers
+    void begin(String phase, String[] layers, int minibatchSize) {
+        iteration++;
+        this.phase = phase;
+        this.layers = layers;
+        this.minibatchSize = minibatchSize;
+        if (forwardNanos.length != layers.length) {
+            forwardNanos = new long[layers.length];
+            backwardNanos = new long[layers.length];
+            updateNanos = new long[layers.length];
+            gradientNorms = new double[layers.length];
+        } else {
+            Arrays.fill(forwardNanos, 0L);
+            Arrays.fill(backwardNanos, 0L);
+            Arrays.fill(updateNanos, 0L);
+        }
+        Arrays.fill(gradientNorms, Double.NaN);
+        loss = Double.NaN;
+        start = System.nanoTime();
+    }
+
+    // the forward pass of layer l ends, it began at the given System.nanoTime()
+    void forward(int l, long start) { forwardNanos[l] = System.nanoTime() - start; }
+
+    // the backward pass of a layer begins, recording its updates; returns its start
+    long beginBackward(UpdateRecorder updates) {
+        updates.record(true);
+        recording = updates;
+        return System.nanoTime();
+    }
+
+    // the backward pass of layer l begun by beginBackward ends
+    void backward(int l, long start) {
+        backwardNanos[l] = System.nanoTime() - start;
+        recording.record(false);
+        updateNanos[l] = recording.getNanos();
+        gradientNorms[l] = recording.getGradientNorm();
+        recording = null;
+    }
+
+    // the backward pass of layer l ends, all of it spent updating, with the given gradient norm
+    void update(int l, long start, double gradientNorm) {
+        backwardNanos[l] = updateNanos[l] = System.nanoTime() - start;
+        gradientNorms[l] = gradientNorm;
+    }
+
+    void setLoss(double loss) { this.loss = loss; }
+
+    // ends the iteration and hands it to the listener
+    void end() {
+        nanos = System.nanoTime() - start;
+        listener.iterationDone(this);
+    }
+
+    public double getSamplesPerSecond() { return nanos > 0 ? minibatchSize * 1e9 / nanos : 0.; }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(String.format(Locale.ROOT, "%s %s #%d: loss %.6f, %.1f samples/s", model,
+                phase, iteration, loss, getSamplesPerSecond()));
+        for (int l = 0; l < layers.length; l++) {
+            s.append(String.format(Locale.ROOT, ", %s forward %dns backward %dns update %dns |g| %.6f", layers[l],
+                    forwardNanos[l], backwardNanos[l], updateNanos[l], gradientNorms[l]));
+        }
+        return s.toString();
+    }
+
+    /** Getters */
+    public String getModel() { return model; }
+    public TrainingListener getListener() { return listener; }
+    public long getIteration() { return iteration; }
+    public String getPhase() { return phase; }
+    public int getnLayers() { return layers.length; }
+    public String getLayer(int l) { return layers[l]; }
+    public int getMinibatchSize() { return minibatchSize; }
+    public double getLoss() { return loss; }
+    public long getNanos() { return nanos; }
+    public long getForwardNanos(int l) { return forwardNanos[l]; }
+    public long getBackwardNanos(int l) { return backwardNanos[l]; }
+    public long getUpdateNanos(int l) { return updateNanos[l]; }
+    public double getGradientNorm(int l) { return gradientNorms[l]; }
+}
@@ -0,0 +1,124 @@
+package com.isaac.neuralnetworks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * A training listener writing the metrics of the iterations to a file or any other sink, for dashboards. CSV has a
+ * header and one row per layer of an iteration, the values of the whole iteration repeated on each:
+ * <pre>
+ *   timestamp,model,phase,iteration,minibatchSize,loss,nanos,samplesPerSecond,layer,forwardNanos,backwardNanos,
+ *   updateNanos,gradientNorm
+ * </pre>
+ * with the timestamp in milliseconds. The line protocol of InfluxDB and Telegraf writes a point "training" tagged with
+ * the model and the phase per iteration, and a point "training_layer" tagged with the layer as well per layer of it,
+ * timestamped in nanoseconds; NaN values, which the protocol has no notation for, are left out. Every iteration
+ * written is flushed, writing only every n-th iteration keeps the sink small on long trainings.
+ */
+@SuppressWarnings("unused")
+public final class MetricsExporter implements TrainingListener, Closeable {
+    public enum Format { CSV, LINE_PROTOCOL }
+
+    static final String HEADER = "timestamp,model,phase,iteration,minibatchSize,loss,nanos,samplesPerSecond,layer," +
+            "forwardNanos,backwardNanos,updateNanos,gradientNorm";
+
+    private final Writer out;
+    private final Format format;
+    private final int every; // iterations between two written ones
+    private final StringBuilder line = new StringBuilder(); // reused by every iteration written
+    private boolean header; // whether the CSV header was written
+
+    public MetricsExporter(File file, Format format) throws IOException {
+        this(file, format, 1);
+    }
+
+    public MetricsExporter(File file, Format format, int every) throws IOException {
+        this(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8), format, every);
+    }
+
+    // out is closed with the exporter
+    public MetricsExporter(Writer out, Format format, int every) {
+        if (every < 1) throw new IllegalArgumentException("Given interval un-supported, it must be at least 1");
+        this.out = out;
+        this.format = format == null ? Format.CSV : format;
+        this.every = every;
+    }
+
+    @Override
+    public void iterationDone(IterationMetrics metrics) {
+        if (metrics.getIteration() % every != 0) return;
+        line.setLength(0);
+        if (format == Format.CSV) csv(metrics);
+        else lineProtocol(metrics);
+        try {
+            out.append(line);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void csv(IterationMetrics metrics) {
+        if (!header) {
+            line.append(HEADER).append('\n');
+            header = true;
+        }
+        long timestamp = System.currentTimeMillis();
+        for (int l = 0; l < metrics.getnLayers(); l++) {
+            line.append(timestamp).append(',').append(metrics.getModel()).append(',').append(metrics.getPhase())
+                    .append(',').append(metrics.getIteration()).append(',').append(metrics.getMinibatchSize())
+                    .append(',').append(metrics.getLoss()).append(',').append(metrics.getNanos()).append(',')
+                    .append(metrics.getSamplesPerSecond()).append(',').append(metrics.getLayer(l)).append(',')
+                    .append(metrics.getForwardNanos(l)).append(',').append(metrics.getBackwardNanos(l)).append(',')
+                    .append(metrics.getUpdateNanos(l)).append(',').append(metrics.getGradientNorm(l)).append('\n');
+        }
+    }
+
+    private void lineProtocol(IterationMetrics metrics) {
+        long timestamp = System.currentTimeMillis() * 1000000L;
+        line.append("training,model=");
+        tag(metrics.getModel());
+        line.append(",phase=");
+        tag(metrics.getPhase());
+        line.append(" iteration=").append(metrics.getIteration()).append("i,minibatch_size=")
+                .append(metrics.getMinibatchSize()).append("i,nanos=").append(metrics.getNanos())
+                .append("i,samples_per_second=").append(metrics.getSamplesPerSecond());
+        field("loss", metrics.getLoss());
+        line.append(' ').append(timestamp).append('\n');
+        for (int l = 0; l < metrics.getnLayers(); l++) {
+            line.append("training_layer,model=");
+            tag(metrics.getModel());
+            line.append(",phase=");
+            tag(metrics.getPhase());
+            line.append(",layer=");
+            tag(metrics.getLayer(l));
+            line.append(" iteration=").append(metrics.getIteration()).append("i,forward_nanos=")
+                    .append(metrics.getForwardNanos(l)).append("i,backward_nanos=")
+                    .append(metrics.getBackwardNanos(l)).append("i,update_nanos=").append(metrics.getUpdateNanos(l))
+                    .append('i');
+            field("gradient_norm", metrics.getGradientNorm(l));
+            line.append(' ').append(timestamp).append('\n');
+        }
+    }
+
+    // commas, spaces and equal signs of a tag value are escaped
+    private void tag(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == ' ' || c == '=') line.append('\\');
+            line.append(c);
+        }
+    }
+
+    private void field(String name, double value) {
+        if (!Double.isNaN(value) && !Double.isInfinite(value)) line.append(',').append(name).append('=').append(value);
+    }
+
+    @Override
+    public void close() throws IOException { out.close(); }
+}
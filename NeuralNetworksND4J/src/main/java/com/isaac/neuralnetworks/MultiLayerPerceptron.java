@@ -4,6 +4,7 @@ import com.isaac.initialization.Activation;
 import com.isaac.initialization.WeightInit;
 import com.isaac.layers.DenseLayer;
 import com.isaac.layers.OutputLayer;
+import com.isaac.utils.FlightEvents;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import java.util.Random;
@@ -15,6 +16,9 @@ public class MultiLayerPerceptron {
     private DenseLayer hiddenLayer;
     private OutputLayer outputLayer;
     private Random rng;
+    private String[] names; // of the layers in the metrics of a training step and in the flight recorder events
+    private String[] shapes; // of a sample through every layer, in the flight recorder events
+    private IterationMetrics metrics; // null when no listener is set
 
     public MultiLayerPerceptron(int nIn, int nHidden, int nOut, Random rng) {
         this.nIn = nIn;
@@ -23,16 +27,55 @@ public class MultiLayerPerceptron {
         this.rng = rng == null ? new Random(1234) : rng;
         this.hiddenLayer = new DenseLayer(nIn, nHidden, null, null, rng, Activation.Tanh);
         this.outputLayer = new OutputLayer(nHidden, nOut, WeightInit.UNIFORM, rng, Activation.Softmax);
+        this.names = new String[] { IterationMetrics.name(hiddenLayer, 0), IterationMetrics.name(outputLayer, 1) };
+        this.shapes = new String[] { FlightEvents.shape(nIn, nHidden), FlightEvents.shape(nHidden, nOut) };
     }
 
     public void train(INDArray X, INDArray T, int minibatchSize, double learningRate) {
+        IterationMetrics metrics = this.metrics;
+        long start = 0L;
+        if (metrics != null) {
+            metrics.begin(IterationMetrics.TRAIN, names, minibatchSize);
+            start = System.nanoTime();
+        }
+        // the events are null unless a flight recording has them enabled
+        FlightEvents.Step step = FlightEvents.step();
+        FlightEvents.Pass pass = FlightEvents.pass();
         INDArray Z = hiddenLayer.forward(X);
+        if (pass != null) pass.end(names[0], FlightEvents.FORWARD, minibatchSize, shapes[0]);
+        if (metrics != null) {
+            metrics.forward(0, start);
+            start = metrics.beginBackward(outputLayer.getUpdateRecorder());
+        }
+        pass = FlightEvents.pass();
         INDArray dY = outputLayer.train(Z, T, minibatchSize, learningRate);
+        if (pass != null) pass.end(names[1], FlightEvents.BACKWARD, minibatchSize, shapes[1]);
+        if (metrics != null) {
+            metrics.backward(1, start);
+            metrics.setLoss(IterationMetrics.loss(dY, T));
+            start = metrics.beginBackward(hiddenLayer.getUpdateRecorder());
+        }
+        pass = FlightEvents.pass();
         hiddenLayer.backward(X, Z, dY, outputLayer.getW(), minibatchSize, learningRate);
+        if (pass != null) pass.end(names[0], FlightEvents.BACKWARD, minibatchSize, shapes[0]);
+        if (step != null) step.end(getClass().getSimpleName(), FlightEvents.TRAIN, minibatchSize,
+                FlightEvents.shape(nIn, nOut));
+        if (metrics != null) {
+            metrics.backward(0, start);
+            metrics.end();
+        }
     }
 
     public INDArray predict(INDArray x) {
-        return outputLayer.predict(hiddenLayer.forward(x));
+        FlightEvents.Predict predict = FlightEvents.predict();
+        FlightEvents.Pass pass = FlightEvents.pass();
+        INDArray z = hiddenLayer.forward(x);
+        if (pass != null) pass.end(names[0], FlightEvents.FORWARD, x.rows(), shapes[0]);
+        pass = FlightEvents.pass();
+        INDArray y = outputLayer.predict(z);
+        if (pass != null) pass.end(names[1], FlightEvents.FORWARD, x.rows(), shapes[1]);
+        if (predict != null) predict.end(getClass().getSimpleName(), x.rows(), FlightEvents.shape(nIn, nOut));
+        return y;
     }
 
     /** Getters and Setters */
@@ -44,5 +87,10 @@ public class MultiLayerPerceptron {
     public void setnOut(int nOut) { this.nOut = nOut; }
     public Random getRng() { return rng; }
     public void setRng(Random rng) { this.rng = rng; }
+    public TrainingListener getListener() { return metrics == null ? null : metrics.getListener(); }
+    // reports every minibatch of train to the given listener, null stops reporting
+    public void setListener(TrainingListener listener) {
+        metrics = listener == null ? null : new IterationMetrics(getClass().getSimpleName(), listener);
+    }
 
 }
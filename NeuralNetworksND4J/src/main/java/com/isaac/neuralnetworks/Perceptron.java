@@ -2,6 +2,7 @@ package com.isaac.neuralnetworks;
 
 import com.isaac.initialization.Activation;
 import com.isaac.initialization.WeightInit;
+import com.isaac.utils.FlightEvents;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import java.util.Random;
@@ -10,9 +11,11 @@ import java.util.function.Function;
 @SuppressWarnings("unused")
 public class Perceptron {
 
+	private static final String[] LAYERS = { "Perceptron#0" }; // in the metrics of a training step
 	private int nIn; // dimensions of input data
 	private INDArray w; // weight vector of perceptrons
 	private Function<INDArray, INDArray> activation;
+	private IterationMetrics metrics; // null when no listener is set
 
 	public Perceptron(int nIn, WeightInit weight) {
 		this.nIn = nIn;
@@ -22,15 +25,36 @@ public class Perceptron {
 	}
 
 	public int train(INDArray x, INDArray t, double learningRate) {
+		IterationMetrics metrics = this.metrics;
+		long start = 0L;
+		FlightEvents.Step step = FlightEvents.step(); // null unless recorded
+		if (metrics != null) {
+			metrics.begin(IterationMetrics.TRAIN, LAYERS, 1);
+			start = System.nanoTime();
+		}
 		int classified = 0;
 		double c = x.mmul(w.transpose()).getDouble(0) * t.getDouble(0);
+		if (metrics != null) {
+			metrics.forward(0, start);
+			start = System.nanoTime();
+		}
 		if (c > 0) { classified = 1; }
 		else { w.addi(x.transpose().mul(t).mul(learningRate).transpose()); }
+		if (step != null) step.end(getClass().getSimpleName(), FlightEvents.TRAIN, 1, FlightEvents.shape(nIn, 1));
+		if (metrics != null) {
+			// the perceptron criterion max(0, -t w.x), of gradient -t x on a wrongly classified sample
+			metrics.update(0, start, classified == 1 ? 0. : x.norm2Number().doubleValue());
+			metrics.setLoss(Math.max(0., -c));
+			metrics.end();
+		}
 		return classified;
 	}
 
 	public INDArray predict(INDArray x) {
-		return activation.apply(x.mmul(w.transpose()));
+		FlightEvents.Predict predict = FlightEvents.predict();
+		INDArray y = activation.apply(x.mmul(w.transpose()));
+		if (predict != null) predict.end(getClass().getSimpleName(), x.rows(), FlightEvents.shape(nIn, 1));
+		return y;
 	}
 
 	/** Getters and Setters */
@@ -38,5 +62,10 @@ public class Perceptron {
 	public void setnIn(int nIn) { this.nIn = nIn; }
 	public INDArray getW() { return w; }
 	public void setW(INDArray w) { this.w = w; }
+	public TrainingListener getListener() { return metrics == null ? null : metrics.getListener(); }
+	// reports every sample of train to the given listener, null stops reporting
+	public void setListener(TrainingListener listener) {
+		metrics = listener == null ? null : new IterationMetrics(getClass().getSimpleName(), listener);
+	}
 
 }
@@ -0,0 +1,12 @@
+package com.isaac.neuralnetworks;
+
+/**
+ * Receives the metrics of every training iteration of a network, i.e. of every minibatch of train, finetune and
+ * pretrain (of every sample for the perceptron), on the training thread. A network without a listener takes no
+ * timings and computes no loss, so training runs as fast as before. See {@link MetricsExporter} for a listener writing
+ * the metrics to CSV or to a line protocol.
+ */
+public interface TrainingListener {
+    // metrics is reused by the next iteration, values that must outlive the call are to be copied out of it
+    void iterationDone(IterationMetrics metrics);
+}
@@ -0,0 +1,53 @@
+package com.isaac.utils;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Times the parameter updates of a layer and sums the squares of the averaged gradients they descend, for the metrics
+ * of a training listener. Nothing is measured unless recording, so a layer nobody listens to only checks a flag.
+ */
+@SuppressWarnings("unused")
+public final class UpdateRecorder {
+    private boolean recording;
+    private int updates;
+    private long nanos;
+    private double squares;
+
+    // starts recording from zero, or stops it keeping what was recorded
+    public void record(boolean recording) {
+        this.recording = recording;
+        if (!recording) return;
+        updates = 0;
+        nanos = 0L;
+        squares = 0.;
+    }
+
+    // the System.nanoTime() an update starts at, 0 if not recording
+    public long start() { return recording ? System.nanoTime() : 0L; }
+
+    // the update begun at start ends, it descended the given gradients summed over the minibatch
+    public void stop(long start, int minibatchSize, INDArray gW, INDArray gb) {
+        if (!recording) return;
+        nanos += System.nanoTime() - start;
+        squares += squares(gW, minibatchSize) + squares(gb, minibatchSize);
+        updates++;
+    }
+
+    public void stop(long start, int minibatchSize, INDArray gW, INDArray gh, INDArray gv) {
+        if (!recording) return;
+        nanos += System.nanoTime() - start;
+        squares += squares(gW, minibatchSize) + squares(gh, minibatchSize) + squares(gv, minibatchSize);
+        updates++;
+    }
+
+    private static double squares(INDArray g, int minibatchSize) {
+        double norm = g.norm2Number().doubleValue() / minibatchSize;
+        return norm * norm;
+    }
+
+    /** Getters */
+    public boolean isRecording() { return recording; }
+    public long getNanos() { return nanos; }
+    // NaN if nothing was recorded
+    public double getGradientNorm() { return updates == 0 ? Double.NaN : Math.sqrt(squares); }
+}